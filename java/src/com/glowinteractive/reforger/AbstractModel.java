@@ -44,5 +44,32 @@ import java.util.EnumSet;
 public interface AbstractModel {
   public EnumMap<Stat, EnumSet<Stat>> candidateMappings();
   public float calculateEP(int[] statValues);
+
+  /**
+   * Returns the EP change of moving deltaValue points from stat indexDec to stat
+   * indexInc, given the stats before the move.  The stats are not modified.
+   */
+  public float calculateEPDelta(int[] statValues, int indexDec, int indexInc, int deltaValue);
   public float calculateEPDeltaMax(Stat from, int amount);
+
+  /**
+   * Stats whose EP contribution is coefficient * value for every value, independent
+   * of all other stats.  Solvers may exploit this structure; return an empty set if
+   * no such guarantee can be made.
+   */
+  public EnumSet<Stat> linearStats();
+
+  /**
+   * Largest and smallest EP gained per point of the stat by any single-point step
+   * between low and high, with all other stats held fixed.  The model must be
+   * separable by stat for these to bound multi-stat changes.
+   */
+  public float marginalEPMax(Stat stat, int low, int high);
+  public float marginalEPMin(Stat stat, int low, int high);
+
+  /**
+   * Stat values at which the marginal EP of the stat changes, in ascending order.
+   * Between breakpoints the stat's contribution must be linear.
+   */
+  public int[] breakpoints(Stat stat);
 }
@@ -0,0 +1,28 @@
+/**
+ * @author Luke Tyler Downey
+ * Copyright 2011 Glow Interactive
+ *
+ * This software contains original work and/or modifications to
+ * original work, which are redistributed under the following terms.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.glowinteractive.reforger;
+
+public interface AbstractSolver {
+  public boolean accepts(SearchSpace space);
+  public Solution solve(SearchSpace space);
+}
@@ -0,0 +1,144 @@
+/**
+ * @author Luke Tyler Downey
+ * Copyright 2011 Glow Interactive
+ *
+ * This software contains original work and/or modifications to
+ * original work, which are redistributed under the following terms.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.glowinteractive.reforger;
+
+import java.util.EnumMap;
+import java.util.EnumSet;
+
+/**
+ * Model for plate tanks, valuing dodge and parry after diminishing returns.
+ *
+ * The avoidance of undiminished percentage x is 1 / (1 / C + k / x), where x
+ * includes whatever comes from outside rating (e.g. strength to parry).  The
+ * formula is concave, and it is never evaluated during a search.  Each stat's
+ * curve is sampled every DR_STEP points of rating and interpolated linearly
+ * between samples.  StatCurve and FixedPointModel then tabulate it like any
+ * other curve.  Within the sampled range the interpolation is within 0.01 EP of
+ * the formula.
+ */
+public final class AvoidanceModel extends PiecewiseLinearModel {
+
+  // Level 85 constants for death knights, paladins and warriors.
+  private static final double RATING_PER_PERCENT = 176.7189;
+  private static final double DR_K               = 0.956;
+  private static final double DODGE_CAP          = 65.631440;
+  private static final double PARRY_CAP          = 65.631440;
+
+  // Sampled range of rating; the last slope continues beyond it.
+  private static final int DR_STEP  = 16;
+  private static final int DR_RANGE = 1 << 12;
+
+  // Undiminished avoidance, in percent, from sources other than rating.
+  private static final float DODGE_BASE = 1.0f;
+  private static final float PARRY_BASE = 6.0f;
+
+  private static final float AVOIDANCE_COEFFICIENT = 200.0f;     // Per percent after diminishing returns.
+
+  private static final int HIT_CAP = 961;
+  private static final int EXP_CAP = 781;
+
+  private static final float HIT_COEFFICIENT_TO_CAP = 0.30f;
+  private static final float HIT_COEFFICIENT_CAPPED = 0.00f;
+
+  private static final float EXP_COEFFICIENT_TO_CAP = 0.35f;
+  private static final float EXP_COEFFICIENT_CAPPED = 0.00f;
+
+  private static final float CRI_COEFFICIENT = 0.05f;
+  private static final float HST_COEFFICIENT = 0.10f;
+  private static final float MST_COEFFICIENT = 1.00f;
+
+  public AvoidanceModel() {
+    this(DODGE_BASE, PARRY_BASE);
+  }
+
+  /**
+   * Values avoidance on top of the given undiminished dodge and parry, in percent.
+   */
+  public AvoidanceModel(float dodgeBase, float parryBase) {
+    super(curves(dodgeBase, parryBase));
+  }
+
+  private static EnumMap<Stat, StatCurve> curves(float dodgeBase, float parryBase) {
+    EnumMap<Stat, StatCurve> result = new EnumMap<Stat, StatCurve>(Stat.class);
+
+    result.put(Stat.HIT, StatCurve.capped(HIT_CAP, HIT_COEFFICIENT_TO_CAP, HIT_COEFFICIENT_CAPPED));
+    result.put(Stat.CRI, StatCurve.linear(CRI_COEFFICIENT));
+    result.put(Stat.HST, StatCurve.linear(HST_COEFFICIENT));
+    result.put(Stat.EXP, StatCurve.capped(EXP_CAP, EXP_COEFFICIENT_TO_CAP, EXP_COEFFICIENT_CAPPED));
+    result.put(Stat.MST, StatCurve.linear(MST_COEFFICIENT));
+    result.put(Stat.DOD, diminished(dodgeBase, DODGE_CAP));
+    result.put(Stat.PAR, diminished(parryBase, PARRY_CAP));
+
+    return result;
+  }
+
+  /**
+   * Samples the EP of rating under diminishing returns with cap C, on top of base
+   * undiminished percent.
+   */
+  private static StatCurve diminished(double base, double cap) {
+    final int     COUNT  = DR_RANGE / DR_STEP;
+    final double  ZERO   = avoidance(base, cap);
+    final int[]   POINTS = new int[COUNT];
+    final float[] SLOPES = new float[COUNT + 1];
+
+    double previous = 0.0;
+
+    // Segment k ends at (k + 1) * DR_STEP; the last one is the chord of the step
+    // after the range.
+    for (int k = 0; k <= COUNT; ++k) {
+      final int    END = (k + 1) * DR_STEP;
+      final double EP  = AVOIDANCE_COEFFICIENT * (avoidance(base + END / RATING_PER_PERCENT, cap) - ZERO);
+
+      SLOPES[k] = (float) ((EP - previous) / DR_STEP);
+      previous  = EP;
+
+      if (k < COUNT) {
+        POINTS[k] = END;
+      }
+    }
+
+    return new StatCurve(POINTS, SLOPES);
+  }
+
+  private static double avoidance(double undiminished, double cap) {
+    return (undiminished <= 0.0) ? 0.0 : 1.0 / (1.0 / cap + DR_K / undiminished);
+  }
+
+  @Override public EnumMap<Stat, EnumSet<Stat>> candidateMappings() {
+    EnumMap<Stat, EnumSet<Stat>> result = new EnumMap<Stat, EnumSet<Stat>>(Stat.class);
+
+    // Any stat may go to avoidance, mastery, or the threat stats.
+    for (Stat s : Stat.values()) {
+      EnumSet<Stat> stats = EnumSet.of(Stat.DOD, Stat.PAR, Stat.MST, Stat.HIT, Stat.EXP);
+      stats.remove(s);
+      result.put(s, stats);
+    }
+
+    return result;
+  }
+
+  @Override public String toString() {
+    return "AvoidanceModel";
+  }
+}
@@ -0,0 +1,1356 @@
+/**
+ * @author Luke Tyler Downey
+ * Copyright 2011 Glow Interactive
+ *
+ * This software contains original work and/or modifications to
+ * original work, which are redistributed under the following terms.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Copyright 2011 Brian Cairns
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.glowinteractive.reforger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Exact depth-first branch-and-bound over the item tree, run on a fork-join pool.
+ * Applies to any model; not reentrant.
+ *
+ * In informed mode (the default) items are searched in order of how far they can
+ * move the EP, options are tried best first, and the bound on the remaining items
+ * is recomputed at each node from how far every stat can still move, so that cap
+ * slack is taken into account.  Uninformed mode keeps the natural item order and
+ * the fixed per-item bounds of Model.calculateEPDeltaMax.
+ *
+ * Relaxed mode (the default) additionally bounds each node with a RelaxationBound,
+ * which dualizes the cap breakpoints, and prunes on the smaller of the two bounds.
+ * It is skipped for models that do not declare their breakpoints.
+ *
+ * Below the split depth each task walks its subtree iteratively on a preallocated
+ * frame stack, so search depth is not limited by the thread stack.
+ *
+ * Items marked symmetric by the SearchSpace that end up adjacent in search order
+ * are twins: each takes no option earlier in search order than the twin above it,
+ * so only one permutation of their choices is searched.
+ *
+ * The incumbent starts from the better of the character's current reforges and a
+ * GreedySolver plan, rather than from the unreforged stats, so that pruning is
+ * strong from the first node.  Subtrees that can tie it are still searched, so the
+ * search normally finds a plan at least as good itself; if not, the warm start is
+ * returned.
+ *
+ * The search is anytime.  It may be given a wall-clock or node budget, after
+ * which it returns the best plan found so far, and an epsilon, in which case
+ * subtrees that cannot beat the incumbent by more than epsilon are pruned.  A
+ * SolutionListener is told of each improved plan as it is found, with the gap by
+ * which the optimum may still exceed it: the largest bound of the tasks not yet
+ * finished, or epsilon once they all are.
+ *
+ * Given a count K, the search instead returns the K best plans.  Every plan found
+ * above the incumbent is offered to a bounded min-heap of K plans, and once the
+ * heap is full its worst plan is the incumbent that prunes the search.  Plans
+ * that reach the same stats by different paths are different plans, so the
+ * transposition table is not used; twins still search one permutation, so plans
+ * that differ only by swapping the choices of identical items count once.
+ *
+ * Given several models, one pass over the item tree finds the best plan of each.
+ * Item order, the option arrays and stat bookkeeping are shared; each model keeps
+ * its own incumbent, bounds and transposition table, and every frame carries the
+ * set of models still open in it, one bit per model.  A model leaves the set when
+ * an option is not among its candidate mappings, or when its bounds prove that the
+ * subtree cannot beat its incumbent, and a subtree is pruned only once no model is
+ * left.  Budgets, epsilon and twins apply as for one model; the listener and the
+ * K best search are for one model only.
+ *
+ * The search runs on the model's FixedPointModel: evaluation, bounds and incumbent
+ * comparisons are integer arithmetic, so ties between equivalent plans resolve the
+ * same way on every run.  The returned Solution is evaluated with the model itself.
+ */
+public final class BranchAndBoundSolver implements AbstractSolver {
+
+  // Models are tracked as the bits of an int.
+  public static final int MAX_MODELS = Integer.SIZE - 1;
+
+  private static final int OPTIMAL_THREADS = Runtime.getRuntime().availableProcessors();
+
+  // NOTE: The top levels of the item tree are split until there are at least this
+  //       many tasks per thread, which keeps the pool busy when subtrees are uneven.
+  private static final int TASKS_PER_THREAD = 8;
+
+  // Memory budget for the transposition tables of all models together, in bytes.
+  private static final long TRANSPOSITION_BUDGET = 8L << 20;
+
+  // Only states with at least this many item levels beneath them are memoized;
+  // shallower subtrees are cheaper to search again than to probe for.
+  private static final int TRANSPOSITION_HORIZON = 5;
+
+  // Tasks check the budgets and whether the search was stopped every this many nodes.
+  private static final int POLL_MASK = (1 << 10) - 1;
+
+  // Incumbent of a K best search until K plans are found: below every plan's EP,
+  // with room for the slack to be added without overflow.
+  private static final long NO_INCUMBENT = Long.MIN_VALUE / 2;
+
+  private static final Stat[] STATS = Stat.values();
+
+  private final boolean _informed;
+  private final boolean _relaxed;
+
+  private int _threads = OPTIMAL_THREADS;
+
+  private FixedPointModel[] _models;
+  private int               _modelCount;
+  private long[]            _baselineEP;
+  private long[]            _warmStartEP;
+  private int               _itemCount;
+  private long[][]          _epDeltaMax;
+  private int               _splitDepth;
+
+  // Options in search order; those of depth k are [_optionStart[k], _optionStart[k + 1]).
+  private int[] _optionStart;
+  private int[] _optionDec;
+  private int[] _optionInc;
+  private int[] _optionVal;
+
+  // Models each option is open to, one bit per model.
+  private int[] _optionModels;
+
+  // Per model, option amounts, zero where the option is closed to the model.
+  private int[][] _modelVal;
+
+  private SearchOrder _order;
+
+  // Whether the item at depth k is a twin of the one at depth k - 1.
+  private boolean[] _twin;
+
+  // Per model, largest amount each stat can still lose / gain from items at depth >= d.
+  private int[][][] _remainingDec;
+  private int[][][] _remainingInc;
+
+  // Incumbent EP of every model, shared between all search tasks.
+  private AtomicLong[] _sharedEP;
+  private AtomicLong   _nodes;
+
+  private TranspositionTable[] _transpositions;
+  private RelaxationBound[]    _relaxations;
+
+  // The best plans so far of a K best search; null when searching for one plan.
+  private Incumbents _incumbents;
+
+  // Anytime settings: budgets (0 for none), epsilon in fixed point, and listener.
+  private long             _timeLimit;
+  private long             _nodeLimit;
+  private long             _epsilon;
+  private SolutionListener _listener;
+
+  // A subtree is pruned if its bound is at most the incumbent plus this: -1 to
+  // search ties, or epsilon.
+  private long _slack;
+
+  private SearchSpace      _space;
+  private long             _deadline;
+  private volatile boolean _stopped;
+  private volatile boolean _cancelled;
+  private volatile boolean _bounded;
+  private OpenBounds[]     _open;
+  private long             _reportedEP;
+  private float            _gap;
+
+  public BranchAndBoundSolver() {
+    this(true, true);
+  }
+
+  public BranchAndBoundSolver(boolean informed) {
+    this(informed, false);
+  }
+
+  public BranchAndBoundSolver(boolean informed, boolean relaxed) {
+    _informed = informed;
+    _relaxed  = relaxed && informed;
+  }
+
+  /**
+   * Limits the wall-clock time of each solve, in milliseconds; 0 for no limit.
+   */
+  public void setTimeLimit(long millis) {
+    _timeLimit = millis * 1000000L;
+  }
+
+  /**
+   * Limits the search nodes of each solve; 0 for no limit.
+   */
+  public void setNodeLimit(long nodes) {
+    _nodeLimit = nodes;
+  }
+
+  /**
+   * Accepts plans within epsilon EP of the optimum; 0 (the default) for exact.
+   */
+  public void setEpsilon(float epsilon) {
+    _epsilon = (long) Math.floor((double) epsilon * FixedPointModel.SCALE);
+  }
+
+  public void setListener(SolutionListener listener) {
+    _listener = listener;
+  }
+
+  /**
+   * Searches on the given number of threads; the default is one per processor.
+   */
+  public void setThreads(int threads) {
+    assert threads > 0 : "Error: a search needs at least one thread.";
+
+    _threads = threads;
+  }
+
+  /**
+   * Stops a solve in progress on another thread, as if at a budget: it returns
+   * its incumbent at its next poll, and complete() is false.  Solves started
+   * later stop at their first poll too, until reset().
+   */
+  public void cancel() {
+    _cancelled = true;
+    _stopped   = true;
+  }
+
+  /**
+   * Clears a cancel(), so that later solves run.
+   */
+  public void reset() {
+    _cancelled = false;
+  }
+
+  @Override public boolean accepts(SearchSpace space) {
+    return true;
+  }
+
+  @Override public Solution solve(SearchSpace space) {
+    _incumbents = null;
+    return search(space, new AbstractModel[] { space.model() }, false)[0];
+  }
+
+  /**
+   * Returns the count best distinct plans of the space, best first; fewer if the
+   * space has fewer.  Budgets and epsilon apply as for a single plan: a stopped
+   * search returns the best plans found so far.
+   */
+  public List<Solution> solve(SearchSpace space, int count) {
+    assert count > 0 : "Error: at least one plan must be asked for.";
+
+    _incumbents = new Incumbents(count);
+
+    List<Solution> result = new ArrayList<Solution>(count);
+    try {
+      Solution solution = search(space, new AbstractModel[] { space.model() }, false)[0];
+
+      for (SearchResult plan : _incumbents.best()) {
+        result.add(Solution.evaluate(space, _order.toSpaceOrder(plan.options()[0])));
+      }
+      if (result.isEmpty()) {
+        // No items, or stopped before the first plan was found.
+        result.add(solution);
+      }
+    } finally {
+      _incumbents = null;
+    }
+
+    return result;
+  }
+
+  /**
+   * Returns the best plan of every model, in the order of models.  The plans are
+   * options of space, which must have been built for all of the models; see
+   * SearchSpace.forItems.  Options outside a model's candidate mappings are never
+   * part of its plan, and each Solution is evaluated with its own model.
+   */
+  public Solution[] solve(SearchSpace space, AbstractModel[] models) {
+    assert models.length > 0 && models.length <= MAX_MODELS : "Error: unsupported number of models.";
+
+    _incumbents = null;
+    return search(space, models, true);
+  }
+
+  /**
+   * Searches space for every model at once.  If restricted, each model is open
+   * only to the options of its candidate mappings; otherwise to all of them.
+   */
+  private Solution[] search(SearchSpace space, AbstractModel[] models, boolean restricted) {
+    final int MODEL_COUNT = models.length;
+    final int ITEM_COUNT  = space.itemCount();
+
+    _bounded     = false;
+    _space       = space;
+    _deadline    = (_timeLimit > 0) ? System.nanoTime() + _timeLimit : 0;
+    _stopped     = false;
+    _slack       = (_epsilon > 0) ? _epsilon : -1;
+    _gap         = 0.0f;
+    _modelCount  = MODEL_COUNT;
+    _itemCount   = ITEM_COUNT;
+    _models      = new FixedPointModel[MODEL_COUNT];
+    _baselineEP  = new long[MODEL_COUNT];
+    _warmStartEP = new long[MODEL_COUNT];
+    _nodes       = new AtomicLong();
+
+    SearchSpace[] spaces = new SearchSpace[MODEL_COUNT];
+    for (int m = 0; m < MODEL_COUNT; ++m) {
+      spaces[m]      = restricted ? space.withModel(models[m]) : space;
+      _models[m]     = FixedPointModel.create(models[m]);
+      _baselineEP[m] = _models[m].calculateEP(space.stats());
+      _warmStartEP[m] = _baselineEP[m];
+    }
+
+    Solution[] result = new Solution[MODEL_COUNT];
+
+    int[] options = new int[ITEM_COUNT];
+    Arrays.fill(options, -1);
+
+    if (ITEM_COUNT == 0) {
+      for (int m = 0; m < MODEL_COUNT; ++m) {
+        result[m] = new Solution(options, spaces[m].baselineEP());
+      }
+      return result;
+    }
+
+    // Items and options by their impact and EP summed over all models.
+    _order       = new SearchOrder(space, _models, _informed);
+    _optionStart = _order.optionStart();
+    _optionDec   = _order.optionDec();
+    _optionInc   = _order.optionInc();
+    _optionVal   = _order.optionVal();
+
+    final int[] ITEM_ORDER = _order.itemOrder();
+
+    _twin = new boolean[ITEM_COUNT];
+    for (int k = 1; k < ITEM_COUNT; ++k) {
+      _twin[k] = space.symmetric(ITEM_ORDER[k]) && ITEM_ORDER[k - 1] == ITEM_ORDER[k] - 1;
+    }
+
+    // Models open to every pair of stats.
+    int[][] pairModels = new int[Stat.TYPE_COUNT][Stat.TYPE_COUNT];
+    for (int m = 0; m < MODEL_COUNT; ++m) {
+      if (!restricted) {
+        for (int[] row : pairModels) {
+          Arrays.fill(row, (1 << MODEL_COUNT) - 1);
+        }
+        break;
+      }
+
+      EnumMap<Stat, EnumSet<Stat>> mappings = models[m].candidateMappings();
+
+      for (Stat from : mappings.keySet()) {
+        for (Stat to : mappings.get(from)) {
+          pairModels[from.ordinal()][to.ordinal()] |= 1 << m;
+        }
+      }
+    }
+
+    final int OPTION_COUNT = space.candidateCount();
+
+    _optionModels = new int[OPTION_COUNT];
+    for (int j = 0; j < OPTION_COUNT; ++j) {
+      _optionModels[j] = pairModels[_optionDec[j]][_optionInc[j]];
+    }
+
+    // Each model bounds its subtrees over only the options open to it; a closed
+    // option counts as moving nothing, like "no reforge".
+    _modelVal     = new int[MODEL_COUNT][OPTION_COUNT];
+    _remainingDec = new int[MODEL_COUNT][][];
+    _remainingInc = new int[MODEL_COUNT][][];
+    _epDeltaMax   = new long[MODEL_COUNT][];
+    _relaxations  = new RelaxationBound[MODEL_COUNT];
+    _sharedEP     = new AtomicLong[MODEL_COUNT];
+    _open         = new OpenBounds[MODEL_COUNT];
+    _reportedEP   = Long.MIN_VALUE;
+
+    long[]  rootBound  = new long[MODEL_COUNT];
+    int[][] warmStarts = new int[MODEL_COUNT][];
+
+    for (int m = 0; m < MODEL_COUNT; ++m) {
+      final int[] VAL = _modelVal[m];
+      for (int j = 0; j < OPTION_COUNT; ++j) {
+        VAL[j] = ((_optionModels[j] & (1 << m)) != 0) ? _optionVal[j] : 0;
+      }
+
+      final int[][] DEC = _order.remainingDec(VAL);
+      final int[][] INC = _order.remainingInc(VAL);
+      _remainingDec[m] = DEC;
+      _remainingInc[m] = INC;
+
+      // Max EP delta per item, from the largest amount each option moves.
+      long[] itemEPDeltaMax = new long[ITEM_COUNT];
+      for (int k = 0; k < ITEM_COUNT; ++k) {
+        for (int j = _optionStart[k]; j < _optionStart[k + 1]; ++j) {
+          float itemDelta = models[m].calculateEPDeltaMax(STATS[_optionDec[j]], VAL[j]);
+          // Rounded up, with a unit per point for the rounding of the fixed-point
+          // slopes, so that the bound holds for the fixed-point EP.
+          long fixedDelta = (long) Math.ceil((double) itemDelta * FixedPointModel.SCALE) + VAL[j];
+          if (fixedDelta > itemEPDeltaMax[k]) {
+            itemEPDeltaMax[k] = fixedDelta;
+          }
+        }
+      }
+
+      rootBound[m] = _baselineEP[m];
+      for (long delta : itemEPDeltaMax) {
+        rootBound[m] += delta;
+      }
+
+      // Compute max EP delta for sublists.
+      _epDeltaMax[m] = new long[ITEM_COUNT];
+      for (int i = 0; i < ITEM_COUNT; ++i) {
+        long sublistEPDelta = 0;
+
+        for (int j = i + 1; j < ITEM_COUNT; ++j) {
+          sublistEPDelta += itemEPDeltaMax[j];
+        }
+
+        _epDeltaMax[m][i] = sublistEPDelta;
+      }
+
+      _relaxations[m] = _relaxed
+              ? RelaxationBound.create(_models[m], _optionStart, _optionDec, _optionInc, VAL, DEC, INC)
+              : null;
+
+      warmStarts[m]   = GreedySolver.warmStart(space, _models[m],
+                                               restricted ? models[m].candidateMappings() : null);
+      _warmStartEP[m] = _models[m].calculateEP(space.apply(warmStarts[m]));
+      _sharedEP[m]    = new AtomicLong((_incumbents != null)
+                                       ? NO_INCUMBENT : Math.max(_baselineEP[m], _warmStartEP[m]));
+      _open[m]        = new OpenBounds();
+      _open[m].add(rootBound[m]);
+    }
+    _bounded = true;
+
+    report(warmStarts[0], _warmStartEP[0]);
+
+    // Split the shallowest levels whose option product saturates the pool.
+    long tasks = 1;
+    _splitDepth = 0;
+    while (_splitDepth + 1 < ITEM_COUNT && tasks < _threads * TASKS_PER_THREAD) {
+      tasks *= _optionStart[_splitDepth + 1] - _optionStart[_splitDepth] + 1;
+      ++_splitDepth;
+    }
+
+    if (_transpositions == null || _transpositions.length != MODEL_COUNT) {
+      _transpositions = new TranspositionTable[MODEL_COUNT];
+      for (int m = 0; m < MODEL_COUNT; ++m) {
+        _transpositions[m] = new TranspositionTable(TRANSPOSITION_BUDGET / MODEL_COUNT);
+      }
+    } else {
+      for (TranspositionTable t : _transpositions) {
+        t.clear();
+      }
+    }
+
+    int[][] plans = new int[MODEL_COUNT][];
+    for (int m = 0; m < MODEL_COUNT; ++m) {
+      plans[m] = options.clone();
+    }
+
+    ForkJoinPool pool = new ForkJoinPool(_threads);
+    SearchResult best = pool.invoke(new SearchTask(space.stats(), _baselineEP.clone(), (1 << MODEL_COUNT) - 1,
+                                                   0, plans, rootBound));
+    pool.shutdown();
+
+    for (int m = 0; m < MODEL_COUNT; ++m) {
+      final long EP = best.ep()[m];
+
+      _gap = Math.max(_gap, FixedPointModel.toEP(gap(m, Math.max(EP, _warmStartEP[m]))));
+
+      if (EP < _warmStartEP[m] && _warmStartEP[m] > _baselineEP[m]) {
+        result[m] = Solution.evaluate(spaces[m], warmStarts[m]);
+      } else if (EP > _baselineEP[m]) {
+        // Report the EP of the final stats rather than the accumulated deltas.
+        result[m] = Solution.evaluate(spaces[m], _order.toSpaceOrder(best.options()[m]));
+      } else {
+        result[m] = new Solution(options, spaces[m].baselineEP());
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Returns the number of search nodes (option evaluations) of the last solve.
+   * A node is counted once however many models it is evaluated for.
+   */
+  public long nodes() {
+    return _nodes.get();
+  }
+
+  /**
+   * Returns whether the last solve searched its whole tree, rather than stopping
+   * at a budget.
+   */
+  public boolean complete() {
+    return !_stopped;
+  }
+
+  /**
+   * Returns the most EP by which the optimum may exceed the last solve's plan,
+   * the largest over its models: 0 for a complete exact solve.
+   */
+  public float gap() {
+    return _gap;
+  }
+
+  /**
+   * Returns an upper bound, in fixed point, on the optimum of the solve in
+   * progress on another thread, of its first model: the incumbent plus what the
+   * unfinished tasks may still find, as for gap(); the optimum once the search is
+   * complete.  Long.MAX_VALUE until the solve has set up its bounds.
+   */
+  public long upperBound() {
+    if (!_bounded) {
+      return Long.MAX_VALUE;
+    }
+
+    final long INCUMBENT = _sharedEP[0].get();
+    return INCUMBENT + gap(0, INCUMBENT);
+  }
+
+  /**
+   * Returns the EP of the last solve's starting incumbent, of its first model.
+   */
+  public float warmStartEP() {
+    return FixedPointModel.toEP(_warmStartEP[0]);
+  }
+
+  /**
+   * Returns the transposition table of the last solve's first model.
+   */
+  public TranspositionTable transpositions() {
+    return _transpositions[0];
+  }
+
+  @Override public String toString() {
+    final String MODE = (_relaxations != null && _relaxations[0] != null) ? "relaxed" : _informed ? "informed" : "uninformed";
+
+    if (_modelCount > 1) {
+      return String.format("Branch and bound, %s, %d models (%d nodes)", MODE, _modelCount, nodes());
+    }
+    return String.format("Branch and bound, %s (%d nodes; transposition table: %s)",
+            MODE, nodes(), (_transpositions == null) ? null : _transpositions[0]);
+  }
+
+  /**
+   * Returns the most fixed-point EP by which model m's optimum may exceed
+   * incumbent: what the unfinished tasks may still find, or what epsilon pruned.
+   */
+  private long gap(int m, long incumbent) {
+    final long OPEN = _open[m].max();
+    final long SLACK = Math.max(_slack, 0L);
+
+    return (OPEN == Long.MIN_VALUE) ? SLACK : Math.max(SLACK, OPEN - incumbent);
+  }
+
+  /**
+   * Tells the listener of a plan (SearchSpace order) of the given fixed-point EP,
+   * unless an equal or better one was already reported.  Only plans of a
+   * single-model solve are reported.
+   */
+  private void report(int[] plan, long ep) {
+    if (_listener == null || _modelCount > 1) {
+      return;
+    }
+
+    synchronized (_open) {
+      if (ep > _reportedEP) {
+        _reportedEP = ep;
+        _listener.improved(Solution.evaluate(_space, plan), FixedPointModel.toEP(gap(0, ep)));
+      }
+    }
+  }
+
+  /**
+   * Returns the flat index of the first option to try at depth after option
+   * parent (flat index; the end of its depth's range for "no reforge") was taken
+   * at the depth above: the same position if the items are twins, otherwise the
+   * first option.
+   */
+  private int first(int depth, int parent) {
+    if (!_twin[depth]) {
+      return _optionStart[depth];
+    }
+    return _optionStart[depth] + parent - _optionStart[depth - 1];
+  }
+
+  /**
+   * Bounds of the search tasks that have not finished, as a multiset.
+   */
+  private static final class OpenBounds {
+
+    private final TreeMap<Long, Integer> _bounds = new TreeMap<Long, Integer>();
+
+    public synchronized void add(long bound) {
+      Integer count = _bounds.get(bound);
+      _bounds.put(bound, (count == null) ? 1 : count + 1);
+    }
+
+    public synchronized void remove(long bound) {
+      Integer count = _bounds.get(bound);
+      if (count == 1) {
+        _bounds.remove(bound);
+      } else {
+        _bounds.put(bound, count - 1);
+      }
+    }
+
+    /**
+     * Returns the largest open bound, or Long.MIN_VALUE if there is none.
+     */
+    public synchronized long max() {
+      return _bounds.isEmpty() ? Long.MIN_VALUE : _bounds.lastKey();
+    }
+  }
+
+  /**
+   * The K best plans found so far (search order), as a min-heap on EP.  Plans of
+   * equal EP rank in serial search order, "no reforge" after every option, so the
+   * result does not depend on task timing.
+   */
+  private final class Incumbents {
+
+    private final int                         _capacity;
+    private final PriorityQueue<SearchResult> _heap;
+
+    public Incumbents(int capacity) {
+      _capacity = capacity;
+      _heap     = new PriorityQueue<SearchResult>(capacity, new Comparator<SearchResult>() {
+        @Override public int compare(SearchResult a, SearchResult b) {
+          return worse(a, b) ? -1 : worse(b, a) ? 1 : 0;
+        }
+      });
+    }
+
+    /**
+     * Adds the plan if it is among the K best so far, and raises the shared
+     * incumbent to the worst of them once there are K.
+     */
+    public synchronized void offer(long ep, int[] plan) {
+      SearchResult candidate = new SearchResult(new long[] { ep }, new int[][] { plan });
+
+      if (_heap.size() == _capacity) {
+        if (!worse(_heap.peek(), candidate)) {
+          return;
+        }
+        _heap.poll();
+      }
+      _heap.add(candidate);
+
+      if (_heap.size() == _capacity) {
+        _sharedEP[0].set(_heap.peek().ep()[0]);
+      }
+    }
+
+    /**
+     * Returns the plans, best first.
+     */
+    public synchronized List<SearchResult> best() {
+      ArrayList<SearchResult> result = new ArrayList<SearchResult>(_heap);
+      Collections.sort(result, Collections.reverseOrder(_heap.comparator()));
+      return result;
+    }
+
+    private boolean worse(SearchResult a, SearchResult b) {
+      if (a.ep()[0] != b.ep()[0]) {
+        return a.ep()[0] < b.ep()[0];
+      }
+
+      int[] x = a.options()[0],
+            y = b.options()[0];
+      for (int k = 0; k < x.length; ++k) {
+        if (x[k] != y[k]) {
+          return (x[k] == -1) || (y[k] != -1 && x[k] > y[k]);
+        }
+      }
+      return false;
+    }
+  }
+
+  /**
+   * EP and plan (search order) of every model.
+   */
+  private static final class SearchResult {
+
+    private final long[]  _ep;
+    private final int[][] _options;
+
+    public SearchResult(long[] ep, int[][] options) {
+      _ep      = ep;
+      _options = options;
+    }
+
+    public long[] ep() {
+      return _ep;
+    }
+
+    public int[][] options() {
+      return _options;
+    }
+  }
+
+  private final class SearchTask extends RecursiveTask<SearchResult> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int[]  _stats;
+    private final long[] _ep;
+    private final int    _active;
+    private final int    _depth;
+
+    // Per model bound of the subtree, held in _open until the subtree is searched.
+    private final long[] _openBound;
+
+    // Per model, choices fixed by parent tasks for depths above _depth; the subtree
+    // fills the rest.
+    private final int[][] _options;
+
+    private final long[] _optimalEP;
+    private long         _nodeCount;
+    private long         _flushedCount;
+
+    // Set once the search is stopped; refreshed from _stopped at every poll.
+    private boolean _halted;
+
+    // NOTE: Held directly rather than read through the enclosing instance, so that
+    //       the per-node incumbent check needs no synthetic accessor call.
+    private final AtomicLong[] _sharedEP;
+    private final long         _slack;
+
+    // Frame stack of the iterative search, indexed by depth: the next option to try
+    // (the end of the depth's range stands for "no reforge"), every model's EP on
+    // entry, the models open in the frame, and those whose local incumbent was
+    // improved below it.
+    private int[]    _next;
+    private long[][] _frameEP;
+    private int[]    _frameModels;
+    private int[]    _improved;
+
+    // Per model, the EP change of every option against the stats of its depth's
+    // current frame, indexed like the flat option arrays; and the stat
+    // contributions it was scored from.
+    private long[][] _delta;
+    private long[]   _current;
+
+    // Scratch for the bounds of the child a frame is trying.
+    private long[] _childBound;
+
+    // Per model and depth, the cached remaining-items bound, keyed on the slope
+    // bounds it was computed from.  Neighbouring nodes nearly always share the
+    // same slopes.
+    private long[][][] _slopeMax;
+    private long[][][] _slopeMin;
+    private long[][]   _bound;
+
+    private RelaxationBound[] _relaxations;
+
+    public SearchTask(int[] stats, long[] ep, int active, int depth, int[][] options, long[] openBound) {
+      _stats     = stats;
+      _ep        = ep;
+      _active    = active;
+      _depth     = depth;
+      _options   = options;
+      _openBound = openBound;
+      _optimalEP = _baselineEP.clone();
+      _sharedEP  = BranchAndBoundSolver.this._sharedEP;
+      _slack     = BranchAndBoundSolver.this._slack;
+
+      // A K best search has no local incumbent: every plan is offered to the heap.
+      if (_incumbents != null) {
+        _optimalEP[0] = Long.MIN_VALUE;
+      }
+    }
+
+    @Override protected SearchResult compute() {
+      final int ITEM_COUNT  = _itemCount;
+      final int MODEL_COUNT = _modelCount;
+
+      // A stopped search leaves the bounds of its unsearched tasks open.
+      if (_stopped) {
+        return new SearchResult(_optimalEP, _options);
+      }
+
+      _slopeMax    = new long[MODEL_COUNT][ITEM_COUNT][Stat.TYPE_COUNT];
+      _slopeMin    = new long[MODEL_COUNT][ITEM_COUNT][Stat.TYPE_COUNT];
+      _bound       = new long[MODEL_COUNT][ITEM_COUNT];
+      _relaxations = new RelaxationBound[MODEL_COUNT];
+
+      for (int m = 0; m < MODEL_COUNT; ++m) {
+        for (int d = 0; d < ITEM_COUNT; ++d) {
+          // No slope is Long.MIN_VALUE, so the first lookup at every depth misses.
+          Arrays.fill(_slopeMax[m][d], Long.MIN_VALUE);
+        }
+        if (BranchAndBoundSolver.this._relaxations[m] != null) {
+          _relaxations[m] = BranchAndBoundSolver.this._relaxations[m].fork();
+        }
+      }
+
+      SearchResult result;
+      if (_depth < _splitDepth) {
+        result = computeSplit();
+      } else {
+        _next        = new int[ITEM_COUNT];
+        _frameEP     = new long[ITEM_COUNT][MODEL_COUNT];
+        _frameModels = new int[ITEM_COUNT];
+        _improved    = new int[ITEM_COUNT];
+        _delta       = new long[MODEL_COUNT][_optionDec.length];
+        _current     = new long[Stat.TYPE_COUNT];
+        _childBound  = new long[MODEL_COUNT];
+
+        computeOptimalCandidate();
+        result = new SearchResult(_optimalEP, _options);
+
+        if (!_halted) {
+          close(_active, _openBound);
+        }
+      }
+
+      poll();
+      return result;
+    }
+
+    /**
+     * Adds the nodes counted since the last poll to the total, and stops the
+     * search if a budget is spent.
+     */
+    private void poll() {
+      long nodes = _nodes.addAndGet(_nodeCount - _flushedCount);
+      _flushedCount = _nodeCount;
+
+      if ((_nodeLimit > 0 && nodes >= _nodeLimit) || (_deadline != 0 && System.nanoTime() - _deadline >= 0)
+              || _cancelled) {
+        _stopped = true;
+      }
+      _halted = _stopped;
+    }
+
+    /**
+     * Adds the bounds of the given models to those still open.
+     */
+    private void open(int models, long[] bound) {
+      for (int m = 0; m < _modelCount; ++m) {
+        if ((models & (1 << m)) != 0) {
+          _open[m].add(bound[m]);
+        }
+      }
+    }
+
+    /**
+     * Removes the bounds of the given models from those still open.
+     */
+    private void close(int models, long[] bound) {
+      for (int m = 0; m < _modelCount; ++m) {
+        if ((models & (1 << m)) != 0) {
+          _open[m].remove(bound[m]);
+        }
+      }
+    }
+
+    /**
+     * Returns an upper bound on the EP model m can still add from the items below
+     * depth to the given stats.
+     */
+    private long bound(int m, int depth, int[] stats) {
+      if (!_informed) {
+        return _epDeltaMax[m][depth];
+      }
+
+      final FixedPointModel MODEL = _models[m];
+      final int             NEXT  = depth + 1;
+      final int[]           LOSE  = _remainingDec[m][NEXT];
+      final int[]           GAIN  = _remainingInc[m][NEXT];
+      final long[]          MAX   = _slopeMax[m][depth];
+      final long[]          MIN   = _slopeMin[m][depth];
+
+      boolean cached = true;
+      for (int s = 0; s < Stat.TYPE_COUNT; ++s) {
+        int low  = stats[s] - LOSE[s],
+            high = stats[s] + GAIN[s];
+
+        long max = MODEL.marginalEPMax(s, low, high),
+             min = MODEL.marginalEPMin(s, low, high);
+
+        if (max != MAX[s] || min != MIN[s]) {
+          MAX[s] = max;
+          MIN[s] = min;
+          cached = false;
+        }
+      }
+
+      if (!cached) {
+        _bound[m][depth] = _order.slopeBound(depth, _modelVal[m], MAX, MIN);
+      }
+
+      return _bound[m][depth];
+    }
+
+    /**
+     * Returns those of the given models for which a node at depth, with the given
+     * stats and per-model EP, can still improve on their incumbents, and stores
+     * their bounds on the best EP reachable below it in bound.
+     */
+    private int prune(int models, int[] stats, long[] ep, int depth, long[] bound) {
+      if ((++_nodeCount & POLL_MASK) == 0) {
+        poll();
+      }
+
+      int result = models;
+
+      for (int rest = models; rest != 0; rest &= rest - 1) {
+        final int  M       = Integer.numberOfTrailingZeros(rest);
+        final long OPTIMAL = _optimalEP[M];
+
+        long modelBound = ep[M] + bound(M, depth, stats);
+
+        // The relaxation is the costlier bound; it is only needed where the slope
+        // bound does not already prune.
+        if (modelBound > OPTIMAL && admits(M, modelBound) && _relaxations[M] != null) {
+          modelBound = Math.min(modelBound, ep[M] + _relaxations[M].bound(depth, stats));
+        }
+
+        if (modelBound <= OPTIMAL || !admits(M, modelBound)) {
+          result &= ~(1 << M);
+        }
+        bound[M] = modelBound;
+      }
+
+      return result;
+    }
+
+    /**
+     * Returns first(_depth, ...) for the option parent tasks took above _depth.
+     */
+    private int rootFirst() {
+      if (_depth == 0) {
+        return _optionStart[0];
+      }
+
+      // NOTE: Parent tasks fix the same choices in every model's plan.
+      final int PARENT = _options[0][_depth - 1];
+      return first(_depth, (PARENT == -1) ? _optionStart[_depth] : _optionStart[_depth - 1] + PARENT);
+    }
+
+    private SearchResult computeSplit() {
+      final int START = _optionStart[_depth];
+      final int END   = _optionStart[_depth + 1];
+
+      // Subtasks are created in serial search order: every option, then "no reforge".
+      ArrayList<SearchTask> subtasks = new ArrayList<SearchTask>(END - START + 1);
+      for (int j = rootFirst(); j <= END; ++j) {
+        int active = (j < END) ? _active & _optionModels[j] : _active;
+        if (active == 0) {
+          continue;
+        }
+
+        int[]  stats = _stats.clone();
+        long[] ep    = _ep.clone();
+
+        if (j < END) {
+          for (int m = 0; m < _modelCount; ++m) {
+            if ((active & (1 << m)) != 0) {
+              ep[m] += _models[m].calculateEPDelta(stats, _optionDec[j], _optionInc[j], _optionVal[j]);
+            }
+          }
+
+          stats[_optionDec[j]] -= _optionVal[j];
+          stats[_optionInc[j]] += _optionVal[j];
+        }
+
+        long[] bound = new long[_modelCount];
+        active = prune(active, stats, ep, _depth, bound);
+
+        if (active != 0) {
+          int[][] options = new int[_modelCount][];
+          for (int m = 0; m < _modelCount; ++m) {
+            options[m] = _options[m].clone();
+            options[m][_depth] = (j < END) ? j - START : -1;
+          }
+          subtasks.add(new SearchTask(stats, ep, active, _depth + 1, options, bound));
+          open(active, bound);
+        }
+      }
+
+      // The subtasks' bounds now stand for this task's.
+      close(_active, _openBound);
+
+      invokeAll(subtasks);
+
+      long[]  bestEP      = _baselineEP.clone();
+      int[][] bestOptions = _options.clone();
+      for (SearchTask t : subtasks) {
+        SearchResult r = t.join();
+
+        for (int m = 0; m < _modelCount; ++m) {
+          // Strict comparison: ties go to the subtree which serial search visits first.
+          if (r.ep()[m] > bestEP[m]) {
+            bestEP[m]      = r.ep()[m];
+            bestOptions[m] = r.options()[m];
+          }
+        }
+      }
+
+      return new SearchResult(bestEP, bestOptions);
+    }
+
+    /**
+     * Searches the subtree below _depth depth-first, in the same order as a
+     * recursive descent: every option of a depth, then "no reforge".  _stats is
+     * updated in place and restored as frames are left.
+     */
+    private void computeOptimalCandidate() {
+      final int LAST = _itemCount - 1;
+
+      System.arraycopy(_ep, 0, _frameEP[_depth], 0, _modelCount);
+
+      if (_depth == LAST) {
+        computeLeaf(_active, LAST, rootFirst());
+        return;
+      }
+
+      if (enter(_active, _depth, rootFirst()) == 0) {
+        return;
+      }
+
+      // NOTE: The frame step is kept out of this loop so that it is compiled as an
+      //       ordinary method rather than through on-stack replacement.
+      int depth = _depth;
+      while (depth >= _depth) {
+        depth = step(depth);
+      }
+    }
+
+    /**
+     * Advances the frame at depth: tries its remaining options until one descends
+     * into a child frame, whose depth is returned, or pops the exhausted frame and
+     * returns its parent's depth.  Each child is searched for the frame's models
+     * that its option is open to and its bounds do not rule out.
+     */
+    private int step(int depth) {
+      final int      LAST        = _itemCount - 1;
+      final int      CHILD       = depth + 1;
+      final int      END         = _optionStart[CHILD];
+      final int      MODEL_COUNT = _modelCount;
+      final int      ACTIVE      = _frameModels[depth];
+      final int[]    STATS       = _stats;
+      final int[]    DEC         = _optionDec;
+      final int[]    INC         = _optionInc;
+      final int[]    VAL         = _optionVal;
+      final int[]    MODELS      = _optionModels;
+      final long[]   FRAME_EP    = _frameEP[depth];
+      final long[]   CHILD_EP    = _frameEP[CHILD];
+      final long[][] DELTA       = _delta;
+
+      // A halted search pops every frame without trying further options.
+      for (int j = _next[depth]; j <= END && !_halted; ++j) {
+        int active = ACTIVE;
+
+        if (j < END) {
+          active &= MODELS[j];
+          if (active == 0) {
+            continue;
+          }
+
+          for (int m = 0; m < MODEL_COUNT; ++m) {
+            CHILD_EP[m] = FRAME_EP[m] + DELTA[m][j];
+          }
+
+          STATS[DEC[j]] -= VAL[j];
+          STATS[INC[j]] += VAL[j];
+        } else {
+          System.arraycopy(FRAME_EP, 0, CHILD_EP, 0, MODEL_COUNT);
+        }
+
+        active = prune(active, STATS, CHILD_EP, depth, _childBound);
+
+        if (active != 0) {
+          if (CHILD == LAST) {
+            // Recorded for path(), should the leaf improve the incumbent.
+            _next[depth] = j + 1;
+
+            int improved = computeLeaf(active, LAST, first(LAST, j));
+            if (improved != 0) {
+              improve(depth, j, improved);
+            }
+          } else if (enter(active, CHILD, first(CHILD, j)) != 0) {
+            // Resume after this option once the child frame is done.
+            _next[depth] = j + 1;
+            return CHILD;
+          }
+        }
+
+        if (j < END) {
+          STATS[DEC[j]] += VAL[j];
+          STATS[INC[j]] -= VAL[j];
+        }
+      }
+
+      leave(depth);
+
+      if (depth == _depth) {
+        return depth - 1;
+      }
+
+      // Pop back to the parent and undo the option that led here.
+      final int PARENT = depth - 1;
+      final int J      = _next[PARENT] - 1;
+
+      if (_improved[depth] != 0) {
+        improve(PARENT, J, _improved[depth]);
+      }
+
+      if (J < _optionStart[depth]) {
+        STATS[DEC[J]] += VAL[J];
+        STATS[INC[J]] -= VAL[J];
+      }
+
+      return PARENT;
+    }
+
+    /**
+     * Pushes the frame for depth, whose stats are _stats and EP _frameEP[depth] and
+     * whose options start at flat index first, and returns those of the given
+     * models that the transposition tables do not prove unable to improve.
+     */
+    private int enter(int models, int depth, int first) {
+      _next[depth]     = first;
+      _improved[depth] = 0;
+
+      // Different option sequences often reach the same stats at the same depth;
+      // skip the subtree for a model if a previous search of this state cannot be
+      // beaten.
+      if (memoizes(depth)) {
+        for (int m = 0; m < _modelCount; ++m) {
+          if ((models & (1 << m)) != 0) {
+            long storedBound = _transpositions[m].bound(depth, _stats);
+            if (storedBound <= _optimalEP[m] || !admits(m, storedBound)) {
+              models &= ~(1 << m);
+            }
+          }
+        }
+      }
+
+      _frameModels[depth] = models;
+
+      if (models != 0) {
+        score(models, depth, first);
+      }
+
+      return models;
+    }
+
+    private void leave(int depth) {
+      // Every plan below here either failed to beat the local incumbent or was
+      // pruned for a bound of at most the shared one plus the slack.  A halted
+      // search has not searched the subtree.
+      if (memoizes(depth) && !_halted) {
+        final int MODELS = _frameModels[depth];
+
+        for (int m = 0; m < _modelCount; ++m) {
+          if ((MODELS & (1 << m)) != 0) {
+            _transpositions[m].store(depth, _stats, Math.max(_optimalEP[m], _sharedEP[m].get() + _slack));
+          }
+        }
+      }
+    }
+
+    private boolean memoizes(int depth) {
+      // NOTE: The options open to a twin depend on the path to it, not only on its
+      //       stats, so its subtree is not memoized.
+      return depth + TRANSPOSITION_HORIZON < _itemCount && !_twin[depth] && _incumbents == null;
+    }
+
+    /**
+     * Records that the plan through option j (flat index) at depth improved the
+     * local incumbents of the given models.
+     */
+    private void improve(int depth, int j, int models) {
+      final int START  = _optionStart[depth];
+      final int END    = _optionStart[depth + 1];
+      final int OPTION = (j < END) ? j - START : -1;
+
+      for (int m = 0; m < _modelCount; ++m) {
+        if ((models & (1 << m)) != 0) {
+          _options[m][depth] = OPTION;
+        }
+      }
+
+      _improved[depth] |= models;
+    }
+
+    /**
+     * Scores the options of depth from flat index first against _stats in one
+     * batch, for each of the given models.
+     */
+    private void score(int models, int depth, int first) {
+      for (int m = 0; m < _modelCount; ++m) {
+        if ((models & (1 << m)) != 0) {
+          _models[m].statEPs(_stats, _current);
+          _models[m].calculateEPDeltas(_stats, _current, _optionDec, _optionInc, _optionVal,
+                  first, _optionStart[depth + 1], _delta[m]);
+        }
+      }
+    }
+
+    /**
+     * Tries the options of the last depth from flat index first for the given
+     * models, and returns those whose local incumbent improved.
+     */
+    private int computeLeaf(int models, int depth, int first) {
+      final int    START    = _optionStart[depth];
+      final int    END      = _optionStart[depth + 1];
+      final int[]  MODELS   = _optionModels;
+      final long[] FRAME_EP = _frameEP[depth];
+
+      score(models, depth, first);
+
+      if (_incumbents != null) {
+        offerLeaf(FRAME_EP[0], depth, first);
+        return 0;
+      }
+
+      _nodeCount += END - first + 1;
+
+      int improved = 0;
+
+      for (int m = 0; m < _modelCount; ++m) {
+        final int BIT = 1 << m;
+
+        if ((models & BIT) == 0) {
+          continue;
+        }
+
+        final long[] DELTA      = _delta[m];
+        final long   CURRENT_EP = FRAME_EP[m];
+
+        long optimalEP = _optimalEP[m];
+        int  option    = 0;
+
+        for (int j = first; j < END; ++j) {
+          long resultEP = CURRENT_EP + DELTA[j];
+
+          if (resultEP > optimalEP && (MODELS[j] & BIT) != 0) {
+            optimalEP = resultEP;
+            option    = j - START;
+            improved |= BIT;
+          }
+        }
+
+        if (CURRENT_EP > optimalEP) {
+          optimalEP = CURRENT_EP;
+          option    = -1;
+          improved |= BIT;
+        }
+
+        if ((improved & BIT) != 0) {
+          _optimalEP[m]      = optimalEP;
+          _options[m][depth] = option;
+
+          if (publish(m, optimalEP) && _listener != null) {
+            report(_order.toSpaceOrder(path(m)), optimalEP);
+          }
+        }
+      }
+
+      return improved;
+    }
+
+    /**
+     * Offers every plan of the leaf that the shared incumbent admits to the heap
+     * of a K best search.
+     */
+    private void offerLeaf(long currentEP, int depth, int first) {
+      final long[] DELTA = _delta[0];
+      final int    START = _optionStart[depth];
+      final int    END   = _optionStart[depth + 1];
+
+      for (int j = first; j <= END; ++j) {
+        final long EP = (j < END) ? currentEP + DELTA[j] : currentEP;
+        ++_nodeCount;
+
+        if (admits(0, EP)) {
+          int[] plan = path(0);
+          plan[depth] = (j < END) ? j - START : -1;
+          _incumbents.offer(EP, plan);
+        }
+      }
+    }
+
+    /**
+     * Returns model m's plan, in search order, of the path to the current leaf:
+     * the choices of the parent tasks, the option each frame is trying, and the
+     * leaf's recorded choice.
+     */
+    private int[] path(int m) {
+      int[] result = _options[m].clone();
+      for (int d = _depth; d < _itemCount - 1; ++d) {
+        final int J = _next[d] - 1;
+        result[d] = (J == _optionStart[d + 1]) ? -1 : J - _optionStart[d];
+      }
+      return result;
+    }
+
+    private boolean admits(int m, long bound) {
+      // NOTE: Without epsilon the slack is -1: subtrees which can only tie the shared
+      //       incumbent are still searched, so that the earliest plan in serial search
+      //       order wins regardless of task timing.
+      return bound > _sharedEP[m].get() + _slack;
+    }
+
+    /**
+     * Raises model m's shared incumbent to ep, returning whether it was below.
+     */
+    private boolean publish(int m, long ep) {
+      final AtomicLong SHARED = _sharedEP[m];
+
+      long current = SHARED.get();
+      while (ep > current) {
+        if (SHARED.compareAndSet(current, ep)) {
+          return true;
+        }
+        current = SHARED.get();
+      }
+      return false;
+    }
+  }
+}
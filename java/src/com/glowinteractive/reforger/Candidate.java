@@ -42,6 +42,7 @@ package com.glowinteractive.reforger;
 public final class Candidate implements Comparable<Candidate> {
 
   private final Item _item;
+  private final int  _id;
   private final int  _indexInc;
   private final int  _indexDec;
   private final int  _delta;
@@ -50,30 +51,34 @@ public final class Candidate implements Comparable<Candidate> {
 
   public Candidate(Item item) {
     _item     = item;
+    _id       = -1;
     _deltaMap = null;
     _indexInc = -1;
     _indexDec = -1;
     _delta    =  0;
   }
 
-  public Candidate(Item item, StatKVMap deltaMap) {
+  /**
+   * id is the candidate's index among all candidates of its character; see id().
+   */
+  public Candidate(Item item, StatKVMap deltaMap, int id) {
     _item     = item;
+    _id       = id;
     _deltaMap = deltaMap;
 
-    int[] deltas = deltaMap.data();
+    PackedStats deltas = deltaMap.packed();
 
     int indexInc = 0;
     int indexDec = 0;
     int delta    = 0;
 
-    final int END = deltas.length;
-    for (int i = 0; i < END; ++i) {
-      if (deltas[i] < 0) {
+    for (int i = 0; i < Stat.TYPE_COUNT; ++i) {
+      if (deltas.value(i) < 0) {
         indexDec = i;
       }
-      if (deltas[i] > 0) {
+      if (deltas.value(i) > 0) {
         indexInc = i;
-        delta = deltas[i];
+        delta = deltas.value(i);
       }
     }
 
@@ -86,6 +91,15 @@ public final class Candidate implements Comparable<Candidate> {
     return _item;
   }
 
+  /**
+   * Returns the candidate's dense index among all candidates of its character,
+   * which is also its index in the flat option arrays of the SearchSpace built
+   * from them; -1 for the empty candidate.
+   */
+  public int id() {
+    return _id;
+  }
+
   public StatKVMap delta() {
     return _deltaMap;
   }
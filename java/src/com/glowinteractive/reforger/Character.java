@@ -134,25 +134,37 @@ public final class Character {
   public StatKVMap mutableStats() {
     parse();
 
-    StatKVMap r = new StatKVMap();
+    StatAccumulator r = new StatAccumulator();
 
     for (Item i : _items) {
-      r = r.add(i.mutableStats());
+      r.add(i.mutableStats());
     }
 
-    return r;
+    return r.snapshot();
   }
 
   public StatKVMap immutableStats() {
     parse();
 
-    StatKVMap r = new StatKVMap();
+    StatAccumulator r = new StatAccumulator();
 
     for (Item i : _items) {
-      r = r.add(i.immutableStats());
+      r.add(i.immutableStats());
     }
 
-    return r;
+    return r.snapshot();
+  }
+
+  /**
+   * Returns the mutable and immutable stats of all items together.
+   */
+  public StatKVMap cumulativeStats() {
+    parse();
+
+    StatAccumulator r = new StatAccumulator();
+    r.addItems(_items);
+
+    return r.snapshot();
   }
 
 //  public StatKVMap currentReforging() {
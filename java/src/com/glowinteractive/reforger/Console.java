@@ -22,11 +22,29 @@
 
 package com.glowinteractive.reforger;
 
+import java.util.Arrays;
+
 public class Console {
 
+  // Model name selecting AvoidanceModel, which values dodge and parry for tanks.
+  private static final String TANK_MODEL = "Tank";
+
+  // Leading option turning on the sensitivity analysis of the plan.
+  private static final String RANGES_OPTION = "--ranges";
+
   public static void main(String[] args) {
-    if (args.length != 2) {
-      System.err.println("Usage: java -jar Reforger.jar [realm] [character]");
+    final boolean RANGES = args.length > 0 && args[0].equals(RANGES_OPTION);
+    if (RANGES) {
+      args = Arrays.copyOfRange(args, 1, args.length);
+    }
+
+    if (args.length != 2 && args.length != 3) {
+      System.err.println("Usage: java -jar Reforger.jar [" + RANGES_OPTION + "] [realm] [character] [profile]");
+      System.err.println("  " + RANGES_OPTION + ": also print how far each coefficient of a single profile can");
+      System.err.println("            move before the plan stops being optimal (slow).");
+      System.err.println("  profile: a spec such as RG-Combat (see profiles/), a profile file, or");
+      System.err.println("           " + TANK_MODEL + " for plate tanks (dodge and parry after diminishing");
+      System.err.println("           returns); several, separated by commas, are solved together.");
       System.exit(1);
     }
 
@@ -34,10 +52,35 @@ public class Console {
     System.out.println("The Fabled Reforger (" + VERSION_STRING[0] + ")");
     System.out.println("Built: " + VERSION_STRING[1]);
 
-    Reforger reforger = new Reforger(args[0], args[1]);
+    Reforger reforger;
+    if (args.length == 3) {
+      String[]        profiles = args[2].split(",");
+      AbstractModel[] models   = new AbstractModel[profiles.length];
+
+      for (int i = 0; i < profiles.length; ++i) {
+        models[i] = model(profiles[i].trim());
+        System.out.println("Profile: " + models[i]);
+      }
+
+      reforger = new Reforger(args[0], args[1], models);
+    } else {
+      reforger = new Reforger(args[0], args[1]);
+    }
+    reforger.setSensitivityAnalysis(RANGES);
 
     reforger.run();
   }
 
+  /**
+   * Returns the model of the given name: AvoidanceModel for TANK_MODEL, otherwise
+   * the profile of that name or path.
+   */
+  static AbstractModel model(String name) {
+    if (name.equalsIgnoreCase(TANK_MODEL)) {
+      return new AvoidanceModel();
+    }
+    return ProfileModel.load(name);
+  }
+
   private Console() { }
 }
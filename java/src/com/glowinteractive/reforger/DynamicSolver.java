@@ -0,0 +1,341 @@
+/**
+ * @author Luke Tyler Downey
+ * Copyright 2011 Glow Interactive
+ *
+ * This software contains original work and/or modifications to
+ * original work, which are redistributed under the following terms.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.glowinteractive.reforger;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+
+/**
+ * Exact solver for models whose nonlinear part is confined to a few stats (for
+ * Model: hit and expertise).  Runs a dynamic program over the reachable totals of
+ * the nonlinear stats: a forward pass marks the states reachable after every
+ * item, and a backward pass keeps, per item and reachable state, the most EP the
+ * remaining items can reach from it and the option that reaches it.  The plan is
+ * then read off forward from the starting state.  Running time is items x states
+ * x options, where the state count is the product of the ranges the nonlinear
+ * stats can span; it does not grow exponentially with the item count.
+ *
+ * Work is in the model's FixedPointModel, as for branch and bound, so the plan's
+ * EP is exactly the optimum.  Items and options are taken in branch and bound's
+ * SearchOrder, and each item takes the first option reaching the most EP, "no
+ * reforge" after every option; a plan that only ties the unchanged stats is not
+ * taken.  Ties therefore resolve to the plan branch and bound returns.
+ */
+public final class DynamicSolver implements AbstractSolver {
+
+  // Limits on the state grid and on the per-item choice table (one byte per item
+  // and state).  Larger problems are left to the other solvers.
+  private static final int  STATE_LIMIT  = 1 << 22;
+  private static final long CHOICE_LIMIT = 32L << 20;
+
+  private static final byte NO_REFORGE = -1;
+
+  // The space accepts() was last asked about and its grid (null if declined), so
+  // that solve() does not build it again.
+  private SearchSpace _space;
+  private Grid        _grid;
+
+  private int _states;
+
+  private volatile boolean _cancelled;
+
+  /**
+   * Stops a solve in progress on another thread: it returns the unchanged plan
+   * before its next item.  Solves started later stop there too, until reset().
+   */
+  public void cancel() {
+    _cancelled = true;
+  }
+
+  /**
+   * Clears a cancel(), so that later solves run.
+   */
+  public void reset() {
+    _cancelled = false;
+  }
+
+  @Override public boolean accepts(SearchSpace space) {
+    return grid(space) != null;
+  }
+
+  @Override public Solution solve(SearchSpace space) {
+    final int ITEM_COUNT = space.itemCount();
+
+    Grid grid = grid(space);
+    assert grid != null : "Error: search space not accepted by DynamicSolver.";
+
+    final FixedPointModel MODEL  = FixedPointModel.create(space.model());
+    final int             STATES = grid.states();
+    final int             WORDS  = (STATES + Long.SIZE - 1) / Long.SIZE;
+    final int             FIRST  = grid.index(space.stats());
+
+    SearchOrder order = new SearchOrder(space, new FixedPointModel[] { MODEL }, true);
+
+    final int[] START = order.optionStart();
+    final int[] DEC   = order.optionDec();
+    final int[] INC   = order.optionInc();
+    final int[] VAL   = order.optionVal();
+
+    // Per option (flat index), its state offset and the EP it adds in the linear
+    // stats, whose contributions are their single slope times their value.
+    long[] slopes = new long[Stat.TYPE_COUNT];
+    for (Stat s : space.model().linearStats()) {
+      slopes[s.ordinal()] = MODEL.marginalEPMax(s.ordinal(), 0, 0);
+    }
+
+    int[]  offsets = new int[DEC.length];
+    long[] gains   = new long[DEC.length];
+    for (int j = 0; j < DEC.length; ++j) {
+      offsets[j] = grid.offset(INC[j], VAL[j]) - grid.offset(DEC[j], VAL[j]);
+      gains[j]   = VAL[j] * (slopes[INC[j]] - slopes[DEC[j]]);
+    }
+
+    // Forward: the states reachable after each depth, one bit per state.
+    long[] reach = new long[(ITEM_COUNT + 1) * WORDS];
+    mark(reach, 0, FIRST);
+
+    for (int k = 0; k < ITEM_COUNT; ++k) {
+      if (_cancelled) {
+        return unchanged(space);
+      }
+
+      final int BASE = k * WORDS;
+      final int NEXT = BASE + WORDS;
+
+      for (int w = 0; w < WORDS; ++w) {
+        for (long bits = reach[BASE + w]; bits != 0; bits &= bits - 1) {
+          final int S = w * Long.SIZE + Long.numberOfTrailingZeros(bits);
+
+          mark(reach, NEXT, S);
+          for (int j = START[k]; j < START[k + 1]; ++j) {
+            mark(reach, NEXT, S + offsets[j]);
+          }
+        }
+      }
+    }
+
+    // The final states are worth their full EP: the nonlinear stats at the state's
+    // totals, the linear ones at their starting values, whose changes the gains add.
+    long[] value = new long[STATES];
+    long[] next  = new long[STATES];
+    int[]  stats = space.stats();
+
+    _states = 0;
+    for (int w = 0; w < WORDS; ++w) {
+      for (long bits = reach[ITEM_COUNT * WORDS + w]; bits != 0; bits &= bits - 1) {
+        final int S = w * Long.SIZE + Long.numberOfTrailingZeros(bits);
+
+        grid.decode(S, stats);
+        next[S] = MODEL.calculateEP(stats);
+        ++_states;
+      }
+    }
+
+    // Backward: the most EP reachable from every state of a depth, and the first
+    // option in search order that reaches it.
+    byte[] choices = new byte[ITEM_COUNT * STATES];
+
+    for (int k = ITEM_COUNT - 1; k >= 0; --k) {
+      if (_cancelled) {
+        return unchanged(space);
+      }
+
+      final int BASE = k * WORDS;
+      final int ROW  = k * STATES;
+      final int END  = START[k + 1];
+
+      for (int w = 0; w < WORDS; ++w) {
+        for (long bits = reach[BASE + w]; bits != 0; bits &= bits - 1) {
+          final int S = w * Long.SIZE + Long.numberOfTrailingZeros(bits);
+
+          long best   = Long.MIN_VALUE;
+          byte choice = NO_REFORGE;
+          for (int j = START[k]; j < END; ++j) {
+            final long EP = gains[j] + next[S + offsets[j]];
+            if (EP > best) {
+              best   = EP;
+              choice = (byte) (j - START[k]);
+            }
+          }
+          if (next[S] > best) {
+            best   = next[S];
+            choice = NO_REFORGE;
+          }
+
+          value[S]         = best;
+          choices[ROW + S] = choice;
+        }
+      }
+
+      long[] swap = value;
+      value = next;
+      next  = swap;
+    }
+
+    if (next[FIRST] <= MODEL.calculateEP(space.stats())) {
+      return unchanged(space);
+    }
+
+    // Read the plan off forward from the starting state.
+    int[] plan = new int[ITEM_COUNT];
+    for (int k = 0, s = FIRST; k < ITEM_COUNT; ++k) {
+      plan[k] = choices[k * STATES + s];
+      if (plan[k] != NO_REFORGE) {
+        s += offsets[START[k] + plan[k]];
+      }
+    }
+
+    return Solution.evaluate(space, order.toSpaceOrder(plan));
+  }
+
+  @Override public String toString() {
+    return "Dynamic programming (" + _states + " reachable capped-stat states)";
+  }
+
+  /**
+   * Returns the state grid of the space, or null if the space is too large; the
+   * grid of the space last asked about is kept.
+   */
+  private Grid grid(SearchSpace space) {
+    if (space != _space) {
+      Grid grid = Grid.create(space);
+
+      _space = space;
+      _grid  = (grid != null && (long) grid.states() * space.itemCount() <= CHOICE_LIMIT) ? grid : null;
+    }
+    return _grid;
+  }
+
+  private static void mark(long[] bits, int base, int state) {
+    bits[base + state / Long.SIZE] |= 1L << state;
+  }
+
+  private static Solution unchanged(SearchSpace space) {
+    int[] options = new int[space.itemCount()];
+    Arrays.fill(options, NO_REFORGE);
+    return new Solution(options, space.baselineEP());
+  }
+
+  /**
+   * Dense mixed-radix index over the box of totals the nonlinear stats can reach.
+   */
+  private static final class Grid {
+
+    private final int[] _lower;
+    private final int[] _stride;
+    private final int[] _size;
+    private final int   _states;
+
+    private Grid(int[] lower, int[] size) {
+      _lower  = lower;
+      _size   = size;
+      _stride = new int[Stat.TYPE_COUNT];
+
+      int states = 1;
+      for (int d = 0; d < Stat.TYPE_COUNT; ++d) {
+        _stride[d] = (size[d] == 0) ? 0 : states;
+        states *= Math.max(size[d], 1);
+      }
+      _states = states;
+    }
+
+    public static Grid create(SearchSpace space) {
+      EnumSet<Stat> linear = space.model().linearStats();
+
+      int[] stats = space.stats();
+      int[] lower = new int[Stat.TYPE_COUNT];
+      int[] size  = new int[Stat.TYPE_COUNT];
+
+      for (Stat s : Stat.values()) {
+        if (linear.contains(s)) {
+          continue;
+        }
+
+        final int D = s.ordinal();
+        int lo = stats[D], hi = stats[D];
+
+        for (int i = 0; i < space.itemCount(); ++i) {
+          int itemLo = 0, itemHi = 0;
+
+          for (int j = 0; j < space.optionCount(i); ++j) {
+            if (space.decreased(i, j) == D) {
+              itemLo = Math.min(itemLo, -space.value(i, j));
+            }
+            if (space.increased(i, j) == D) {
+              itemHi = Math.max(itemHi, space.value(i, j));
+            }
+          }
+
+          lo += itemLo;
+          hi += itemHi;
+        }
+
+        lower[D] = lo;
+        size[D]  = hi - lo + 1;
+      }
+
+      long states = 1;
+      for (int d = 0; d < Stat.TYPE_COUNT; ++d) {
+        states *= Math.max(size[d], 1);
+        if (states > STATE_LIMIT) {
+          return null;
+        }
+      }
+
+      for (int i = 0; i < space.itemCount(); ++i) {
+        if (space.optionCount(i) > Byte.MAX_VALUE) {
+          return null;
+        }
+      }
+
+      return new Grid(lower, size);
+    }
+
+    public int states() {
+      return _states;
+    }
+
+    public int index(int[] stats) {
+      int result = 0;
+      for (int d = 0; d < Stat.TYPE_COUNT; ++d) {
+        result += (stats[d] - _lower[d]) * _stride[d];
+      }
+      return result;
+    }
+
+    public int offset(int stat, int amount) {
+      return amount * _stride[stat];
+    }
+
+    /**
+     * Overwrites the nonlinear stats in the vector with the totals of a state.
+     */
+    public void decode(int state, int[] stats) {
+      for (int d = 0; d < Stat.TYPE_COUNT; ++d) {
+        if (_size[d] != 0) {
+          stats[d] = _lower[d] + (state / _stride[d]) % _size[d];
+        }
+      }
+    }
+  }
+}
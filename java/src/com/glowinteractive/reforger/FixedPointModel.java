@@ -0,0 +1,397 @@
+/**
+ * @author Luke Tyler Downey
+ * Copyright 2011 Glow Interactive
+ *
+ * This software contains original work and/or modifications to
+ * original work, which are redistributed under the following terms.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.glowinteractive.reforger;
+
+/**
+ * Fixed-point image of a model, for solvers that need exact arithmetic.
+ *
+ * Every stat's contribution is rebuilt from the model's breakpoints as a sequence
+ * of linear segments whose slopes are the model's marginal EP rounded to units of
+ * 1 / SCALE.  Segment k covers the values (p[k - 1], p[k]]; the first segment
+ * passes through zero.  All values are integers, so sums do not depend on the
+ * order in which they are accumulated and comparisons between equivalent plans
+ * are exact.  The EP differs from the model's by rounding only.
+ *
+ * Like StatCurve, each stat is also tabulated densely over [0, TABLE_SIZE), so the
+ * number of breakpoints does not affect the cost of an evaluation.  Neither does
+ * it much affect the marginal EP of a concave stat (slopes never increasing, as
+ * for caps and diminishing returns), whose extremes over a range lie in the
+ * segments of its ends.
+ */
+public final class FixedPointModel {
+
+  // NOTE: 16 fractional bits keep the rounding of any coefficient below 1e-5 EP per
+  //       point, while stat totals times coefficients stay far from overflowing long.
+  public static final int  SCALE_BITS = 16;
+  public static final long SCALE      = 1L << SCALE_BITS;
+
+  private static final int TABLE_BITS = 12;
+  private static final int TABLE_SIZE = 1 << TABLE_BITS;
+
+  private static final Stat[] STATS = Stat.values();
+
+  // Breakpoints of stat s are _points[_pointStart[s] .. _pointStart[s + 1]); its
+  // segments are the same range shifted by s, one more than it has breakpoints.
+  private final int[] _pointStart;
+  private final int[] _points;
+
+  // Per segment: first value (exclusive, 0 for the first), EP there, and slope.
+  private final int[]  _segmentStart;
+  private final long[] _segmentBase;
+  private final long[] _segmentSlope;
+
+  // Per stat copies of the first and last segments, so that values outside the
+  // table rarely need a scan; the first ends at Integer.MAX_VALUE for a linear stat.
+  private final int[]  _firstEnd;
+  private final long[] _firstSlope;
+  private final int[]  _lastStart;
+  private final long[] _lastBase;
+  private final long[] _lastSlope;
+
+  // Whether the slopes of each stat never increase.
+  private final boolean[] _concave;
+
+  // [stat << TABLE_BITS | value]: EP of every value in the table range.
+  private final long[] _table;
+
+  private FixedPointModel(int[][] points, long[][] slopes) {
+    int count = 0;
+    for (int[] p : points) {
+      count += p.length;
+    }
+
+    _pointStart   = new int[Stat.TYPE_COUNT + 1];
+    _points       = new int[count];
+    _segmentStart = new int[count + Stat.TYPE_COUNT];
+    _segmentBase  = new long[count + Stat.TYPE_COUNT];
+    _segmentSlope = new long[count + Stat.TYPE_COUNT];
+
+    _firstEnd   = new int[Stat.TYPE_COUNT];
+    _firstSlope = new long[Stat.TYPE_COUNT];
+    _lastStart  = new int[Stat.TYPE_COUNT];
+    _lastBase   = new long[Stat.TYPE_COUNT];
+    _lastSlope  = new long[Stat.TYPE_COUNT];
+    _concave    = new boolean[Stat.TYPE_COUNT];
+
+    for (int s = 0, index = 0; s < Stat.TYPE_COUNT; ++s) {
+      _pointStart[s] = index;
+
+      for (int k = 0; k <= points[s].length; ++k) {
+        final int SEGMENT = index + s + k;
+
+        _segmentSlope[SEGMENT] = slopes[s][k];
+        if (k > 0) {
+          _segmentStart[SEGMENT] = points[s][k - 1];
+          _segmentBase[SEGMENT]  = _segmentBase[SEGMENT - 1]
+                  + (_segmentStart[SEGMENT] - _segmentStart[SEGMENT - 1]) * _segmentSlope[SEGMENT - 1];
+        }
+      }
+
+      final int FIRST = index + s;
+      final int LAST  = FIRST + points[s].length;
+
+      _firstEnd[s]   = (points[s].length == 0) ? Integer.MAX_VALUE : points[s][0];
+      _firstSlope[s] = _segmentSlope[FIRST];
+      _lastStart[s]  = _segmentStart[LAST];
+      _lastBase[s]   = _segmentBase[LAST];
+      _lastSlope[s]  = _segmentSlope[LAST];
+
+      _concave[s] = true;
+      for (int k = FIRST + 1; k <= LAST; ++k) {
+        _concave[s] &= _segmentSlope[k] <= _segmentSlope[k - 1];
+      }
+
+      System.arraycopy(points[s], 0, _points, index, points[s].length);
+      index += points[s].length;
+      _pointStart[s + 1] = index;
+    }
+
+    _table = new long[Stat.TYPE_COUNT << TABLE_BITS];
+    for (int s = 0; s < Stat.TYPE_COUNT; ++s) {
+      for (int x = 0; x < TABLE_SIZE; ++x) {
+        _table[s << TABLE_BITS | x] = segmentEP(s, x);
+      }
+    }
+  }
+
+  public static FixedPointModel create(AbstractModel model) {
+    int[][]  points = new int[Stat.TYPE_COUNT][];
+    long[][] slopes = new long[Stat.TYPE_COUNT][];
+
+    for (Stat stat : STATS) {
+      final int   S = stat.ordinal();
+      final int[] P = model.linearStats().contains(stat) ? new int[0] : model.breakpoints(stat).clone();
+
+      points[S] = P;
+      slopes[S] = new long[P.length + 1];
+
+      for (int k = 0; k <= P.length; ++k) {
+        // Sample each segment at a value whose step in lies wholly inside it.
+        int x = (k < P.length) ? P[k] : (P.length == 0) ? 0 : P[P.length - 1] + 1;
+        slopes[S][k] = toFixed(model.marginalEPMax(stat, x, x));
+      }
+    }
+
+    return new FixedPointModel(points, slopes);
+  }
+
+  /**
+   * Returns the model whose EP is firstWeight times first's plus secondWeight
+   * times second's, exactly: its breakpoints are both models', and the slope of
+   * each segment is the weighted sum of theirs there.
+   */
+  public static FixedPointModel blend(FixedPointModel first, long firstWeight,
+                                      FixedPointModel second, long secondWeight) {
+    int[][]  points = new int[Stat.TYPE_COUNT][];
+    long[][] slopes = new long[Stat.TYPE_COUNT][];
+
+    for (int s = 0; s < Stat.TYPE_COUNT; ++s) {
+      int[] a = first.breakpoints(s),
+            b = second.breakpoints(s);
+
+      // Merge the breakpoints, ascending and without repeats.
+      int[] merged = new int[a.length + b.length];
+      int   count  = 0;
+      for (int i = 0, j = 0; i < a.length || j < b.length; ) {
+        final int P = (j == b.length || (i < a.length && a[i] <= b[j])) ? a[i] : b[j];
+
+        if (i < a.length && a[i] == P) {
+          ++i;
+        }
+        if (j < b.length && b[j] == P) {
+          ++j;
+        }
+        merged[count++] = P;
+      }
+
+      final int[] P = new int[count];
+      System.arraycopy(merged, 0, P, 0, count);
+
+      points[s] = P;
+      slopes[s] = new long[P.length + 1];
+
+      for (int k = 0; k <= P.length; ++k) {
+        int x = (k < P.length) ? P[k] : (P.length == 0) ? 0 : P[P.length - 1] + 1;
+        slopes[s][k] = firstWeight * first.marginalEPMax(s, x, x) + secondWeight * second.marginalEPMax(s, x, x);
+      }
+    }
+
+    return new FixedPointModel(points, slopes);
+  }
+
+  /**
+   * Returns a copy of this model with the slope of one segment replaced.
+   */
+  public FixedPointModel withSlope(int stat, int segment, long slope) {
+    int[][]  points = new int[Stat.TYPE_COUNT][];
+    long[][] slopes = new long[Stat.TYPE_COUNT][];
+
+    for (int s = 0; s < Stat.TYPE_COUNT; ++s) {
+      points[s] = breakpoints(s);
+      slopes[s] = new long[points[s].length + 1];
+      for (int k = 0; k < slopes[s].length; ++k) {
+        slopes[s][k] = slope(s, k);
+      }
+    }
+    slopes[stat][segment] = slope;
+
+    return new FixedPointModel(points, slopes);
+  }
+
+  public static long toFixed(float ep) {
+    return Math.round((double) ep * SCALE);
+  }
+
+  public static float toEP(long fixed) {
+    return (float) ((double) fixed / SCALE);
+  }
+
+  /**
+   * Returns the contribution of one stat at the given value.
+   */
+  public long statEP(int stat, int value) {
+    if (value >= 0 && value < TABLE_SIZE) {
+      return _table[stat << TABLE_BITS | value];
+    }
+    return segmentEP(stat, value);
+  }
+
+  private long segmentEP(int stat, int value) {
+    if (value <= _firstEnd[stat]) {
+      return value * _firstSlope[stat];
+    }
+    if (value > _lastStart[stat]) {
+      return _lastBase[stat] + (value - _lastStart[stat]) * _lastSlope[stat];
+    }
+
+    // Between the first and last breakpoints, so the scan stops before the end.
+    int k = _pointStart[stat] + 1;
+    while (value > _points[k]) {
+      ++k;
+    }
+
+    final int SEGMENT = k + stat;
+    return _segmentBase[SEGMENT] + (value - _segmentStart[SEGMENT]) * _segmentSlope[SEGMENT];
+  }
+
+  public long calculateEP(int[] stats) {
+    long result = 0;
+    for (int s = 0; s < Stat.TYPE_COUNT; ++s) {
+      result += statEP(s, stats[s]);
+    }
+    return result;
+  }
+
+  /**
+   * Returns the EP change of moving deltaValue points from stat indexDec to stat
+   * indexInc, given the stats before the move.  The stats are not modified.
+   */
+  public long calculateEPDelta(int[] stats, int indexDec, int indexInc, int deltaValue) {
+    int dec = stats[indexDec],
+        inc = stats[indexInc];
+
+    return statEP(indexDec, dec - deltaValue) - statEP(indexDec, dec)
+         + statEP(indexInc, inc + deltaValue) - statEP(indexInc, inc);
+  }
+
+  /**
+   * Stores the contribution of every stat at its value in stats.
+   */
+  public void statEPs(int[] stats, long[] result) {
+    for (int s = 0; s < Stat.TYPE_COUNT; ++s) {
+      result[s] = statEP(s, stats[s]);
+    }
+  }
+
+  /**
+   * Scores the options [from, to) of flat option arrays against the same stats in
+   * one pass, storing the EP change of each option at its own index in result.
+   * current must hold the stat contributions of statEPs(stats, current); they are
+   * shared by all options, so only the moved-to values are evaluated per option.
+   */
+  public void calculateEPDeltas(int[] stats, long[] current, int[] dec, int[] inc, int[] val,
+                                int from, int to, long[] result) {
+    for (int j = from; j < to; ++j) {
+      final int D = dec[j];
+      final int I = inc[j];
+      final int V = val[j];
+
+      result[j] = statEP(D, stats[D] - V) - current[D] + statEP(I, stats[I] + V) - current[I];
+    }
+  }
+
+  /**
+   * Largest and smallest slope of the segments that hold any value in [low, high].
+   */
+  public long marginalEPMax(int stat, int low, int high) {
+    if (high <= _firstEnd[stat]) {
+      return _firstSlope[stat];
+    }
+    if (low > _lastStart[stat]) {
+      return _lastSlope[stat];
+    }
+
+    if (_concave[stat]) {
+      return _segmentSlope[segment(stat, low)];
+    }
+
+    final int FIRST = _pointStart[stat];
+    final int LAST  = _pointStart[stat + 1];
+
+    long result = Long.MIN_VALUE;
+    for (int k = FIRST; k <= LAST; ++k) {
+      if (holds(k, FIRST, LAST, low, high)) {
+        result = Math.max(result, _segmentSlope[k + stat]);
+      }
+    }
+    return result;
+  }
+
+  public long marginalEPMin(int stat, int low, int high) {
+    if (high <= _firstEnd[stat]) {
+      return _firstSlope[stat];
+    }
+    if (low > _lastStart[stat]) {
+      return _lastSlope[stat];
+    }
+
+    if (_concave[stat]) {
+      return _segmentSlope[segment(stat, high)];
+    }
+
+    final int FIRST = _pointStart[stat];
+    final int LAST  = _pointStart[stat + 1];
+
+    long result = Long.MAX_VALUE;
+    for (int k = FIRST; k <= LAST; ++k) {
+      if (holds(k, FIRST, LAST, low, high)) {
+        result = Math.min(result, _segmentSlope[k + stat]);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the slope of segment k of the stat, which covers the values
+   * (p[k - 1], p[k]] of its breakpoints p.
+   */
+  public long slope(int stat, int k) {
+    assert k >= 0 && k <= _pointStart[stat + 1] - _pointStart[stat] : "Error: no such segment.";
+
+    return _segmentSlope[_pointStart[stat] + stat + k];
+  }
+
+  /**
+   * Returns a copy of the stat's breakpoints, ascending.
+   */
+  public int[] breakpoints(int stat) {
+    int[] result = new int[_pointStart[stat + 1] - _pointStart[stat]];
+    System.arraycopy(_points, _pointStart[stat], result, 0, result.length);
+    return result;
+  }
+
+  /**
+   * Returns the index into the segment arrays of the segment holding value.
+   */
+  private int segment(int stat, int value) {
+    // Binary search for the first breakpoint at or above value.
+    int low  = _pointStart[stat],
+        high = _pointStart[stat + 1];
+
+    while (low < high) {
+      final int MID = (low + high) >>> 1;
+
+      if (_points[MID] < value) {
+        low = MID + 1;
+      } else {
+        high = MID;
+      }
+    }
+
+    return low + stat;
+  }
+
+  private boolean holds(int k, int first, int last, int low, int high) {
+    return (k == last || low <= _points[k]) && (k == first || high > _points[k - 1]);
+  }
+}
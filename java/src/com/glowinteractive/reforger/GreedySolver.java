@@ -0,0 +1,125 @@
+/**
+ * @author Luke Tyler Downey
+ * Copyright 2011 Glow Interactive
+ *
+ * This software contains original work and/or modifications to
+ * original work, which are redistributed under the following terms.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.glowinteractive.reforger;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.EnumSet;
+
+/**
+ * Fast heuristic solver: from the unreforged stats, repeatedly takes the single
+ * reforge, over all items not yet reforged, that gains the most EP, until none
+ * gains any.  Moves into a capped stat gain most while it is below its cap, so
+ * the caps fill first and the rest goes to the best stat past them.  Not exact,
+ * but takes items x options per step; the exact solvers use it, together with
+ * the character's current reforges, as their starting incumbent.
+ */
+public final class GreedySolver implements AbstractSolver {
+
+  private static final Stat[] STATS = Stat.values();
+
+  @Override public boolean accepts(SearchSpace space) {
+    return true;
+  }
+
+  @Override public Solution solve(SearchSpace space) {
+    return Solution.evaluate(space, plan(space, FixedPointModel.create(space.model()), null));
+  }
+
+  @Override public String toString() {
+    return "Greedy";
+  }
+
+  /**
+   * Returns the greedy plan for model, using only the options whose pair of stats
+   * mappings holds (all options if mappings is null).  Gains are compared in the
+   * model's fixed point, so the plan does not depend on float rounding.
+   */
+  static int[] plan(SearchSpace space, FixedPointModel model, EnumMap<Stat, EnumSet<Stat>> mappings) {
+    final int ITEM_COUNT = space.itemCount();
+
+    int[] stats   = space.stats();
+    int[] options = new int[ITEM_COUNT];
+    Arrays.fill(options, -1);
+
+    while (true) {
+      long bestGain   = 0;
+      int  bestItem   = -1,
+           bestOption = -1;
+
+      for (int i = 0; i < ITEM_COUNT; ++i) {
+        if (options[i] != -1) {
+          continue;
+        }
+
+        for (int j = 0; j < space.optionCount(i); ++j) {
+          if (!open(space, i, j, mappings)) {
+            continue;
+          }
+
+          long gain = model.calculateEPDelta(stats, space.decreased(i, j), space.increased(i, j), space.value(i, j));
+          if (gain > bestGain) {
+            bestGain   = gain;
+            bestItem   = i;
+            bestOption = j;
+          }
+        }
+      }
+
+      if (bestItem == -1) {
+        return options;
+      }
+
+      options[bestItem] = bestOption;
+      stats[space.decreased(bestItem, bestOption)] -= space.value(bestItem, bestOption);
+      stats[space.increased(bestItem, bestOption)] += space.value(bestItem, bestOption);
+    }
+  }
+
+  /**
+   * Returns the better, in model's fixed point, of the character's current
+   * reforges and the greedy plan, both restricted to the options mappings holds
+   * (all if null).
+   */
+  static int[] warmStart(SearchSpace space, FixedPointModel model, EnumMap<Stat, EnumSet<Stat>> mappings) {
+    int[] current = space.current();
+    for (int i = 0; i < current.length; ++i) {
+      if (current[i] != -1 && !open(space, i, current[i], mappings)) {
+        current[i] = -1;
+      }
+    }
+
+    int[] greedy = plan(space, model, mappings);
+
+    return (model.calculateEP(space.apply(current)) > model.calculateEP(space.apply(greedy))) ? current : greedy;
+  }
+
+  private static boolean open(SearchSpace space, int item, int option, EnumMap<Stat, EnumSet<Stat>> mappings) {
+    if (mappings == null) {
+      return true;
+    }
+
+    EnumSet<Stat> targets = mappings.get(STATS[space.decreased(item, option)]);
+    return targets != null && targets.contains(STATS[space.increased(item, option)]);
+  }
+}
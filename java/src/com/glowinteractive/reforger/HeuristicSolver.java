@@ -0,0 +1,558 @@
+/**
+ * @author Luke Tyler Downey
+ * Copyright 2011 Glow Interactive
+ *
+ * This software contains original work and/or modifications to
+ * original work, which are redistributed under the following terms.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.glowinteractive.reforger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+
+/**
+ * Heuristic solver for search spaces too large for the exact solvers, e.g.
+ * synthetic stress sets or gear with many more slots.
+ *
+ * Items are decided one at a time, largest possible EP change first, keeping
+ * the width best partial plans (the beam) after each; partial plans that reach
+ * the same stats are kept once.  The best complete plan, or the warm start if it
+ * is better, is then improved by local search: changing the option of one item
+ * (1-swap) until no change gains, then of two items at once (2-swap), each item
+ * paired with the few items after it in decision order, and so on until neither
+ * gains.  Moves are scored incrementally on the stats they touch.  Every phase
+ * takes time linear in the number of items.
+ *
+ * The plan is not proven optimal; gap() bounds how far it may be from optimal,
+ * against the slope bound of branch and bound over all items and, if the model
+ * has few enough caps, its Lagrangian relaxation bound.  Work is in the model's
+ * fixed point, as for the exact solvers.
+ */
+public final class HeuristicSolver implements AbstractSolver {
+
+  public static final int DEFAULT_WIDTH = 64;
+
+  // 2-swaps pair each item with this many items after it in decision order.
+  private static final int PARTNERS = 8;
+
+  // Per stat multipliers of the stats hash, which changes by value * (KEY[inc] -
+  // KEY[dec]) with each option, so that a partial plan's hash follows its parent's.
+  private static final long[] KEYS = new long[Stat.TYPE_COUNT];
+
+  static {
+    long seed = 0x9E3779B97F4A7C15L;
+    for (int s = 0; s < Stat.TYPE_COUNT; ++s) {
+      seed += 0x9E3779B97F4A7C15L;
+
+      long z = seed;
+      z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+      z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+      KEYS[s] = z ^ (z >>> 31);
+    }
+  }
+
+  private final int _width;
+
+  private FixedPointModel _model;
+  private SearchSpace     _space;
+
+  // Items in decision order.
+  private int[] _order;
+
+  private long  _boundEP;
+  private float _gap;
+
+  private volatile boolean _cancelled;
+
+  public HeuristicSolver() {
+    this(DEFAULT_WIDTH);
+  }
+
+  public HeuristicSolver(int width) {
+    assert width > 0 : "Error: the beam needs a width of at least one.";
+
+    _width = width;
+  }
+
+  /**
+   * Stops a solve in progress on another thread: it returns its plan after the
+   * current local search pass.  Solves started later skip the local search too,
+   * until reset().
+   */
+  public void cancel() {
+    _cancelled = true;
+  }
+
+  /**
+   * Clears a cancel(), so that later solves run.
+   */
+  public void reset() {
+    _cancelled = false;
+  }
+
+  @Override public boolean accepts(SearchSpace space) {
+    return true;
+  }
+
+  @Override public Solution solve(SearchSpace space) {
+    _space = space;
+    _model = FixedPointModel.create(space.model());
+
+    order();
+
+    int[] plan   = beam();
+    int[] warm   = space.current();
+    int[] stats  = space.apply(plan);
+    long  planEP = _model.calculateEP(stats);
+
+    if (_model.calculateEP(space.apply(warm)) > planEP) {
+      plan   = warm;
+      stats  = space.apply(plan);
+      planEP = _model.calculateEP(stats);
+    }
+
+    planEP = improve(plan, stats, planEP);
+
+    _gap = FixedPointModel.toEP(Math.max(0, _boundEP - planEP));
+
+    return Solution.evaluate(space, plan);
+  }
+
+  /**
+   * Returns the most EP by which the optimum may exceed the last solve's plan.
+   */
+  public float gap() {
+    return _gap;
+  }
+
+  /**
+   * Returns the upper bound on the EP of any plan of the last solve's space.
+   */
+  public float boundEP() {
+    return FixedPointModel.toEP(_boundEP);
+  }
+
+  @Override public String toString() {
+    return String.format("Beam search, width %d, with local search", _width);
+  }
+
+  /**
+   * Orders the items by their largest possible EP change, over the range every
+   * stat can reach, and bounds the EP of any plan.
+   */
+  private void order() {
+    final int   ITEM_COUNT = _space.itemCount();
+    final int[] STATS      = _space.stats();
+
+    int[] dec = new int[Stat.TYPE_COUNT];
+    int[] inc = new int[Stat.TYPE_COUNT];
+    for (int i = 0; i < ITEM_COUNT; ++i) {
+      SearchOrder.addReach(_space, i, dec, inc);
+    }
+
+    long[] slopeMax = new long[Stat.TYPE_COUNT];
+    long[] slopeMin = new long[Stat.TYPE_COUNT];
+    for (int s = 0; s < Stat.TYPE_COUNT; ++s) {
+      slopeMax[s] = _model.marginalEPMax(s, STATS[s] - dec[s], STATS[s] + inc[s]);
+      slopeMin[s] = _model.marginalEPMin(s, STATS[s] - dec[s], STATS[s] + inc[s]);
+    }
+
+    final long[] impact = new long[ITEM_COUNT];
+    ArrayList<Integer> items = new ArrayList<Integer>(ITEM_COUNT);
+    long slopeBound = 0;
+
+    for (int i = 0; i < ITEM_COUNT; ++i) {
+      for (int j = 0; j < _space.optionCount(i); ++j) {
+        impact[i] = Math.max(impact[i], _space.value(i, j)
+                * (slopeMax[_space.increased(i, j)] - slopeMin[_space.decreased(i, j)]));
+      }
+      slopeBound += impact[i];
+      items.add(i);
+    }
+
+    Collections.sort(items, new Comparator<Integer>() {
+      @Override public int compare(Integer a, Integer b) {
+        return Long.compare(impact[b], impact[a]);
+      }
+    });
+
+    _order = new int[ITEM_COUNT];
+    for (int k = 0; k < ITEM_COUNT; ++k) {
+      _order[k] = items.get(k);
+    }
+
+    _boundEP = _model.calculateEP(STATS) + Math.min(slopeBound, relaxationBound());
+  }
+
+  /**
+   * Returns the relaxation bound on the EP all items can add, or Long.MAX_VALUE
+   * if the model has too many caps for it.
+   */
+  private long relaxationBound() {
+    // The bound is over all items, so their order does not matter.
+    SearchOrder order = new SearchOrder(_space, new FixedPointModel[] { _model }, false);
+
+    RelaxationBound relaxation = RelaxationBound.create(_model, order.optionStart(), order.optionDec(),
+                                                        order.optionInc(), order.optionVal(),
+                                                        order.remainingDec(), order.remainingInc());
+
+    return (relaxation != null) ? relaxation.bound(-1, _space.stats()) : Long.MAX_VALUE;
+  }
+
+  /**
+   * Returns the best plan of the beam search, in SearchSpace order.
+   */
+  private int[] beam() {
+    final int ITEM_COUNT = _space.itemCount();
+    final int WIDTH      = _width;
+
+    // The partial plans of the beam, and those of the next item's decision.
+    int[][] stats     = new int[WIDTH][];
+    int[][] nextStats = new int[WIDTH][];
+    long[]  ep        = new long[WIDTH];
+    long[]  nextEP    = new long[WIDTH];
+    long[]  hash      = new long[WIDTH];
+    long[]  nextHash  = new long[WIDTH];
+
+    // [decision][plan]: option taken and plan it extends, to rebuild the best plan.
+    int[][] choice = new int[ITEM_COUNT][WIDTH];
+    int[][] parent = new int[ITEM_COUNT][WIDTH];
+
+    for (int p = 0; p < WIDTH; ++p) {
+      stats[p]     = new int[Stat.TYPE_COUNT];
+      nextStats[p] = new int[Stat.TYPE_COUNT];
+    }
+
+    System.arraycopy(_space.stats(), 0, stats[0], 0, Stat.TYPE_COUNT);
+    ep[0]    = _model.calculateEP(stats[0]);
+    int size = 1;
+
+    for (int k = 0; k < ITEM_COUNT; ++k) {
+      final int ITEM     = _order[k];
+      final int OPTIONS  = _space.optionCount(ITEM);
+      final int CHILDREN = size * (OPTIONS + 1);
+
+      long[]    childEP     = new long[CHILDREN];
+      long[]    childHash   = new long[CHILDREN];
+      int[]     childParent = new int[CHILDREN];
+      int[]     childOption = new int[CHILDREN];
+      HashTable seen        = new HashTable(CHILDREN);
+      int       count       = 0;
+
+      // Extend every plan by every option and "no reforge", each distinct stats once.
+      // NOTE: Plans are told apart by the hash of their stats alone; should two
+      //       stats ever share one, the later plan is merely dropped from the beam.
+      for (int p = 0; p < size; ++p) {
+        for (int j = -1; j < OPTIONS; ++j) {
+          long childStatsHash = hash[p];
+          long resultEP       = ep[p];
+
+          if (j != -1) {
+            final int DEC = _space.decreased(ITEM, j);
+            final int INC = _space.increased(ITEM, j);
+            final int VAL = _space.value(ITEM, j);
+
+            childStatsHash += VAL * (KEYS[INC] - KEYS[DEC]);
+            resultEP       += _model.calculateEPDelta(stats[p], DEC, INC, VAL);
+          }
+
+          if (seen.add(childStatsHash)) {
+            childEP[count]     = resultEP;
+            childHash[count]   = childStatsHash;
+            childParent[count] = p;
+            childOption[count] = j;
+            ++count;
+          }
+        }
+      }
+
+      int[] kept = best(childEP, count, WIDTH);
+
+      for (int q = 0; q < kept.length; ++q) {
+        final int CHILD  = kept[q];
+        final int PARENT = childParent[CHILD];
+        final int OPTION = childOption[CHILD];
+
+        System.arraycopy(stats[PARENT], 0, nextStats[q], 0, Stat.TYPE_COUNT);
+        if (OPTION != -1) {
+          nextStats[q][_space.decreased(ITEM, OPTION)] -= _space.value(ITEM, OPTION);
+          nextStats[q][_space.increased(ITEM, OPTION)] += _space.value(ITEM, OPTION);
+        }
+
+        nextEP[q]    = childEP[CHILD];
+        nextHash[q]  = childHash[CHILD];
+        choice[k][q] = OPTION;
+        parent[k][q] = PARENT;
+      }
+
+      int[][] swapStats = stats; stats = nextStats; nextStats = swapStats;
+      long[]  swapEP    = ep;    ep    = nextEP;    nextEP    = swapEP;
+      long[]  swapHash  = hash;  hash  = nextHash;  nextHash  = swapHash;
+
+      size = kept.length;
+    }
+
+    // kept is sorted best first, so plan 0 is the best.
+    int[] result = new int[ITEM_COUNT];
+    for (int k = ITEM_COUNT - 1, p = 0; k >= 0; --k) {
+      result[_order[k]] = choice[k][p];
+      p = parent[k][p];
+    }
+    return result;
+  }
+
+  /**
+   * Returns the indices of the (at most) width largest values, largest first;
+   * among equal values the lower index comes first.
+   */
+  private static int[] best(long[] values, int count, int width) {
+    final int SIZE = Math.min(count, width);
+
+    // Min-heap of the best so far, worst at the root.
+    int[] heap = new int[SIZE];
+    int   size = 0;
+
+    for (int c = 0; c < count; ++c) {
+      if (size < SIZE) {
+        heap[size] = c;
+        siftUp(values, heap, size++);
+      } else if (worse(values, heap[0], c)) {
+        heap[0] = c;
+        siftDown(values, heap, 0, size);
+      }
+    }
+
+    int[] result = new int[SIZE];
+    for (int q = SIZE - 1; q >= 0; --q) {
+      result[q] = heap[0];
+      heap[0] = heap[--size];
+      siftDown(values, heap, 0, size);
+    }
+    return result;
+  }
+
+  private static boolean worse(long[] values, int a, int b) {
+    return values[a] < values[b] || (values[a] == values[b] && a > b);
+  }
+
+  private static void siftUp(long[] values, int[] heap, int i) {
+    while (i > 0) {
+      final int PARENT = (i - 1) >> 1;
+      if (!worse(values, heap[i], heap[PARENT])) {
+        return;
+      }
+
+      int swap = heap[i]; heap[i] = heap[PARENT]; heap[PARENT] = swap;
+      i = PARENT;
+    }
+  }
+
+  private static void siftDown(long[] values, int[] heap, int i, int size) {
+    while (true) {
+      int worst = i;
+      for (int c = 2 * i + 1; c <= 2 * i + 2 && c < size; ++c) {
+        if (worse(values, heap[c], heap[worst])) {
+          worst = c;
+        }
+      }
+      if (worst == i) {
+        return;
+      }
+
+      int swap = heap[i]; heap[i] = heap[worst]; heap[worst] = swap;
+      i = worst;
+    }
+  }
+
+  /**
+   * Improves plan in place by 1-swaps and 2-swaps until neither gains, and returns
+   * its EP.  stats must be the plan's stats and ep their EP; stats is updated.
+   */
+  private long improve(int[] plan, int[] stats, long ep) {
+    while (!_cancelled) {
+      long gain = swapOne(plan, stats);
+      if (gain == 0) {
+        gain = swapTwo(plan, stats);
+      }
+      if (gain == 0) {
+        return ep;
+      }
+      ep += gain;
+    }
+    return ep;
+  }
+
+  /**
+   * Gives every item in turn its best option given the others, and returns the
+   * total EP gained.
+   */
+  private long swapOne(int[] plan, int[] stats) {
+    long result = 0;
+
+    for (int item : _order) {
+      final long REMOVED = remove(plan[item], item, stats);
+
+      int  bestOption = plan[item];
+      long bestGain   = gain(item, plan[item], stats);
+
+      for (int j = -1; j < _space.optionCount(item); ++j) {
+        long gain = gain(item, j, stats);
+        if (gain > bestGain) {
+          bestGain   = gain;
+          bestOption = j;
+        }
+      }
+
+      apply(bestOption, item, stats);
+      result += REMOVED + bestGain;
+      plan[item] = bestOption;
+    }
+
+    return result;
+  }
+
+  /**
+   * Gives pairs of items close in decision order their best pair of options given
+   * the others, and returns the total EP gained.
+   */
+  private long swapTwo(int[] plan, int[] stats) {
+    long result = 0;
+
+    for (int k = 0; k < _order.length; ++k) {
+      final int FIRST = _order[k];
+
+      for (int l = k + 1; l < _order.length && l <= k + PARTNERS; ++l) {
+        final int SECOND = _order[l];
+
+        final long REMOVED = remove(plan[FIRST], FIRST, stats) + remove(plan[SECOND], SECOND, stats);
+
+        int  bestFirst  = plan[FIRST],
+             bestSecond = plan[SECOND];
+        long bestGain   = pairGain(FIRST, bestFirst, SECOND, bestSecond, stats);
+
+        for (int a = -1; a < _space.optionCount(FIRST); ++a) {
+          final long FIRST_GAIN = gain(FIRST, a, stats);
+          apply(a, FIRST, stats);
+
+          for (int b = -1; b < _space.optionCount(SECOND); ++b) {
+            long gain = FIRST_GAIN + gain(SECOND, b, stats);
+            if (gain > bestGain) {
+              bestGain   = gain;
+              bestFirst  = a;
+              bestSecond = b;
+            }
+          }
+
+          remove(a, FIRST, stats);
+        }
+
+        apply(bestFirst, FIRST, stats);
+        apply(bestSecond, SECOND, stats);
+        result += REMOVED + bestGain;
+        plan[FIRST]  = bestFirst;
+        plan[SECOND] = bestSecond;
+      }
+    }
+
+    return result;
+  }
+
+  private long pairGain(int first, int a, int second, int b, int[] stats) {
+    final long FIRST_GAIN = gain(first, a, stats);
+
+    apply(a, first, stats);
+    long result = FIRST_GAIN + gain(second, b, stats);
+    remove(a, first, stats);
+
+    return result;
+  }
+
+  /**
+   * Returns the EP change of taking option j (-1 for none) of item from stats,
+   * which are not modified.
+   */
+  private long gain(int item, int j, int[] stats) {
+    if (j == -1) {
+      return 0;
+    }
+    return _model.calculateEPDelta(stats, _space.decreased(item, j), _space.increased(item, j), _space.value(item, j));
+  }
+
+  private void apply(int j, int item, int[] stats) {
+    if (j != -1) {
+      stats[_space.decreased(item, j)] -= _space.value(item, j);
+      stats[_space.increased(item, j)] += _space.value(item, j);
+    }
+  }
+
+  /**
+   * Undoes option j (-1 for none) of item in stats and returns the EP change.
+   */
+  private long remove(int j, int item, int[] stats) {
+    if (j == -1) {
+      return 0;
+    }
+
+    final int DEC = _space.decreased(item, j);
+    final int INC = _space.increased(item, j);
+    final int VAL = _space.value(item, j);
+
+    long result = _model.calculateEPDelta(stats, INC, DEC, VAL);
+    stats[INC] -= VAL;
+    stats[DEC] += VAL;
+    return result;
+  }
+
+  /**
+   * Set of stats hashes, open addressing; sized once for the hashes to be added.
+   */
+  private static final class HashTable {
+
+    private final long[]    _keys;
+    private final boolean[] _used;
+    private final int       _mask;
+
+    public HashTable(int capacity) {
+      final int SIZE = Integer.highestOneBit(Math.max(capacity, 1)) << 2;
+
+      _keys = new long[SIZE];
+      _used = new boolean[SIZE];
+      _mask = SIZE - 1;
+    }
+
+    /**
+     * Adds key and returns true, or returns false if it was already present.
+     */
+    public boolean add(long key) {
+      int slot = (int) (key ^ (key >>> 32)) & _mask;
+
+      while (_used[slot]) {
+        if (_keys[slot] == key) {
+          return false;
+        }
+        slot = (slot + 1) & _mask;
+      }
+
+      _keys[slot] = key;
+      _used[slot] = true;
+      return true;
+    }
+  }
+}
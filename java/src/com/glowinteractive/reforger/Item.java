@@ -43,7 +43,6 @@ import java.net.URL;
 import java.util.EnumMap;
 import java.util.EnumSet;
 import java.util.HashSet;
-import java.util.UUID;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -67,21 +66,28 @@ public final class Item implements Comparable<Item>, TagNodeVisitor {
   private static final String TOOLTIP_RATING_NON_RANDOM      = "Equip\\: Increases your ([ \\w]+) rating by (\\d+)";
   private static final String TOOLTIP_RATING_RANDOM_OR_BONUS = "\\+?(\\d+) ([ \\w&&[^\\d]]+) [rR]ating";
 
+  // NOTE: Reforge IDs number every (from, to) pair of distinct stats of this table,
+  //       from-major, starting at FIRST_REFORGE_ID.  Spirit has no Stat.
+  private static final Stat[] REFORGE_STATS    = { null, Stat.DOD, Stat.PAR, Stat.HIT,
+                                                   Stat.CRI, Stat.HST, Stat.EXP, Stat.MST };
+  private static final int    FIRST_REFORGE_ID = 113;
+
   private boolean _parsed = false;
 
   private int     _slot;
   private String  _name;
   private TagNode _data;
-
-  private final UUID _uniqueID;
+  private int     _reforgeID;
 
   private StatKVMap _mutableStats;
   private StatKVMap _immutableStats;
   private StatKVMap _currentReforging;
 
-  private Item() {
-    _uniqueID = UUID.randomUUID();
+  // Totals of the tooltip lines while parsing; snapshotted into the maps above.
+  private StatAccumulator _mutableTotals;
+  private StatAccumulator _immutableTotals;
 
+  private Item() {
     _mutableStats     = new StatKVMap();
     _immutableStats   = new StatKVMap();
     _currentReforging = new StatKVMap();
@@ -94,20 +100,28 @@ public final class Item implements Comparable<Item>, TagNodeVisitor {
     _data = data;
   }
 
-  @Override public int compareTo(Item o) {
-    return Integer.valueOf(_slot).compareTo(o._slot);
+  /**
+   * Creates an already parsed item from known stats, e.g. for benchmarks.
+   */
+  Item(int slot, String name, StatKVMap mutableStats, StatKVMap immutableStats) {
+    this(slot, name, mutableStats, immutableStats, new StatKVMap());
   }
 
-  @Override public boolean equals(Object other) {
-    if (other instanceof Item) {
-      Item o = (Item) other;
-      return _uniqueID.equals(o._uniqueID);
-    }
-    return false;
+  Item(int slot, String name, StatKVMap mutableStats, StatKVMap immutableStats,
+       StatKVMap currentReforging) {
+    this();
+
+    _slot   = slot;
+    _name   = name;
+    _parsed = true;
+
+    _mutableStats     = mutableStats;
+    _immutableStats   = immutableStats;
+    _currentReforging = currentReforging;
   }
 
-  @Override public int hashCode() {
-    return _uniqueID.hashCode();
+  @Override public int compareTo(Item o) {
+    return Integer.valueOf(_slot).compareTo(o._slot);
   }
 
   @Override public String toString() {
@@ -163,6 +177,7 @@ public final class Item implements Comparable<Item>, TagNodeVisitor {
         if ("re".equals(pair[0])) {
           // Reforge ID (not currently supported by Wowhead)
           wowhead.append("&rf=").append(pair[1]);
+          _reforgeID = Integer.parseInt(pair[1]);
         }
 
         if ("es".equals(pair[0])) {
@@ -225,8 +240,19 @@ public final class Item implements Comparable<Item>, TagNodeVisitor {
       TagNode root = parser.clean(itemPayload);
       //</editor-fold>
 
+      _mutableTotals   = new StatAccumulator();
+      _immutableTotals = new StatAccumulator();
+
       root.traverse(this);
 
+      _mutableStats    = _mutableTotals.snapshot();
+      _immutableStats  = _immutableTotals.snapshot();
+      _mutableTotals   = null;
+      _immutableTotals = null;
+
+      // The tooltip shows the item unreforged, so the reforge applies on top.
+      _currentReforging = reforging(_reforgeID, _mutableStats);
+
       System.out.println();
 
       _parsed = true;
@@ -343,13 +369,12 @@ public final class Item implements Comparable<Item>, TagNodeVisitor {
         }
       }
 
-      // TODO: Refactor output to parse() via mutable / immutable extension to StatKVMap.
       if (key != null) {
         if (PARSE_MUTABLE) {
-          _mutableStats = _mutableStats.add(new StatKVPair(key, value));
+          _mutableTotals.add(key, value);
           System.out.println(String.format("    %+5d", value) + " " + key.shortName());
         } else {
-          _immutableStats = _immutableStats.add(new StatKVPair(key, value));
+          _immutableTotals.add(key, value);
           System.out.println(String.format("    %+5d", value) + " " + key.shortName() + " [Immutable]");
         }
       }
@@ -382,6 +407,15 @@ public final class Item implements Comparable<Item>, TagNodeVisitor {
     return _slot;
   }
 
+  /**
+   * Returns the item's identity within its character: its slot, which no other
+   * item of the character shares.  Small and dense, so per-item bookkeeping can
+   * be an array indexed by it.  Items otherwise compare by identity.
+   */
+  public int id() {
+    return _slot;
+  }
+
   public HashSet<StatKVMap> candidates(EnumMap<Stat, EnumSet<Stat>> mappings) {
     parse();
 
@@ -391,7 +425,7 @@ public final class Item implements Comparable<Item>, TagNodeVisitor {
       for (Stat increase : Stat.values()) {
         if (_mutableStats.value(increase) == 0 && _mutableStats.value(decrease) != 0
                 && mappings.containsKey(decrease) && mappings.get(decrease).contains(increase)) {
-          int delta = Math.round((float) Math.floor(0.4 * _mutableStats.value(decrease)));
+          int delta = reforgeAmount(_mutableStats.value(decrease));
           StatKVMap deltaMap = new StatKVMap(decrease, increase, delta);
           result.add(deltaMap);
         }
@@ -400,4 +434,39 @@ public final class Item implements Comparable<Item>, TagNodeVisitor {
 
     return result;
   }
+
+  /**
+   * Returns the amount a reforge moves out of a stat the item has value of.
+   */
+  private static int reforgeAmount(int value) {
+    return Math.round((float) Math.floor(0.4 * value));
+  }
+
+  /**
+   * Decodes an Armory reforge ID into the delta it applies to an item with the
+   * given mutable stats; an empty map if the ID is not a reforge between Stats.
+   */
+  static StatKVMap reforging(int id, StatKVMap mutableStats) {
+    final int COUNT = REFORGE_STATS.length;
+    final int INDEX = id - FIRST_REFORGE_ID;
+
+    if (INDEX < 0 || INDEX >= COUNT * (COUNT - 1)) {
+      return new StatKVMap();
+    }
+
+    int from = INDEX / (COUNT - 1),
+        to   = INDEX % (COUNT - 1);
+    if (to >= from) {
+      ++to;
+    }
+
+    Stat decrease = REFORGE_STATS[from],
+         increase = REFORGE_STATS[to];
+
+    if (decrease == null || increase == null || mutableStats.value(decrease) == 0) {
+      return new StatKVMap();
+    }
+
+    return new StatKVMap(decrease, increase, reforgeAmount(mutableStats.value(decrease)));
+  }
 }
@@ -0,0 +1,878 @@
+/**
+ * @author Luke Tyler Downey
+ * Copyright 2011 Glow Interactive
+ *
+ * This software contains original work and/or modifications to
+ * original work, which are redistributed under the following terms.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.glowinteractive.reforger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+
+/**
+ * Exact solver for mid-sized search spaces, by meet in the middle.
+ *
+ * The items are split into two halves with about equal numbers of plans, and
+ * every plan of each half is enumerated as a PackedStats delta.  The EP is a sum
+ * over stats and the stats without breakpoints are linear, so plans a and b of
+ * the halves combine to the EP of the linear stats at a plus that at b plus the
+ * EP of the capped stats (hit and expertise for Model) at a + b.  Each half
+ * therefore keeps, per distinct delta of the capped stats, only its plan of most
+ * linear EP.
+ *
+ * Both halves' groups are sorted by their capped deltas in Stat order, e.g. by
+ * hit and then expertise, and bucketed by all but the last, which is then sorted
+ * within each bucket.  For a pair of buckets the leading capped stats are fixed,
+ * and the last one's EP is linear over each segment of its curve; so for each
+ * group of the first bucket, the best partner in the second for each segment is
+ * a range maximum query over a contiguous run of it.  Pairs of buckets, and
+ * groups, that cannot beat the incumbent are skipped by bounds; if the last
+ * capped stat is concave, as for a cap, the line of each of its segments bounds
+ * it, which separates the bound by half.  The incumbent starts at the warm start
+ * of the other exact solvers.  All values are fixed-point EP.
+ *
+ * accepts() declines spaces whose half plans would not fit the memory budget,
+ * or whose model has more than MAX_CAPPED stats with breakpoints, so that the next
+ * solver, branch and bound, takes them; solve() falls back to it as well, and if
+ * the groups and their index turn out not to fit.
+ */
+public final class MeetInTheMiddleSolver implements AbstractSolver {
+
+  public static final long DEFAULT_MEMORY_BUDGET = 64L << 20;
+
+  // Largest supported number of capped stats, whose deltas make up a group key.
+  private static final int MAX_CAPPED = 3;
+
+  // Bytes per half plan, at most one group each: group key, linear EP and plan
+  // code, and the key map.
+  private static final int PLAN_BYTES = 48;
+
+  // Offset of a capped delta within its 16 bits of a group key.
+  private static final int KEY_BIAS = 1 << (PackedStats.LANE_BITS - 1);
+  private static final int KEY_MASK = (1 << PackedStats.LANE_BITS) - 1;
+
+  private final long _memoryBudget;
+
+  private final BranchAndBoundSolver _fallback = new BranchAndBoundSolver();
+
+  private FixedPointModel _model;
+  private SearchSpace     _space;
+
+  // Capped stats in Stat order, their breakpoints, and the base stats.
+  private int[]   _capped;
+  private int[][] _breakpoints;
+  private int[]   _stats;
+
+  // Fixed-point slope of every stat; used for the stats without breakpoints.
+  private long[] _slopes;
+
+  private long _plans;
+  private int  _groups;
+
+  private volatile boolean _cancelled;
+
+  public MeetInTheMiddleSolver() {
+    this(DEFAULT_MEMORY_BUDGET);
+  }
+
+  /**
+   * Solves spaces whose half plans fit memoryBudget bytes.
+   */
+  public MeetInTheMiddleSolver(long memoryBudget) {
+    _memoryBudget = memoryBudget;
+  }
+
+  /**
+   * Stops a solve in progress on another thread: it returns the unchanged plan
+   * if it has not yet enumerated and sorted both halves, and otherwise its best
+   * plan so far before combining the next bucket of the first half.  Solves
+   * started later stop too, until reset().
+   */
+  public void cancel() {
+    _cancelled = true;
+    _fallback.cancel();
+  }
+
+  /**
+   * Clears a cancel(), so that later solves run.
+   */
+  public void reset() {
+    _cancelled = false;
+    _fallback.reset();
+  }
+
+  @Override public boolean accepts(SearchSpace space) {
+    FixedPointModel model = FixedPointModel.create(space.model());
+
+    int capped = 0;
+    for (int s = 0; s < Stat.TYPE_COUNT; ++s) {
+      if (model.breakpoints(s).length > 0) {
+        ++capped;
+      }
+    }
+    if (capped > MAX_CAPPED) {
+      return false;
+    }
+
+    int[][] halves = split(space);
+
+    final long PLANS = plans(space, halves[0]) + plans(space, halves[1]);
+    if (PLANS < 0 || PLANS > _memoryBudget / PLAN_BYTES) {
+      return false;
+    }
+
+    for (int[] half : halves) {
+
+      // Every delta of the half must fit a lane.
+      int[] dec = new int[Stat.TYPE_COUNT];
+      int[] inc = new int[Stat.TYPE_COUNT];
+      for (int item : half) {
+        SearchOrder.addReach(space, item, dec, inc);
+      }
+      for (int s = 0; s < Stat.TYPE_COUNT; ++s) {
+        if (dec[s] >= KEY_BIAS || inc[s] >= KEY_BIAS) {
+          return false;
+        }
+      }
+    }
+
+    return true;
+  }
+
+  @Override public Solution solve(SearchSpace space) {
+    _plans  = 0;
+    _groups = 0;
+
+    if (!accepts(space)) {
+      return _fallback.solve(space);
+    }
+
+    _space = space;
+    _model = FixedPointModel.create(space.model());
+    _stats = space.stats();
+
+    int count = 0;
+    _capped      = new int[MAX_CAPPED];
+    _breakpoints = new int[Stat.TYPE_COUNT][];
+    _slopes      = new long[Stat.TYPE_COUNT];
+    for (int s = 0; s < Stat.TYPE_COUNT; ++s) {
+      _breakpoints[s] = _model.breakpoints(s);
+      _slopes[s]      = _model.marginalEPMax(s, 0, 0);
+      if (_breakpoints[s].length > 0) {
+        _capped[count++] = s;
+      }
+    }
+    _capped = Arrays.copyOf(_capped, count);
+
+    int[][] halves = split(space);
+    Groups  first  = enumerate(halves[0]);
+    Groups  second = (_cancelled) ? null : enumerate(halves[1]);
+
+    if (_cancelled) {
+      return unchanged(space);
+    }
+
+    _plans  = plans(space, halves[0]) + plans(space, halves[1]);
+    _groups = first.size() + second.size();
+
+    // The range maxima take a sparse table per segment of the last capped stat.
+    final int  SEGMENTS    = (count == 0) ? 0 : _breakpoints[_capped[count - 1]].length + 1;
+    final long INDEX_BYTES = (long) second.size() * SEGMENTS * (Integer.SIZE / Byte.SIZE)
+            * (32 - Integer.numberOfLeadingZeros(second.size()));
+
+    if ((first.size() + second.size()) * (long) PLAN_BYTES + INDEX_BYTES > _memoryBudget) {
+      return _fallback.solve(space);
+    }
+
+    first.sort();
+    second.sort();
+
+    if (_cancelled) {
+      return unchanged(space);
+    }
+
+    int[] warmStart = GreedySolver.warmStart(space, _model, null);
+
+    long[] best = { _model.calculateEP(space.apply(warmStart)) };
+    int[]  pair = combine(first, second, best);
+
+    if (pair == null) {
+      return Solution.evaluate(space, warmStart);
+    }
+
+    int[] options = new int[space.itemCount()];
+    first.decode(pair[0], halves[0], options);
+    second.decode(pair[1], halves[1], options);
+
+    return Solution.evaluate(space, options);
+  }
+
+  private static Solution unchanged(SearchSpace space) {
+    int[] options = new int[space.itemCount()];
+    Arrays.fill(options, -1);
+    return new Solution(options, space.baselineEP());
+  }
+
+  /**
+   * Returns the number of half plans of the last solve, and of their groups.
+   */
+  public long plans() {
+    return _plans;
+  }
+
+  public int groups() {
+    return _groups;
+  }
+
+  @Override public String toString() {
+    return String.format("Meet in the middle (%d half plans in %d groups)", _plans, _groups);
+  }
+
+  /**
+   * Splits the items into two halves with about equal numbers of plans: items with
+   * the most options first, each to the half with fewer plans so far.
+   */
+  private static int[][] split(final SearchSpace space) {
+    ArrayList<Integer> items = new ArrayList<Integer>(space.itemCount());
+    for (int i = 0; i < space.itemCount(); ++i) {
+      items.add(i);
+    }
+
+    Collections.sort(items, new Comparator<Integer>() {
+      @Override public int compare(Integer a, Integer b) {
+        return space.optionCount(b) - space.optionCount(a);
+      }
+    });
+
+    int[][]  halves = new int[2][space.itemCount()];
+    int[]    sizes  = new int[2];
+    double[] plans  = new double[2];
+
+    for (int item : items) {
+      final int HALF = (plans[0] <= plans[1]) ? 0 : 1;
+
+      halves[HALF][sizes[HALF]++] = item;
+      plans[HALF] += Math.log(space.optionCount(item) + 1);
+    }
+
+    // Each half in SearchSpace order.
+    for (int h = 0; h < 2; ++h) {
+      halves[h] = Arrays.copyOf(halves[h], sizes[h]);
+      Arrays.sort(halves[h]);
+    }
+    return halves;
+  }
+
+  /**
+   * Returns the number of plans of the items in half, saturating at Long.MAX_VALUE.
+   */
+  private static long plans(SearchSpace space, int[] half) {
+    long result = 1;
+    for (int item : half) {
+      final int CHOICES = space.optionCount(item) + 1;
+      if (result > Long.MAX_VALUE / CHOICES) {
+        return Long.MAX_VALUE;
+      }
+      result *= CHOICES;
+    }
+    return result;
+  }
+
+  /**
+   * Enumerates every plan of the items in half, keeping per capped delta the plan
+   * of most linear EP; on ties the first enumerated.
+   */
+  private Groups enumerate(int[] half) {
+    final int ITEMS = half.length;
+
+    // Per item and choice (0 for "no reforge"): packed delta and linear EP.
+    long[][] low    = new long[ITEMS][];
+    long[][] high   = new long[ITEMS][];
+    long[][] linear = new long[ITEMS][];
+
+    for (int k = 0; k < ITEMS; ++k) {
+      final int ITEM    = half[k];
+      final int CHOICES = _space.optionCount(ITEM) + 1;
+
+      low[k]    = new long[CHOICES];
+      high[k]   = new long[CHOICES];
+      linear[k] = new long[CHOICES];
+
+      for (int j = 0; j < CHOICES - 1; ++j) {
+        final int DEC = _space.decreased(ITEM, j);
+        final int INC = _space.increased(ITEM, j);
+        final int VAL = _space.value(ITEM, j);
+
+        PackedStats delta = PackedStats.of(INC, VAL).subtract(PackedStats.of(DEC, VAL));
+        low[k][j + 1]  = delta.low();
+        high[k][j + 1] = delta.high();
+
+        linear[k][j + 1] = (isCapped(INC) ? 0 : VAL * _slopes[INC]) - (isCapped(DEC) ? 0 : VAL * _slopes[DEC]);
+      }
+    }
+
+    Groups result = new Groups((int) Math.min(plans(_space, half), 1 << 16));
+
+    // Odometer over the choices, the last item fastest; the code of a plan is its
+    // count in this order.
+    int[]  choice    = new int[ITEMS];
+    long[] lowSum    = new long[ITEMS + 1];
+    long[] highSum   = new long[ITEMS + 1];
+    long[] linearSum = new long[ITEMS + 1];
+    long   code      = 0;
+    int    k         = 0;
+
+    while (true) {
+      // Descend to the last item, each taking its current choice.
+      for (; k < ITEMS; ++k) {
+        lowSum[k + 1]    = PackedStats.addLanes(lowSum[k], low[k][choice[k]]);
+        highSum[k + 1]   = PackedStats.addLanes(highSum[k], high[k][choice[k]]);
+        linearSum[k + 1] = linearSum[k] + linear[k][choice[k]];
+      }
+
+      result.add(key(lowSum[ITEMS], highSum[ITEMS]), linearSum[ITEMS], code++);
+
+      // Advance the odometer.
+      k = ITEMS - 1;
+      while (k >= 0 && ++choice[k] == low[k].length) {
+        choice[k--] = 0;
+      }
+      if (k < 0) {
+        return result;
+      }
+    }
+  }
+
+  private boolean isCapped(int stat) {
+    return _breakpoints[stat].length > 0;
+  }
+
+  /**
+   * Returns the group key of a packed delta: its capped lanes, biased to be
+   * non-negative, the first capped stat most significant; so keys order as the
+   * deltas do, by the first capped stat, then the second, and so on.
+   */
+  private long key(long low, long high) {
+    long result = 0;
+    for (int s : _capped) {
+      final long WORD  = (s < PackedStats.LANES / 2) ? low : high;
+      final int  SHIFT = PackedStats.LANE_BITS * (s % (PackedStats.LANES / 2));
+
+      result = (result << PackedStats.LANE_BITS) | (((short) (WORD >>> SHIFT) + KEY_BIAS) & KEY_MASK);
+    }
+    return result;
+  }
+
+  /**
+   * Returns the capped delta at index c of _capped from a group key.
+   */
+  private int delta(long key, int c) {
+    final int SHIFT = PackedStats.LANE_BITS * (_capped.length - 1 - c);
+    return (int) ((key >>> SHIFT) & KEY_MASK) - KEY_BIAS;
+  }
+
+  /**
+   * Finds the best pair of groups whose plan beats best[0], and returns their
+   * indices, or null; best[0] is raised to its EP.  Both halves must be sorted.
+   */
+  private int[] combine(Groups first, Groups second, long[] best) {
+    final int CAPPED = _capped.length;
+
+    // EP of the linear stats at the base stats.
+    long baseEP = 0;
+    for (int s = 0; s < Stat.TYPE_COUNT; ++s) {
+      if (!isCapped(s)) {
+        baseEP += _model.statEP(s, _stats[s]);
+      }
+    }
+
+    if (CAPPED == 0) {
+      // Every plan of a half has the same, empty, key.
+      final long EP = baseEP + first.linear(0) + second.linear(0);
+      if (EP <= best[0]) {
+        return null;
+      }
+      best[0] = EP;
+      return new int[] { 0, 0 };
+    }
+
+    // The last capped stat is queried by range; the others fix the buckets.
+    final int   LAST     = _capped[CAPPED - 1];
+    final int[] POINTS   = _breakpoints[LAST];
+    final int   SEGMENTS = POINTS.length + 1;
+
+    // Per segment of the last capped stat, the line of its EP: offset + slope * x.
+    long[] slope  = new long[SEGMENTS];
+    long[] offset = new long[SEGMENTS];
+    for (int k = 0; k < SEGMENTS; ++k) {
+      final int X = (k < POINTS.length) ? POINTS[k] : POINTS[k - 1] + 1;
+
+      slope[k]  = _model.marginalEPMax(LAST, X, X);
+      offset[k] = _model.statEP(LAST, X) - slope[k] * X;
+    }
+
+    // NOTE: The EP of a concave stat (as of any cap) lies below the line of every
+    //       segment, so its segments' lines also bound pairs of plans: see lines().
+    boolean concave = true;
+    for (int k = 1; k < SEGMENTS; ++k) {
+      concave &= slope[k] <= slope[k - 1];
+    }
+
+    final Buckets A = new Buckets(first);
+    final Buckets B = new Buckets(second);
+
+    // Per segment, the range maxima over the second half of the groups' linear EP
+    // plus the segment's EP of their last capped delta.
+    long[][]  score = new long[SEGMENTS][second.size()];
+    int[][][] index = new int[SEGMENTS][][];
+    for (int k = 0; k < SEGMENTS; ++k) {
+      for (int g = 0; g < second.size(); ++g) {
+        score[k][g] = second.linear(g) + slope[k] * B._last[g];
+      }
+      index[k] = rangeMaxima(score[k]);
+    }
+
+    // [k][bucket]: the same maxima per bucket, for both halves.
+    long[][] firstLines  = A.lines(first, slope);
+    long[][] secondLines = B.lines(second, slope);
+
+    // [k]: the line of segment k at the base stats, and the largest per-bucket
+    // maximum of the second half.
+    long[] baseLine   = new long[SEGMENTS];
+    long[] secondBest = new long[SEGMENTS];
+    for (int k = 0; k < SEGMENTS; ++k) {
+      baseLine[k]   = offset[k] + slope[k] * _stats[LAST];
+      secondBest[k] = Long.MIN_VALUE;
+      for (int b = 0; b < B._count; ++b) {
+        secondBest[k] = Math.max(secondBest[k], secondLines[k][b]);
+      }
+    }
+
+    // Buckets of the first half, best bound first, against the whole second half.
+    int[] stats = new int[CAPPED];
+
+    final long[] bound = new long[A._count];
+    ArrayList<Integer> order = new ArrayList<Integer>(A._count);
+    for (int a = 0; a < A._count; ++a) {
+      long leadingBound = 0;
+      for (int c = 0; c < CAPPED - 1; ++c) {
+        final int STAT = _stats[_capped[c]] + A._leading[a][c];
+        leadingBound += maxEP(_capped[c], STAT + B._allLow[c], STAT + B._allHigh[c]);
+      }
+
+      long lastBound = A._linear[a] + B._allLinear + maxEP(LAST, _stats[LAST] + A._low[a] + B._allLow[CAPPED - 1],
+                                                                 _stats[LAST] + A._high[a] + B._allHigh[CAPPED - 1]);
+      if (concave) {
+        lastBound = Math.min(lastBound, lineBound(baseLine, firstLines, a, secondBest));
+      }
+
+      bound[a] = baseEP + leadingBound + lastBound;
+      order.add(a);
+    }
+
+    Collections.sort(order, new Comparator<Integer>() {
+      @Override public int compare(Integer a, Integer b) {
+        return Long.compare(bound[b], bound[a]);
+      }
+    });
+
+    int[] result = null;
+
+    for (int a : order) {
+      if (bound[a] <= best[0] || _cancelled) {
+        break;
+      }
+
+      for (int b = 0; b < B._count; ++b) {
+        // EP of the leading capped stats, the same for every pair of the buckets.
+        long pairEP = baseEP;
+        for (int c = 0; c < CAPPED - 1; ++c) {
+          pairEP += _model.statEP(_capped[c], _stats[_capped[c]] + A._leading[a][c] + B._leading[b][c]);
+        }
+
+        long pairBound = A._linear[a] + B._linear[b]
+                + maxEP(LAST, _stats[LAST] + A._low[a] + B._low[b], _stats[LAST] + A._high[a] + B._high[b]);
+        if (concave) {
+          pairBound = Math.min(pairBound, lineBound(baseLine, firstLines, a, secondLines, b));
+        }
+
+        if (pairEP + pairBound <= best[0]) {
+          continue;
+        }
+
+        final int START = B._start[b];
+        final int END   = B._start[b + 1];
+
+        for (int g = A._start[a]; g < A._start[a + 1]; ++g) {
+          final long FIRST_EP  = pairEP + first.linear(g);
+          final int  LAST_STAT = _stats[LAST] + A._last[g];
+
+          long groupBound = B._linear[b] + maxEP(LAST, LAST_STAT + B._low[b], LAST_STAT + B._high[b]);
+          if (concave) {
+            for (int k = 0; k < SEGMENTS; ++k) {
+              groupBound = Math.min(groupBound,
+                      offset[k] + slope[k] * LAST_STAT + secondLines[k][b]);
+            }
+          }
+
+          if (FIRST_EP + groupBound <= best[0]) {
+            continue;
+          }
+
+          // The groups putting the last capped stat in segment k are a range of
+          // the bucket, over which its EP is linear.
+          for (int k = 0, from = START; k < SEGMENTS && from < END; ++k) {
+            final int TO = (k == POINTS.length) ? END : upper(B._last, from, END, POINTS[k] - LAST_STAT);
+
+            if (from < TO) {
+              final int  H  = rangeMax(score[k], index[k], from, TO);
+              final long EP = FIRST_EP + offset[k] + slope[k] * LAST_STAT + score[k][H];
+
+              if (EP > best[0]) {
+                best[0] = EP;
+                result  = new int[] { g, H };
+              }
+            }
+
+            from = TO;
+          }
+        }
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Returns the least, over the segments k of a concave last capped stat, of its
+   * line at the base stats plus the firsts' and seconds' maxima of linear EP plus
+   * line slope times last delta: a bound on the linear and last capped EP of any
+   * pair of plans.
+   */
+  private static long lineBound(long[] baseLine, long[][] firsts, int first, long[] seconds) {
+    long result = Long.MAX_VALUE;
+    for (int k = 0; k < baseLine.length; ++k) {
+      result = Math.min(result, baseLine[k] + firsts[k][first] + seconds[k]);
+    }
+    return result;
+  }
+
+  private static long lineBound(long[] baseLine, long[][] firsts, int first, long[][] seconds, int second) {
+    long result = Long.MAX_VALUE;
+    for (int k = 0; k < baseLine.length; ++k) {
+      result = Math.min(result, baseLine[k] + firsts[k][first] + seconds[k][second]);
+    }
+    return result;
+  }
+
+  /**
+   * Returns the first index in [from, to) whose value exceeds limit, or to.
+   * values must ascend over the range.
+   */
+  private static int upper(int[] values, int from, int to, int limit) {
+    int low  = from,
+        high = to;
+
+    while (low < high) {
+      final int MID = (low + high) >>> 1;
+
+      if (values[MID] <= limit) {
+        low = MID + 1;
+      } else {
+        high = MID;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Builds a sparse table of values: level l holds, per start index i, the index
+   * of the largest value in [i, i + 2^l), the lowest on ties.
+   */
+  private static int[][] rangeMaxima(long[] values) {
+    final int LEVELS = 32 - Integer.numberOfLeadingZeros(Math.max(values.length, 1));
+
+    int[][] result = new int[LEVELS][];
+    result[0] = new int[values.length];
+    for (int i = 0; i < values.length; ++i) {
+      result[0][i] = i;
+    }
+
+    for (int l = 1; l < LEVELS; ++l) {
+      final int HALF = 1 << (l - 1);
+
+      result[l] = new int[values.length - (1 << l) + 1];
+      for (int i = 0; i < result[l].length; ++i) {
+        final int LEFT  = result[l - 1][i];
+        final int RIGHT = result[l - 1][i + HALF];
+
+        result[l][i] = (values[RIGHT] > values[LEFT]) ? RIGHT : LEFT;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the index of the largest value in [from, to), the lowest on ties.
+   */
+  private static int rangeMax(long[] values, int[][] maxima, int from, int to) {
+    final int LEVEL = 31 - Integer.numberOfLeadingZeros(to - from);
+    final int LEFT  = maxima[LEVEL][from];
+    final int RIGHT = maxima[LEVEL][to - (1 << LEVEL)];
+
+    return (values[RIGHT] > values[LEFT]) ? RIGHT : LEFT;
+  }
+
+  /**
+   * Returns the most EP stat has at any value in [low, high].
+   */
+  private long maxEP(int stat, int low, int high) {
+    // Piecewise linear, so the maximum lies on an end or a breakpoint.
+    long result = Math.max(_model.statEP(stat, low), _model.statEP(stat, high));
+    for (int point : _breakpoints[stat]) {
+      if (point > low && point < high) {
+        result = Math.max(result, _model.statEP(stat, point));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * The groups of one sorted half in buckets: runs with the same leading capped
+   * deltas, each sorted by the last capped delta.  Per bucket, the leading
+   * deltas, the range of the last and the most linear EP.
+   */
+  private final class Buckets {
+
+    private final int[]   _last;
+    private final int     _count;
+    private final int[]   _start;
+    private final int[][] _leading;
+    private final int[]   _low;
+    private final int[]   _high;
+    private final long[]  _linear;
+
+    // Over the whole half: the most linear EP and the range of every delta.
+    private final long  _allLinear;
+    private final int[] _allLow;
+    private final int[] _allHigh;
+
+    public Buckets(Groups groups) {
+      final int CAPPED = _capped.length;
+      final int GROUPS = groups.size();
+
+      _last = new int[GROUPS];
+      int[] start = new int[GROUPS + 1];
+      int   count = 0;
+
+      for (int g = 0; g < GROUPS; ++g) {
+        _last[g] = delta(groups.key(g), CAPPED - 1);
+
+        if (g == 0 || (groups.key(g) >>> PackedStats.LANE_BITS) != (groups.key(g - 1) >>> PackedStats.LANE_BITS)) {
+          start[count++] = g;
+        }
+      }
+      start[count] = GROUPS;
+
+      _count   = count;
+      _start   = Arrays.copyOf(start, count + 1);
+      _leading = new int[count][CAPPED - 1];
+      _low     = new int[count];
+      _high    = new int[count];
+      _linear  = new long[count];
+      _allLow  = new int[CAPPED];
+      _allHigh = new int[CAPPED];
+
+      Arrays.fill(_allLow, Integer.MAX_VALUE);
+      Arrays.fill(_allHigh, Integer.MIN_VALUE);
+
+      long allLinear = Long.MIN_VALUE;
+
+      for (int b = 0; b < count; ++b) {
+        for (int c = 0; c < CAPPED - 1; ++c) {
+          _leading[b][c] = delta(groups.key(_start[b]), c);
+          _allLow[c]     = Math.min(_allLow[c], _leading[b][c]);
+          _allHigh[c]    = Math.max(_allHigh[c], _leading[b][c]);
+        }
+
+        _low[b]  = _last[_start[b]];
+        _high[b] = _last[_start[b + 1] - 1];
+
+        _allLow[CAPPED - 1]  = Math.min(_allLow[CAPPED - 1], _low[b]);
+        _allHigh[CAPPED - 1] = Math.max(_allHigh[CAPPED - 1], _high[b]);
+
+        _linear[b] = Long.MIN_VALUE;
+        for (int g = _start[b]; g < _start[b + 1]; ++g) {
+          _linear[b] = Math.max(_linear[b], groups.linear(g));
+        }
+        allLinear = Math.max(allLinear, _linear[b]);
+      }
+
+      _allLinear = allLinear;
+    }
+
+    /**
+     * Returns, per slope k and bucket, the most linear EP plus slope[k] times last
+     * capped delta of its groups.
+     */
+    public long[][] lines(Groups groups, long[] slope) {
+      long[][] result = new long[slope.length][_count];
+
+      for (int k = 0; k < slope.length; ++k) {
+        for (int b = 0; b < _count; ++b) {
+          result[k][b] = Long.MIN_VALUE;
+          for (int g = _start[b]; g < _start[b + 1]; ++g) {
+            result[k][b] = Math.max(result[k][b], groups.linear(g) + slope[k] * _last[g]);
+          }
+        }
+      }
+      return result;
+    }
+  }
+
+  /**
+   * The groups of one half: per distinct key, the most linear EP and the code of
+   * the plan with it.  Keys are found through open addressing.
+   */
+  private final class Groups {
+
+    private long[] _keys;
+    private long[] _linear;
+    private long[] _codes;
+    private int    _size;
+
+    // Slot to group index plus one; zero for an empty slot.
+    private int[] _slots;
+
+    public Groups(int capacity) {
+      _keys   = new long[capacity];
+      _linear = new long[capacity];
+      _codes  = new long[capacity];
+      rehash();
+    }
+
+    public int size() {
+      return _size;
+    }
+
+    public long key(int group) {
+      return _keys[group];
+    }
+
+    public long linear(int group) {
+      return _linear[group];
+    }
+
+    public void add(long key, long linear, long code) {
+      final int SLOT = slot(key);
+
+      if (_slots[SLOT] != 0) {
+        final int GROUP = _slots[SLOT] - 1;
+
+        if (linear > _linear[GROUP]) {
+          _linear[GROUP] = linear;
+          _codes[GROUP]  = code;
+        }
+        return;
+      }
+
+      if (_size == _keys.length) {
+        grow();
+        add(key, linear, code);
+        return;
+      }
+
+      _keys[_size]   = key;
+      _linear[_size] = linear;
+      _codes[_size]  = code;
+      _slots[SLOT]   = ++_size;
+    }
+
+    /**
+     * Returns the slot holding key, or the empty slot where it belongs.
+     */
+    private int slot(long key) {
+      final int MASK = _slots.length - 1;
+
+      int result = PackedStats.hash(key, 0L) & MASK;
+      while (_slots[result] != 0 && _keys[_slots[result] - 1] != key) {
+        result = (result + 1) & MASK;
+      }
+      return result;
+    }
+
+    private int find(long key) {
+      return _slots[slot(key)] - 1;
+    }
+
+    private void grow() {
+      final int CAPACITY = 2 * _keys.length;
+
+      _keys   = Arrays.copyOf(_keys, CAPACITY);
+      _linear = Arrays.copyOf(_linear, CAPACITY);
+      _codes  = Arrays.copyOf(_codes, CAPACITY);
+      rehash();
+    }
+
+    private void rehash() {
+      _slots = new int[Integer.highestOneBit(_keys.length) << 2];
+      for (int g = 0; g < _size; ++g) {
+        _slots[slot(_keys[g])] = g + 1;
+      }
+    }
+
+    /**
+     * Sorts the groups by key.
+     */
+    public void sort() {
+      // Keys are unique, so each sorted key finds its group through the slots.
+      long[] keys   = Arrays.copyOf(_keys, _size);
+      long[] linear = new long[_size];
+      long[] codes  = new long[_size];
+      Arrays.sort(keys);
+
+      for (int g = 0; g < _size; ++g) {
+        final int GROUP = find(keys[g]);
+
+        linear[g] = _linear[GROUP];
+        codes[g]  = _codes[GROUP];
+      }
+
+      _keys   = keys;
+      _linear = linear;
+      _codes  = codes;
+      rehash();
+    }
+
+    /**
+     * Writes the choices of the plan of group into options, at the items of half.
+     */
+    public void decode(int group, int[] half, int[] options) {
+      long code = _codes[group];
+      for (int k = half.length - 1; k >= 0; --k) {
+        final int CHOICES = _space.optionCount(half[k]) + 1;
+
+        options[half[k]] = (int) (code % CHOICES) - 1;
+        code /= CHOICES;
+      }
+    }
+  }
+}
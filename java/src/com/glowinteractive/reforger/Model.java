@@ -41,7 +41,7 @@ package com.glowinteractive.reforger;
 import java.util.EnumMap;
 import java.util.EnumSet;
 
-public final class Model implements AbstractModel {
+public final class Model extends PiecewiseLinearModel {
 
   private static final int HIT_CAP = 601;
   private static final int EXP_CAP = 781;
@@ -57,33 +57,18 @@ public final class Model implements AbstractModel {
 
   private static final float MST_COEFFICIENT = 0.90f;
 
-  // EP values of hit & exp at their respective caps.
-  private static final float EP_HIT_CAP = HIT_CAP * HIT_COEFFICIENT_TO_CAP;
-  private static final float EP_EXP_CAP = EXP_CAP * EXP_COEFFICIENT_TO_CAP;
-
-  @Override public float calculateEP(int[] stats) {
-    float result = 0.0f;
-
-    int hit = stats[Stat.HIT.ordinal()];
-    if (hit > HIT_CAP) {
-      result += (hit - HIT_CAP) * HIT_COEFFICIENT_CAPPED;
-      result += EP_HIT_CAP;
-    } else {
-      result += hit * HIT_COEFFICIENT_TO_CAP;
-    }
-
-    result += stats[Stat.CRI.ordinal()] * CRI_COEFFICIENT;
-    result += stats[Stat.HST.ordinal()] * HST_COEFFICIENT;
+  public Model() {
+    super(curves());
+  }
 
-    int exp = stats[Stat.EXP.ordinal()];
-    if (exp > EXP_CAP) {
-      result += (exp - EXP_CAP) * EXP_COEFFICIENT_CAPPED;
-      result += EP_EXP_CAP;
-    } else {
-      result += exp * EXP_COEFFICIENT_TO_CAP;
-    }
+  private static EnumMap<Stat, StatCurve> curves() {
+    EnumMap<Stat, StatCurve> result = new EnumMap<Stat, StatCurve>(Stat.class);
 
-    result += stats[Stat.MST.ordinal()] * MST_COEFFICIENT;
+    result.put(Stat.HIT, StatCurve.capped(HIT_CAP, HIT_COEFFICIENT_TO_CAP, HIT_COEFFICIENT_CAPPED));
+    result.put(Stat.CRI, StatCurve.linear(CRI_COEFFICIENT));
+    result.put(Stat.HST, StatCurve.linear(HST_COEFFICIENT));
+    result.put(Stat.EXP, StatCurve.capped(EXP_CAP, EXP_COEFFICIENT_TO_CAP, EXP_COEFFICIENT_CAPPED));
+    result.put(Stat.MST, StatCurve.linear(MST_COEFFICIENT));
 
     return result;
   }
@@ -140,4 +125,8 @@ public final class Model implements AbstractModel {
     }
     return 0.0f;
   }
+
+  @Override public String toString() {
+    return "Model";
+  }
 }
@@ -0,0 +1,179 @@
+/**
+ * @author Luke Tyler Downey
+ * Copyright 2011 Glow Interactive
+ *
+ * This software contains original work and/or modifications to
+ * original work, which are redistributed under the following terms.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.glowinteractive.reforger;
+
+/**
+ * Stat vector packed into two longs, one signed 16-bit lane per stat: stats 0 to
+ * 3 in the low word, 4 to 7 in the high one.  Unused lanes are zero.
+ *
+ * Vectors are added and subtracted lane by lane within the words, without carries
+ * between lanes, and any lane leaving the 16-bit range raises an
+ * ArithmeticException.  Copying, comparing or hashing a vector costs a word
+ * operation per word rather than a loop over the stats.  Immutable.
+ */
+public final class PackedStats {
+
+  public static final int LANE_BITS = 16;
+
+  private static final int  WORD_LANES = Long.SIZE / LANE_BITS;
+  private static final long LANE_MASK  = (1L << LANE_BITS) - 1;
+
+  // Sign bit of every lane of a word.
+  private static final long SIGN_BITS = 0x8000800080008000L;
+
+  public static final int LANES = 2 * WORD_LANES;
+
+  public static final PackedStats ZERO = new PackedStats(0L, 0L);
+
+  static {
+    assert Stat.TYPE_COUNT <= LANES : "Error: too many stats to pack.";
+  }
+
+  private final long _low;
+  private final long _high;
+
+  private PackedStats(long low, long high) {
+    _low  = low;
+    _high = high;
+  }
+
+  public static PackedStats pack(int[] stats) {
+    assert stats.length == Stat.TYPE_COUNT : "Error: attempted to pack an invalid stat vector.";
+    return new PackedStats(low(stats), high(stats));
+  }
+
+  /**
+   * Returns the vector holding value for stat and zero elsewhere.
+   */
+  public static PackedStats of(int stat, int value) {
+    final long LANE = lane(value) << (LANE_BITS * (stat % WORD_LANES));
+    return (stat < WORD_LANES) ? new PackedStats(LANE, 0L) : new PackedStats(0L, LANE);
+  }
+
+  /**
+   * Returns the low and high words that pack would produce for stats, without
+   * allocating.
+   */
+  public static long low(int[] stats) {
+    return word(stats, 0);
+  }
+
+  public static long high(int[] stats) {
+    return word(stats, WORD_LANES);
+  }
+
+  private static long word(int[] stats, int first) {
+    final int END = Math.min(first + WORD_LANES, stats.length);
+
+    long result = 0L;
+    for (int s = first; s < END; ++s) {
+      result |= lane(stats[s]) << (LANE_BITS * (s - first));
+    }
+    return result;
+  }
+
+  private static long lane(int value) {
+    if ((short) value != value) {
+      throw new ArithmeticException("Error: stat value " + value + " does not fit a lane.");
+    }
+    return value & LANE_MASK;
+  }
+
+  /**
+   * Adds two words lane by lane: each lane's carry out of its top bit is dropped
+   * rather than passed on, and a lane whose signed sum overflows is reported.
+   */
+  public static long addLanes(long a, long b) {
+    long result = ((a & ~SIGN_BITS) + (b & ~SIGN_BITS)) ^ ((a ^ b) & SIGN_BITS);
+
+    // Overflow where both operands have the same sign and the result has not.
+    if (((a ^ result) & (b ^ result) & SIGN_BITS) != 0L) {
+      throw new ArithmeticException("Error: stat lane overflow.");
+    }
+    return result;
+  }
+
+  public static long subtractLanes(long a, long b) {
+    long result = ((a | SIGN_BITS) - (b & ~SIGN_BITS)) ^ ((a ^ ~b) & SIGN_BITS);
+
+    // Overflow where the operands differ in sign and the result's differs from a's.
+    if (((a ^ b) & (a ^ result) & SIGN_BITS) != 0L) {
+      throw new ArithmeticException("Error: stat lane overflow.");
+    }
+    return result;
+  }
+
+  public PackedStats add(PackedStats other) {
+    return new PackedStats(addLanes(_low, other._low), addLanes(_high, other._high));
+  }
+
+  public PackedStats subtract(PackedStats other) {
+    return new PackedStats(subtractLanes(_low, other._low), subtractLanes(_high, other._high));
+  }
+
+  public int value(int stat) {
+    final long WORD = (stat < WORD_LANES) ? _low : _high;
+    return (short) (WORD >>> (LANE_BITS * (stat % WORD_LANES)));
+  }
+
+  public int[] unpack() {
+    int[] result = new int[Stat.TYPE_COUNT];
+    unpack(result);
+    return result;
+  }
+
+  public void unpack(int[] result) {
+    for (int s = 0; s < Stat.TYPE_COUNT; ++s) {
+      result[s] = value(s);
+    }
+  }
+
+  public long low() {
+    return _low;
+  }
+
+  public long high() {
+    return _high;
+  }
+
+  @Override public boolean equals(Object other) {
+    if (other instanceof PackedStats) {
+      PackedStats o = (PackedStats) other;
+      return _low == o._low && _high == o._high;
+    }
+    return false;
+  }
+
+  @Override public int hashCode() {
+    return hash(_low, _high);
+  }
+
+  /**
+   * Mixes the two words of a vector into 32 well-distributed bits.
+   */
+  public static int hash(long low, long high) {
+    long h = (low * 0x9E3779B97F4A7C15L) ^ high;
+    h *= 0xC2B2AE3D27D4EB4FL;
+    return (int) (h ^ (h >>> 29));
+  }
+}
@@ -0,0 +1,293 @@
+/**
+ * @author Luke Tyler Downey
+ * Copyright 2011 Glow Interactive
+ *
+ * This software contains original work and/or modifications to
+ * original work, which are redistributed under the following terms.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.glowinteractive.reforger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Exact search for the plans that are Pareto optimal under two models, e.g.
+ * single-target and AoE weights, in one pass over the item tree.  Not reentrant.
+ *
+ * A plan is Pareto optimal if no other plan has at least its EP under both models
+ * and more under one.  The search keeps an archive of the plans found so far that
+ * no other found plan dominates; ordered by EP under the first model, their EP
+ * under the second falls, so whether a point is dominated is one lookup.
+ *
+ * Each node is bounded as in BranchAndBoundSolver, by the slope bound and, if
+ * there are few enough caps, the RelaxationBound: under each model, and under
+ * blends of the two with weights 1:3, 1:1 and 3:1.  A blend's bound is tighter
+ * than the blend of the models' bounds when the models prefer different options
+ * of an item.  A subtree is pruned when every plan within the models' bounds
+ * that the archive does not dominate exceeds a blend's bound, as then every plan
+ * in it is dominated by or equal to an archived plan.  Plans of equal EP under
+ * both models are reported once.  The archive starts from both models' warm
+ * starts.
+ *
+ * Every option of the space is open under both models.  Items and options are
+ * searched in the SearchOrder of both models, by their EP change summed over the
+ * two; the search runs on one thread, as the archive is probed at every node.
+ * Work is in the models' fixed point.
+ */
+public final class ParetoSolver {
+
+  // Blend w weighs the first model by w and the second by BLEND_WEIGHT - w, for w
+  // in [0, BLEND_WEIGHT]; the ends are the models themselves, scaled.
+  private static final int BLEND_WEIGHT = 4;
+
+  private FixedPointModel[] _models;
+  private FixedPointModel[] _blends;
+  private int               _itemCount;
+
+  // Options in search order; those of depth k are [_optionStart[k], _optionStart[k + 1]).
+  private int[] _optionStart;
+  private int[] _optionDec;
+  private int[] _optionInc;
+  private int[] _optionVal;
+
+  private SearchOrder _order;
+
+  // Per blend: the relaxation bound, or null.
+  private RelaxationBound[] _relaxations;
+
+  // Archive: EP under the first model -> plan (search order) and EP under the second.
+  private TreeMap<Long, Point> _archive;
+
+  private int[] _options;
+  private long  _nodes;
+
+  // Scratch bounds of dominated(), per blend between the models.
+  private final long[] _slope   = new long[BLEND_WEIGHT];
+  private final long[] _relaxed = new long[BLEND_WEIGHT];
+
+  /**
+   * Returns the Pareto optimal plans of the space under the two models, by
+   * falling EP under the first.  Each entry holds the plan evaluated with the
+   * first model, then with the second.
+   */
+  public List<Solution[]> solve(SearchSpace space, AbstractModel first, AbstractModel second) {
+    final int ITEM_COUNT = space.itemCount();
+
+    _models    = new FixedPointModel[] { FixedPointModel.create(first), FixedPointModel.create(second) };
+    _itemCount = ITEM_COUNT;
+    _archive   = new TreeMap<Long, Point>();
+    _nodes     = 0;
+
+    _order       = new SearchOrder(space, _models, true);
+    _optionStart = _order.optionStart();
+    _optionDec   = _order.optionDec();
+    _optionInc   = _order.optionInc();
+    _optionVal   = _order.optionVal();
+
+    _blends      = new FixedPointModel[BLEND_WEIGHT + 1];
+    _relaxations = new RelaxationBound[BLEND_WEIGHT + 1];
+    for (int w = 0; w <= BLEND_WEIGHT; ++w) {
+      _blends[w]      = FixedPointModel.blend(_models[0], w, _models[1], BLEND_WEIGHT - w);
+      _relaxations[w] = RelaxationBound.create(_blends[w], _optionStart, _optionDec, _optionInc, _optionVal,
+                                               _order.remainingDec(), _order.remainingInc());
+    }
+
+    // Seed the archive with both warm starts.
+    for (FixedPointModel model : _models) {
+      int[] plan  = GreedySolver.warmStart(space, model, null);
+      int[] stats = space.apply(plan);
+      offer(_models[0].calculateEP(stats), _models[1].calculateEP(stats), _order.toSearchOrder(plan));
+    }
+
+    _options = new int[ITEM_COUNT];
+    Arrays.fill(_options, -1);
+
+    int[] stats = space.stats();
+    if (ITEM_COUNT == 0) {
+      offer(_models[0].calculateEP(stats), _models[1].calculateEP(stats), _options);
+    } else {
+      search(0, stats, _models[0].calculateEP(stats), _models[1].calculateEP(stats));
+    }
+
+    SearchSpace firstSpace  = space.withModel(first);
+    SearchSpace secondSpace = space.withModel(second);
+
+    List<Solution[]> result = new ArrayList<Solution[]>(_archive.size());
+    for (Point point : _archive.descendingMap().values()) {
+      int[] plan = _order.toSpaceOrder(point._options);
+      result.add(new Solution[] { Solution.evaluate(firstSpace, plan), Solution.evaluate(secondSpace, plan) });
+    }
+    return result;
+  }
+
+  /**
+   * Returns the number of search nodes of the last solve.
+   */
+  public long nodes() {
+    return _nodes;
+  }
+
+  @Override public String toString() {
+    return String.format("Pareto search (%d nodes, %d plans)", _nodes, (_archive == null) ? 0 : _archive.size());
+  }
+
+  /**
+   * Tries every option of the item at depth, then "no reforge", on stats (updated
+   * in place and restored) of the given EP under each model.
+   */
+  private void search(int depth, int[] stats, long firstEP, long secondEP) {
+    final int LAST = _itemCount - 1;
+    final int END  = _optionStart[depth + 1];
+
+    for (int j = _optionStart[depth]; j <= END; ++j) {
+      long first  = firstEP,
+           second = secondEP;
+
+      if (j < END) {
+        first  += _models[0].calculateEPDelta(stats, _optionDec[j], _optionInc[j], _optionVal[j]);
+        second += _models[1].calculateEPDelta(stats, _optionDec[j], _optionInc[j], _optionVal[j]);
+
+        stats[_optionDec[j]] -= _optionVal[j];
+        stats[_optionInc[j]] += _optionVal[j];
+      }
+      ++_nodes;
+
+      _options[depth] = (j < END) ? j - _optionStart[depth] : -1;
+
+      if (depth == LAST) {
+        offer(first, second, _options);
+      } else if (!dominated(first, second, depth, stats)) {
+        search(depth + 1, stats, first, second);
+      }
+
+      if (j < END) {
+        stats[_optionDec[j]] += _optionVal[j];
+        stats[_optionInc[j]] -= _optionVal[j];
+      }
+    }
+  }
+
+  /**
+   * Returns whether every plan below a node, of the given EP under each model
+   * after the item at depth, is dominated by or equal to an archived plan.
+   *
+   * The plans the archive does not dominate lie in cells: between archived
+   * plans p and q, adjacent by first EP, those of more first EP than p and more
+   * second EP than q.  Each cell the node's bounds under the two models reach
+   * must also be cut off by the bound of a blend, or the node is searched.
+   */
+  private boolean dominated(long first, long second, int depth, int[] stats) {
+    final long FIRST  = first + bound(BLEND_WEIGHT, depth, stats) / BLEND_WEIGHT;
+    final long SECOND = second + bound(0, depth, stats) / BLEND_WEIGHT;
+
+    // Bounds of the blends between, computed when first needed: the slope bound,
+    // then the relaxation bound if the slope bound does not cut.
+    final long[] SLOPE   = _slope;
+    final long[] RELAXED = _relaxed;
+    Arrays.fill(SLOPE, Long.MAX_VALUE);
+    Arrays.fill(RELAXED, Long.MAX_VALUE);
+
+    Map.Entry<Long, Point> next     = _archive.ceilingEntry(FIRST);
+    Map.Entry<Long, Point> previous = _archive.lowerEntry(FIRST);
+
+    while (next == null || next.getValue()._secondEP < SECOND) {
+      if (next == null || previous == null) {
+        return false;
+      }
+
+      final long X = previous.getKey();
+      final long Y = next.getValue()._secondEP;
+
+      boolean cut = false;
+      for (int w = 1; w < BLEND_WEIGHT && !cut; ++w) {
+        final long CORNER = w * (X - first) + (BLEND_WEIGHT - w) * (Y - second);
+
+        if (SLOPE[w] == Long.MAX_VALUE) {
+          SLOPE[w] = _order.slopeBound(_blends[w], depth, stats);
+        }
+        if (CORNER < SLOPE[w] && RELAXED[w] == Long.MAX_VALUE && _relaxations[w] != null) {
+          RELAXED[w] = _relaxations[w].bound(depth, stats);
+        }
+        cut = CORNER >= Math.min(SLOPE[w], RELAXED[w]);
+      }
+      if (!cut) {
+        return false;
+      }
+
+      next     = previous;
+      previous = _archive.lowerEntry(previous.getKey());
+    }
+    return true;
+  }
+
+  /**
+   * Returns an upper bound on the EP under blend w that the items below depth
+   * can still add to the given stats: the smaller of its slope bound and its
+   * relaxation bound.
+   */
+  private long bound(int w, int depth, int[] stats) {
+    long result = _order.slopeBound(_blends[w], depth, stats);
+    if (_relaxations[w] != null) {
+      result = Math.min(result, _relaxations[w].bound(depth, stats));
+    }
+    return result;
+  }
+
+  /**
+   * Returns whether an archived plan has at least first and second EP.
+   */
+  private boolean dominated(long first, long second) {
+    Map.Entry<Long, Point> entry = _archive.ceilingEntry(first);
+    return entry != null && entry.getValue()._secondEP >= second;
+  }
+
+  /**
+   * Archives the plan unless an archived plan dominates or equals it, dropping
+   * the archived plans it dominates.
+   */
+  private void offer(long first, long second, int[] options) {
+    if (dominated(first, second)) {
+      return;
+    }
+
+    // Archived plans of at most first EP have ever more second EP towards lower
+    // first EP, so those the plan dominates are the nearest below it.
+    Map.Entry<Long, Point> entry = _archive.floorEntry(first);
+    while (entry != null && entry.getValue()._secondEP <= second) {
+      _archive.remove(entry.getKey());
+      entry = _archive.lowerEntry(entry.getKey());
+    }
+
+    _archive.put(first, new Point(second, options.clone()));
+  }
+
+  private static final class Point {
+
+    private final long  _secondEP;
+    private final int[] _options;
+
+    public Point(long secondEP, int[] options) {
+      _secondEP = secondEP;
+      _options  = options;
+    }
+  }
+}
@@ -0,0 +1,103 @@
+/**
+ * @author Luke Tyler Downey
+ * Copyright 2011 Glow Interactive
+ *
+ * This software contains original work and/or modifications to
+ * original work, which are redistributed under the following terms.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.glowinteractive.reforger;
+
+import java.util.EnumMap;
+import java.util.EnumSet;
+
+/**
+ * Model whose EP is a sum of one StatCurve per stat.  Implements the valuation
+ * half of AbstractModel from the curves; subclasses supply the curves and the
+ * candidate mappings.  Stats without a curve are worth nothing.
+ */
+public abstract class PiecewiseLinearModel implements AbstractModel {
+
+  private static final Stat[] STATS = Stat.values();
+
+  private final StatCurve[]   _curves;
+  private final EnumSet<Stat> _linearStats;
+
+  protected PiecewiseLinearModel(EnumMap<Stat, StatCurve> curves) {
+    _curves      = new StatCurve[Stat.TYPE_COUNT];
+    _linearStats = EnumSet.noneOf(Stat.class);
+
+    for (Stat s : STATS) {
+      StatCurve curve = curves.get(s);
+      _curves[s.ordinal()] = (curve != null) ? curve : StatCurve.linear(0.0f);
+
+      if (_curves[s.ordinal()].isLinear()) {
+        _linearStats.add(s);
+      }
+    }
+  }
+
+  public StatCurve curve(Stat stat) {
+    return _curves[stat.ordinal()];
+  }
+
+  @Override public float calculateEP(int[] stats) {
+    float result = 0.0f;
+    for (int s = 0; s < Stat.TYPE_COUNT; ++s) {
+      result += _curves[s].value(stats[s]);
+    }
+    return result;
+  }
+
+  @Override public float calculateEPDelta(int[] stats, int indexDec, int indexInc, int deltaValue) {
+    StatCurve dec = _curves[indexDec],
+              inc = _curves[indexInc];
+
+    return dec.value(stats[indexDec] - deltaValue) - dec.value(stats[indexDec])
+         + inc.value(stats[indexInc] + deltaValue) - inc.value(stats[indexInc]);
+  }
+
+  /**
+   * Moving amount out of a stat gains at most the steepest slope of any stat less
+   * the shallowest slope of the source.
+   */
+  @Override public float calculateEPDeltaMax(Stat from, int amount) {
+    float best = Float.NEGATIVE_INFINITY;
+    for (Stat s : STATS) {
+      if (s != from) {
+        best = Math.max(best, marginalEPMax(s, Integer.MIN_VALUE, Integer.MAX_VALUE));
+      }
+    }
+    return amount * Math.max(0.0f, best - marginalEPMin(from, Integer.MIN_VALUE, Integer.MAX_VALUE));
+  }
+
+  @Override public EnumSet<Stat> linearStats() {
+    return EnumSet.copyOf(_linearStats);
+  }
+
+  @Override public float marginalEPMax(Stat stat, int low, int high) {
+    return _curves[stat.ordinal()].marginalMax(low, high);
+  }
+
+  @Override public float marginalEPMin(Stat stat, int low, int high) {
+    return _curves[stat.ordinal()].marginalMin(low, high);
+  }
+
+  @Override public int[] breakpoints(Stat stat) {
+    return _curves[stat.ordinal()].breakpoints();
+  }
+}
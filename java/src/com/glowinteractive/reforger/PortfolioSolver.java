@@ -0,0 +1,373 @@
+/**
+ * @author Luke Tyler Downey
+ * Copyright 2011 Glow Interactive
+ *
+ * This software contains original work and/or modifications to
+ * original work, which are redistributed under the following terms.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.glowinteractive.reforger;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Front end over the other solvers that chooses by the estimated cost of a solve.
+ *
+ * The estimate counts the choices that matter: log2 of the options (and not
+ * reforging) of every item, weighted by how near the nearest cap the item's
+ * options can move is.  A cap below a stat by no more than about one option's
+ * worth counts fully; one further below counts less and less, as the optimum
+ * then sheds the surplus the way the slopes say and the bounds prune almost
+ * everything else.  Items touching only linear stats do not count at all.
+ *
+ * Spaces estimated at or below RACE_BITS are solved by branch and bound alone,
+ * which prunes them in a few thousand nodes; dynamic programming would still
+ * pay for every state its grid holds.  Harder spaces are raced: each accepting
+ * engine, up to one per thread, solves the space on its own thread, in the
+ * order branch and bound, dynamic programming, meet in the middle, heuristic;
+ * branch and bound searches on the threads the others leave, so the race uses
+ * no more threads in all.
+ *
+ * A result is proven optimal when branch and bound completes, or when its EP,
+ * rescored in the model's FixedPointModel, reaches the bound branch and bound
+ * has so far (for the heuristic, also its own bound); results waiting on the
+ * bound are checked again every POLL_MILLIS.  The first proven result is
+ * returned, the first engine in the order above if several are, and the other
+ * engines are cancelled; the solve returns once each has stopped at its next
+ * check, so a later solve never shares an engine with a loser still running.  If
+ * no result is proven, the best one is returned.  With one thread, branch and
+ * bound solves every space.
+ *
+ * Dynamic programming breaks ties as branch and bound does, so either returns
+ * the same plan.  Meet in the middle and the heuristic return a plan of the same
+ * EP, which on ties may be another.
+ */
+public final class PortfolioSolver implements AbstractSolver {
+
+  // NOTE: on synthetic sets, branch and bound solved every space of up to about
+  //       30 estimated bits in a few thousand nodes; the costly ones lay above.
+  public static final double RACE_BITS = 30.0;
+
+  // Interval at which results waiting on branch and bound's bound are checked.
+  private static final long POLL_MILLIS = 10;
+
+  private final int    _threads;
+  private final double _raceBits;
+
+  // Engines are separate instances, as each keeps the state of its last solve.
+  private final DynamicSolver         _dynamic   = new DynamicSolver();
+  private final BranchAndBoundSolver  _search    = new BranchAndBoundSolver();
+  private final MeetInTheMiddleSolver _middle    = new MeetInTheMiddleSolver();
+  private final HeuristicSolver       _heuristic = new HeuristicSolver();
+
+  private double         _estimate;
+  private int            _raced;
+  private AbstractSolver _winner;
+
+  // Set once a race is decided, so that engines not yet started are skipped.
+  private volatile boolean _decided;
+
+  // Engines inside a solve, on any thread.
+  private final AtomicInteger _running = new AtomicInteger();
+
+  public PortfolioSolver() {
+    this(Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Solves on at most threads threads, engines and branch and bound's own
+   * search threads together.
+   */
+  public PortfolioSolver(int threads) {
+    this(threads, RACE_BITS);
+  }
+
+  /**
+   * As PortfolioSolver(threads), racing the spaces estimated above raceBits.
+   */
+  public PortfolioSolver(int threads, double raceBits) {
+    assert threads > 0 : "Error: a portfolio needs at least one thread.";
+
+    _threads  = threads;
+    _raceBits = raceBits;
+  }
+
+  /**
+   * Passes each better plan branch and bound finds to the listener.
+   */
+  public void setListener(SolutionListener listener) {
+    _search.setListener(listener);
+  }
+
+  @Override public boolean accepts(SearchSpace space) {
+    return true;
+  }
+
+  @Override public Solution solve(SearchSpace space) {
+    // No engine is running: the last race waited for its losers to stop.
+    _search.reset();
+    _dynamic.reset();
+    _middle.reset();
+    _heuristic.reset();
+
+    _estimate = estimate(space);
+
+    if (_estimate <= _raceBits) {
+      _raced  = 1;
+      _winner = _search;
+      _search.setThreads(_threads);
+      return _winner.solve(space);
+    }
+
+    List<AbstractSolver> engines = new ArrayList<AbstractSolver>();
+    engines.add(_search);
+    if (engines.size() < _threads && _dynamic.accepts(space)) {
+      engines.add(_dynamic);
+    }
+    if (engines.size() < _threads && _middle.accepts(space)) {
+      engines.add(_middle);
+    }
+    if (engines.size() < _threads) {
+      engines.add(_heuristic);
+    }
+
+    _raced = engines.size();
+    _search.setThreads(_threads - _raced + 1);
+    if (_raced == 1) {
+      _winner = _search;
+      return _search.solve(space);
+    }
+    return race(space, engines);
+  }
+
+  /**
+   * Returns the estimated cost of solving the space, in bits: see the class
+   * comment.
+   */
+  public static double estimate(SearchSpace space) {
+    final AbstractModel MODEL = space.model();
+    final int ITEM_COUNT = space.itemCount();
+
+    int[] stats = space.stats();
+
+    // Distances are in units of the mean option value.
+    long total = 0;
+    int  count = 0;
+    for (int i = 0; i < ITEM_COUNT; ++i) {
+      for (int j = 0; j < space.optionCount(i); ++j) {
+        total += space.value(i, j);
+        ++count;
+      }
+    }
+    if (count == 0) {
+      return 0.0;
+    }
+    final double UNIT = Math.max(1.0, (double) total / count);
+
+    // Weight of each stat: 1 for a cap at most one unit below its value, halving
+    // over every further 2 ln 2 units; 0 for a linear stat.
+    EnumSet<Stat> linear = MODEL.linearStats();
+    double[] weight = new double[Stat.TYPE_COUNT];
+    for (Stat s : Stat.values()) {
+      if (linear.contains(s)) {
+        continue;
+      }
+      for (int p : MODEL.breakpoints(s)) {
+        final double DISTANCE = (p - stats[s.ordinal()]) / UNIT;
+
+        weight[s.ordinal()] = Math.max(weight[s.ordinal()], Math.exp(Math.min(0.0, DISTANCE + 1.0) / 2.0));
+      }
+    }
+
+    double result = 0.0;
+    for (int i = 0; i < ITEM_COUNT; ++i) {
+      double w = 0.0;
+      for (int j = 0; j < space.optionCount(i); ++j) {
+        w = Math.max(w, Math.max(weight[space.decreased(i, j)], weight[space.increased(i, j)]));
+      }
+      result += w * Math.log(space.optionCount(i) + 1) / Math.log(2.0);
+    }
+    return result;
+  }
+
+  /**
+   * Returns the estimate of the last solve.
+   */
+  public double lastEstimate() {
+    return _estimate;
+  }
+
+  /**
+   * Returns the engine whose result the last solve returned.
+   */
+  public AbstractSolver winner() {
+    return _winner;
+  }
+
+  @Override public String toString() {
+    if (_winner == null) {
+      return "Portfolio";
+    }
+    return String.format("Portfolio, %.1f bits, %s of %d: %s",
+            _estimate, (_raced > 1) ? "raced, won" : "chose", _raced, _winner);
+  }
+
+  /**
+   * Returns the number of engines inside a solve, on any thread: 0 whenever no
+   * solve of the portfolio is running.
+   */
+  int running() {
+    return _running.get();
+  }
+
+  private Solution race(final SearchSpace space, final List<AbstractSolver> engines) {
+    _decided = false;
+
+    final FixedPointModel MODEL = FixedPointModel.create(space.model());
+
+    ExecutorService executor = Executors.newFixedThreadPool(engines.size(), new ThreadFactory() {
+      @Override public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, PortfolioSolver.class.getSimpleName());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    CompletionService<Result> completion = new ExecutorCompletionService<Result>(executor);
+
+    for (final AbstractSolver ENGINE : engines) {
+      completion.submit(new Callable<Result>() {
+        @Override public Result call() {
+          if (_decided) {
+            return null;
+          }
+
+          _running.incrementAndGet();
+          try {
+            Solution solution = ENGINE.solve(space);
+            return new Result(ENGINE, solution, MODEL.calculateEP(space.apply(solution.options())));
+          } finally {
+            _running.decrementAndGet();
+          }
+        }
+      });
+    }
+
+    // Results so far, in engine order.
+    Result[] results = new Result[engines.size()];
+    Result   best    = null;
+    try {
+      for (int done = 0; done < results.length && best == null; ) {
+        Future<Result> future = completion.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+        if (future != null) {
+          Result result = future.get();
+          results[engines.indexOf(result.engine())] = result;
+          ++done;
+        }
+
+        for (Result result : results) {
+          if (best == null && result != null && proven(result)) {
+            best = result;
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      Debug.fatalError(PortfolioSolver.class.getSimpleName(), e);
+    } catch (ExecutionException e) {
+      Debug.fatalError(PortfolioSolver.class.getSimpleName(), e.getCause());
+    } finally {
+      _decided = true;
+      _search.cancel();
+      _dynamic.cancel();
+      _middle.cancel();
+      _heuristic.cancel();
+      executor.shutdownNow();
+      await(executor);
+    }
+
+    if (best == null) {
+      for (Result result : results) {
+        if (best == null || result.fixedEP() > best.fixedEP()) {
+          best = result;
+        }
+      }
+    }
+
+    _winner = best.engine();
+    return best.solution();
+  }
+
+  private static void await(ExecutorService executor) {
+    try {
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    } catch (InterruptedException e) {
+      Debug.fatalError(PortfolioSolver.class.getSimpleName(), e);
+    }
+  }
+
+  /**
+   * Returns whether the result is proven optimal: see the class comment.
+   */
+  private boolean proven(Result result) {
+    if (result.engine() == _search) {
+      return _search.complete() && _search.gap() == 0.0f;
+    }
+    if (result.engine() == _heuristic && _heuristic.gap() == 0.0f) {
+      return true;
+    }
+    return result.fixedEP() >= _search.upperBound();
+  }
+
+  private static final class Result {
+
+    private final AbstractSolver _engine;
+    private final Solution       _solution;
+    private final long           _fixedEP;
+
+    public Result(AbstractSolver engine, Solution solution, long fixedEP) {
+      _engine   = engine;
+      _solution = solution;
+      _fixedEP  = fixedEP;
+    }
+
+    public AbstractSolver engine() {
+      return _engine;
+    }
+
+    public Solution solution() {
+      return _solution;
+    }
+
+    /**
+     * Returns the EP of the plan in the model's FixedPointModel.
+     */
+    public long fixedEP() {
+      return _fixedEP;
+    }
+  }
+}
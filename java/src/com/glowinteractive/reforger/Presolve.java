@@ -0,0 +1,363 @@
+/**
+ * @author Luke Tyler Downey
+ * Copyright 2011 Glow Interactive
+ *
+ * This software contains original work and/or modifications to
+ * original work, which are redistributed under the following terms.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.glowinteractive.reforger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+
+/**
+ * Shrinks a SearchSpace before it is searched, and maps plans for the reduced
+ * space back to the original.
+ *
+ * Reductions are proved on the model's FixedPointModel from the range each stat
+ * can still reach, [stats - every decrease, stats + every increase], and the
+ * model's extreme slopes over it:
+ *
+ *  - An option whose largest possible EP gain is no more than the smallest gain
+ *    of another option of its item, or than zero for "no reforge", is dominated:
+ *    whatever the other items do, it is never better.  It is removed.
+ *  - An item left with one option that never loses EP is fixed to it, and an
+ *    item left with none is fixed to "no reforge".  Either leaves the search.
+ *
+ * Fixing moves the stats and removing options narrows the ranges, so both run
+ * until nothing changes.  The items that remain are then ordered so that items
+ * with the same options are adjacent, each with its options in the same order;
+ * SearchSpace marks such items symmetric, and solvers that honour the mark search
+ * only one permutation of each group.
+ *
+ * Dominance admits ties, so the reduced space keeps the optimal EP but may lead
+ * to a different plan of equal EP.
+ */
+public final class Presolve {
+
+  // _fixed value of an item that is left to the search.
+  private static final int FREE = -2;
+
+  private final SearchSpace _original;
+  private final SearchSpace _reduced;
+
+  // Per original item: the option the presolve fixed it to (-1 for none), or FREE.
+  private final int[] _fixed;
+
+  // Reduced item -> original item, and reduced option -> original option.
+  private final int[]   _itemMap;
+  private final int[][] _optionMap;
+
+  private int _dominated;
+  private int _groups;
+  private int _grouped;
+
+  public Presolve(SearchSpace space) {
+    final FixedPointModel MODEL      = FixedPointModel.create(space.model());
+    final int             ITEM_COUNT = space.itemCount();
+
+    _original = space;
+    _fixed    = new int[ITEM_COUNT];
+    Arrays.fill(_fixed, FREE);
+
+    int[]       stats = space.stats();
+    boolean[][] live  = new boolean[ITEM_COUNT][];
+    for (int i = 0; i < ITEM_COUNT; ++i) {
+      live[i] = new boolean[space.optionCount(i)];
+      Arrays.fill(live[i], true);
+    }
+
+    long[] slopeMax = new long[Stat.TYPE_COUNT];
+    long[] slopeMin = new long[Stat.TYPE_COUNT];
+
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+
+      // NOTE: Fixing an item within a pass only narrows the true ranges, so the
+      //       slopes of the pass remain valid bounds until it ends.
+      slopes(MODEL, stats, live, slopeMax, slopeMin);
+
+      for (int i = 0; i < ITEM_COUNT; ++i) {
+        if (_fixed[i] != FREE) {
+          continue;
+        }
+
+        int remaining = 0,
+            last      = -1;
+
+        for (int a = 0; a < live[i].length; ++a) {
+          if (!live[i][a]) {
+            continue;
+          }
+
+          if (gainMax(i, a, slopeMax, slopeMin) <= 0 || dominated(i, a, live[i], slopeMax, slopeMin)) {
+            live[i][a] = false;
+            ++_dominated;
+            changed = true;
+          } else {
+            ++remaining;
+            last = a;
+          }
+        }
+
+        if (remaining == 0) {
+          _fixed[i] = -1;
+          changed = true;
+        } else if (remaining == 1 && gainMin(i, last, slopeMax, slopeMin) >= 0) {
+          _fixed[i] = last;
+          stats[space.decreased(i, last)] -= space.value(i, last);
+          stats[space.increased(i, last)] += space.value(i, last);
+          changed = true;
+        }
+      }
+    }
+
+    // Order the free items in groups of identical options, by first appearance.
+    int[][] canonical = new int[ITEM_COUNT][];
+    for (int i = 0; i < ITEM_COUNT; ++i) {
+      if (_fixed[i] == FREE) {
+        canonical[i] = canonicalOptions(i, live[i]);
+      }
+    }
+
+    ArrayList<Integer> order  = new ArrayList<Integer>(ITEM_COUNT);
+    boolean[]          placed = new boolean[ITEM_COUNT];
+    for (int i = 0; i < ITEM_COUNT; ++i) {
+      if (_fixed[i] != FREE || placed[i]) {
+        continue;
+      }
+
+      int size = 1;
+      order.add(i);
+      for (int j = i + 1; j < ITEM_COUNT; ++j) {
+        if (_fixed[j] == FREE && !placed[j] && sameOptions(i, canonical[i], j, canonical[j])) {
+          placed[j] = true;
+          order.add(j);
+          ++size;
+        }
+      }
+
+      if (size > 1) {
+        ++_groups;
+        _grouped += size;
+      }
+    }
+
+    _itemMap   = new int[order.size()];
+    _optionMap = new int[order.size()][];
+
+    ArrayList<ArrayList<Candidate>> options = new ArrayList<ArrayList<Candidate>>(order.size());
+    int id = 0;
+    for (int r = 0; r < order.size(); ++r) {
+      final int ITEM = order.get(r);
+
+      _itemMap[r]   = ITEM;
+      _optionMap[r] = canonical[ITEM];
+
+      ArrayList<Candidate> itemOptions = new ArrayList<Candidate>(canonical[ITEM].length);
+      for (int a : canonical[ITEM]) {
+        Candidate c = space.candidate(ITEM, a);
+        itemOptions.add(new Candidate(c.item(), c.delta(), id++));
+      }
+      options.add(itemOptions);
+    }
+
+    _reduced = new SearchSpace(space.model(), stats, options);
+  }
+
+  public SearchSpace original() {
+    return _original;
+  }
+
+  /**
+   * Returns the space left to search: the free items, their undominated options
+   * and the stats after every fixed item.
+   */
+  public SearchSpace reduced() {
+    return _reduced;
+  }
+
+  /**
+   * Maps a plan for the reduced space to the original, adding the fixed items,
+   * and evaluates it there.
+   */
+  public Solution expand(Solution reduced) {
+    int[] options = new int[_fixed.length];
+    for (int i = 0; i < _fixed.length; ++i) {
+      options[i] = (_fixed[i] == FREE) ? -1 : _fixed[i];
+    }
+
+    for (int r = 0; r < _itemMap.length; ++r) {
+      if (reduced.option(r) != -1) {
+        options[_itemMap[r]] = _optionMap[r][reduced.option(r)];
+      }
+    }
+
+    return Solution.evaluate(_original, options);
+  }
+
+  @Override public String toString() {
+    int fixed = 0;
+    for (int f : _fixed) {
+      fixed += (f != FREE) ? 1 : 0;
+    }
+
+    return String.format("Presolve: %d items, %d options -> %d items, %d options"
+            + " (%d options dominated, %d items fixed, %d items in %d symmetric groups)",
+            _original.itemCount(), _original.candidateCount(),
+            _reduced.itemCount(), _reduced.candidateCount(),
+            _dominated, fixed, _grouped, _groups);
+  }
+
+  /**
+   * Stores the extreme slopes of every stat over its range given the live options
+   * of the free items.
+   */
+  private void slopes(FixedPointModel model, int[] stats, boolean[][] live, long[] max, long[] min) {
+    int[] dec = new int[Stat.TYPE_COUNT];
+    int[] inc = new int[Stat.TYPE_COUNT];
+
+    int[] itemDec = new int[Stat.TYPE_COUNT];
+    int[] itemInc = new int[Stat.TYPE_COUNT];
+
+    for (int i = 0; i < live.length; ++i) {
+      if (_fixed[i] != FREE) {
+        continue;
+      }
+
+      Arrays.fill(itemDec, 0);
+      Arrays.fill(itemInc, 0);
+
+      for (int a = 0; a < live[i].length; ++a) {
+        if (live[i][a]) {
+          final int V = _original.value(i, a);
+          itemDec[_original.decreased(i, a)] = Math.max(itemDec[_original.decreased(i, a)], V);
+          itemInc[_original.increased(i, a)] = Math.max(itemInc[_original.increased(i, a)], V);
+        }
+      }
+
+      for (int s = 0; s < Stat.TYPE_COUNT; ++s) {
+        dec[s] += itemDec[s];
+        inc[s] += itemInc[s];
+      }
+    }
+
+    for (int s = 0; s < Stat.TYPE_COUNT; ++s) {
+      max[s] = model.marginalEPMax(s, stats[s] - dec[s], stats[s] + inc[s]);
+      min[s] = model.marginalEPMin(s, stats[s] - dec[s], stats[s] + inc[s]);
+    }
+  }
+
+  /**
+   * Largest and smallest EP change of an option anywhere in the ranges.
+   */
+  private long gainMax(int item, int option, long[] max, long[] min) {
+    return _original.value(item, option)
+            * (max[_original.increased(item, option)] - min[_original.decreased(item, option)]);
+  }
+
+  private long gainMin(int item, int option, long[] max, long[] min) {
+    return _original.value(item, option)
+            * (min[_original.increased(item, option)] - max[_original.decreased(item, option)]);
+  }
+
+  /**
+   * Whether another live option of the item is at least as good as option a in
+   * every state of the ranges.
+   */
+  private boolean dominated(int item, int a, boolean[] live, long[] max, long[] min) {
+    final int DEC = _original.decreased(item, a);
+    final int INC = _original.increased(item, a);
+    final int VAL = _original.value(item, a);
+
+    for (int b = 0; b < live.length; ++b) {
+      if (b == a || !live[b]) {
+        continue;
+      }
+
+      final int D = _original.decreased(item, b);
+      final int I = _original.increased(item, b);
+      final int V = _original.value(item, b);
+
+      // Lower bound on the EP of b less that of a, from the same state.  Where the
+      // two move the same amount out of or into the same stat, that term cancels.
+      long margin;
+      if (D == DEC && V == VAL) {
+        margin = VAL * (min[I] - max[INC]);
+      } else if (I == INC && V == VAL) {
+        margin = VAL * (min[DEC] - max[D]);
+      } else {
+        margin = gainMin(item, b, max, min) - gainMax(item, a, max, min);
+      }
+
+      if (margin >= 0) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Returns the live options of an item ordered by their stats, so that items
+   * with the same options list them alike.
+   */
+  private int[] canonicalOptions(final int item, boolean[] live) {
+    ArrayList<Integer> result = new ArrayList<Integer>(live.length);
+    for (int a = 0; a < live.length; ++a) {
+      if (live[a]) {
+        result.add(a);
+      }
+    }
+
+    Collections.sort(result, new Comparator<Integer>() {
+      @Override public int compare(Integer a, Integer b) {
+        int c = Integer.compare(_original.decreased(item, a), _original.decreased(item, b));
+        if (c == 0) {
+          c = Integer.compare(_original.increased(item, a), _original.increased(item, b));
+        }
+        return c;
+      }
+    });
+
+    int[] options = new int[result.size()];
+    for (int k = 0; k < options.length; ++k) {
+      options[k] = result.get(k);
+    }
+    return options;
+  }
+
+  private boolean sameOptions(int i, int[] a, int j, int[] b) {
+    if (a.length != b.length) {
+      return false;
+    }
+
+    for (int k = 0; k < a.length; ++k) {
+      if (_original.decreased(i, a[k]) != _original.decreased(j, b[k])
+              || _original.increased(i, a[k]) != _original.increased(j, b[k])
+              || _original.value(i, a[k]) != _original.value(j, b[k])) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+}
@@ -0,0 +1,167 @@
+/**
+ * @author Luke Tyler Downey
+ * Copyright 2011 Glow Interactive
+ *
+ * This software contains original work and/or modifications to
+ * original work, which are redistributed under the following terms.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.glowinteractive.reforger;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Properties;
+
+/**
+ * Model of one spec, read from a profile rather than compiled in.
+ *
+ * A profile is a properties file giving, for each stat STAT that it values:
+ *
+ *   STAT.breakpoints  ascending caps, optional (none makes the stat linear)
+ *   STAT.slopes       EP per point of each segment, one more than breakpoints
+ *   STAT.reforgeTo    stats the STAT of an item may be reforged into, optional
+ *
+ * Values are separated by whitespace or commas.  Stats a profile leaves out are
+ * worth nothing and are never reforged.  The curves are compiled into StatCurve's
+ * lookup tables on load, so a profile evaluates exactly as fast as Model.
+ *
+ * The profiles of the supported specs ship in the profiles package, e.g.
+ * profiles/RG-Combat.properties; any other file may be given by its path.
+ */
+public final class ProfileModel extends PiecewiseLinearModel {
+
+  private static final String PROFILE_PATH      = "profiles/";
+  private static final String PROFILE_EXTENSION = ".properties";
+
+  private static final String KEY_BREAKPOINTS = ".breakpoints";
+  private static final String KEY_SLOPES      = ".slopes";
+  private static final String KEY_REFORGE_TO  = ".reforgeTo";
+
+  private static final String SEPARATORS = "[\\s,]+";
+
+  private final String _name;
+
+  private final EnumMap<Stat, EnumSet<Stat>> _mappings;
+
+  private ProfileModel(String name, EnumMap<Stat, StatCurve> curves, EnumMap<Stat, EnumSet<Stat>> mappings) {
+    super(curves);
+    _name     = name;
+    _mappings = mappings;
+  }
+
+  /**
+   * Loads the named profile: a file if one exists at that path, otherwise the
+   * profile of that name shipped with the application.
+   */
+  public static ProfileModel load(String name) {
+    ProfileModel result = null;
+
+    try {
+      File        file  = new File(name);
+      InputStream input = file.isFile()
+              ? new FileInputStream(file)
+              : ProfileModel.class.getResourceAsStream(PROFILE_PATH + name + PROFILE_EXTENSION);
+
+      if (input == null) {
+        throw new IllegalArgumentException("Error: no profile named " + name + ".");
+      }
+
+      Properties profile = new Properties();
+      try {
+        profile.load(input);
+      } finally {
+        input.close();
+      }
+
+      result = parse(file.isFile() ? file.getName().replace(PROFILE_EXTENSION, "") : name, profile);
+    } catch (Exception e) {
+      Debug.fatalError(ProfileModel.class.getSimpleName(), e);
+    }
+
+    return result;
+  }
+
+  public static ProfileModel parse(String name, Properties profile) {
+    EnumMap<Stat, StatCurve>     curves   = new EnumMap<Stat, StatCurve>(Stat.class);
+    EnumMap<Stat, EnumSet<Stat>> mappings = new EnumMap<Stat, EnumSet<Stat>>(Stat.class);
+
+    for (Stat s : Stat.values()) {
+      String[] points  = values(profile, s.name() + KEY_BREAKPOINTS),
+               slopes  = values(profile, s.name() + KEY_SLOPES),
+               targets = values(profile, s.name() + KEY_REFORGE_TO);
+
+      if (slopes.length > 0) {
+        if (slopes.length != points.length + 1) {
+          throw new IllegalArgumentException("Error: " + s.name() + " needs one slope more than breakpoints.");
+        }
+
+        int[]   p = new int[points.length];
+        float[] k = new float[slopes.length];
+
+        for (int i = 0; i < p.length; ++i) {
+          p[i] = Integer.parseInt(points[i]);
+          if (i > 0 && p[i] <= p[i - 1]) {
+            throw new IllegalArgumentException("Error: " + s.name() + " breakpoints must ascend.");
+          }
+        }
+        for (int i = 0; i < k.length; ++i) {
+          k[i] = Float.parseFloat(slopes[i]);
+        }
+
+        curves.put(s, new StatCurve(p, k));
+      } else if (points.length > 0) {
+        throw new IllegalArgumentException("Error: " + s.name() + " has breakpoints but no slopes.");
+      }
+
+      if (targets.length > 0) {
+        EnumSet<Stat> stats = EnumSet.noneOf(Stat.class);
+        for (String t : targets) {
+          stats.add(Stat.valueOf(t));
+        }
+        stats.remove(s);
+        mappings.put(s, stats);
+      }
+    }
+
+    return new ProfileModel(name, curves, mappings);
+  }
+
+  private static String[] values(Properties profile, String key) {
+    String value = profile.getProperty(key, "").trim();
+    return value.isEmpty() ? new String[0] : value.split(SEPARATORS);
+  }
+
+  public String name() {
+    return _name;
+  }
+
+  @Override public EnumMap<Stat, EnumSet<Stat>> candidateMappings() {
+    EnumMap<Stat, EnumSet<Stat>> result = new EnumMap<Stat, EnumSet<Stat>>(Stat.class);
+    for (Stat s : _mappings.keySet()) {
+      result.put(s, EnumSet.copyOf(_mappings.get(s)));
+    }
+    return result;
+  }
+
+  @Override public String toString() {
+    return _name;
+  }
+}
@@ -38,35 +38,47 @@
 
 package com.glowinteractive.reforger;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
-
-// import java.util.concurrent.Executors;
-// import java.util.concurrent.ExecutorService;
-// import java.util.concurrent.TimeUnit;
+import java.util.List;
 
 public final class Reforger implements Runnable {
 
-  private static final int INDEX_DEC = 0;
-  private static final int INDEX_INC = 1;
-  private static final int INDEX_VAL = 2;
-
-//  private static final int OPTIMAL_THREADS = 4;
+  // Wall-clock budget of the sensitivity analysis, in milliseconds.
+  private static final long SENSITIVITY_TIME_LIMIT = 30000;
 
-  private Float     _optimalEP = 0.0f;
-  private int[]     _globalOptions;
-  private int[][][] _reforgeMatrix;
-  private float[]   _epDeltaMax;
+  private AbstractModel[] _models;
+  private String          _realm;
+  private String          _character;
+  private boolean         _sensitivity;
 
-  private Model  _model;
-  private String _realm;
-  private String _character;
+  private final PortfolioSolver _solver = new PortfolioSolver();
 
   public Reforger(String realm, String character) {
+    this(realm, character, new Model());
+  }
+
+  public Reforger(String realm, String character, AbstractModel model) {
+    this(realm, character, new AbstractModel[] { model });
+  }
+
+  /**
+   * Reforges the character for several models at once, e.g. the specs it plays.
+   * The character is downloaded once and all models are solved in one search.
+   */
+  public Reforger(String realm, String character, AbstractModel[] models) {
+    assert models.length > 0 : "Error: no models given.";
+
     _realm     = realm;
     _character = character;
-    _model     = new Model();
+    _models    = models.clone();
+  }
+
+  /**
+   * Also prints, after a single model's plan, the range of every coefficient over
+   * which the plan stays optimal.  Off by default: the analysis searches once per
+   * coefficient and direction, for up to SENSITIVITY_TIME_LIMIT.
+   */
+  public void setSensitivityAnalysis(boolean enabled) {
+    _sensitivity = enabled;
   }
 
   @Override public void run() {
@@ -77,7 +89,7 @@ public final class Reforger implements Runnable {
 
     StatKVMap mutable    = character.mutableStats(),
               immutable  = character.immutableStats(),
-              cumulative = mutable.add(immutable);
+              cumulative = character.cumulativeStats();
 
     System.out.println("Mutable Secondary Stats (Derived From Base Itemization):");
     System.out.println(mutable + "\n");
@@ -88,98 +100,35 @@ public final class Reforger implements Runnable {
     System.out.println("Cumulative Secondary Stats:");
     System.out.println(cumulative + "\n");
 
-    // Determine current / best EP as a baseline.
-//        float noReforgingEp = model.calculateEp(noReforgingStats.getData());
-//        float currentStatEp = model.calculateEp(currentStats.getData());
-//        bestEp = Math.max(currentStatEp, noReforgingEp) - 1;
-    _optimalEP = _model.calculateEP(cumulative.data());
-
-    // Max EP Delta per item.
-    HashMap<Item, Float> itemEPDeltaMax = new HashMap<Item, Float>(character.items().size());
-    // Per item reforge candidate lists.
-    ArrayList<ArrayList<Candidate>> options = new ArrayList<ArrayList<Candidate>>(character.items().size());
-    // Global candidate list (union over options).
-    ArrayList<Candidate> candidates = new ArrayList<Candidate>(character.items().size() * Stat.TYPE_COUNT);
-
-    int maxOptions = 0;
-    for (Item item : character.items()) {
-      float itemDeltaMax = 0.0f;
-      HashSet<StatKVMap>   itemCandidates = item.candidates(_model.candidateMappings());
-      ArrayList<Candidate> itemOptions    = new ArrayList<Candidate>(Stat.TYPE_COUNT);
-
-      for (StatKVMap delta : itemCandidates) {
-        Candidate option = new Candidate(item, delta);
-        itemOptions.add(option);
-        candidates.add(option);
-        // Calculate the EP delta upper bound for each of this item's possible reforge values.
-        for (Stat dec : Stat.values()) {
-          int value = delta.value(dec);
-          if (value < 0) {
-            float itemDelta = _model.calculateEPDeltaMax(dec, Math.abs(value));
-            if (itemDelta > itemDeltaMax) {
-              itemDeltaMax = itemDelta;
-            }
-          }
-        }
-      }
-
-      if (itemOptions.size() > 0) {
-        if (itemOptions.size() > maxOptions) {
-          maxOptions = itemOptions.size();
-        }
-
-        itemEPDeltaMax.put(item, itemDeltaMax);
-        options.add(itemOptions);
-      }
+    if (_models.length > 1) {
+      runModels(character, cumulative);
+      return;
     }
 
-    // Output candidate count / list.
-    System.out.println("Considering " + candidates.size() + " possible reforgings.");
-//    for (Candidate o : candidates) {
-//      System.out.println("  " + o);
-//    }
-
-    // Compute max EP delta for sublists.
-    _epDeltaMax = new float[options.size()];
+    SearchSpace space = SearchSpace.forItems(_models[0], cumulative.data(), character.items());
 
-    for (int i = 0; i < options.size(); ++i) {
-      float sublistEPDelta = 0.0f;
+    // Output candidate count.
+    System.out.println("Considering " + space.candidateCount() + " possible reforgings.");
 
-      for (int j = i + 1; j < options.size(); ++j) {
-        Item item = options.get(j).get(0).item();
-        sublistEPDelta += itemEPDeltaMax.get(item);
-      }
+    Presolve presolve = new Presolve(space);
+    System.out.println(presolve + ".");
 
-      _epDeltaMax[i] = sublistEPDelta;
-    }
+    long startTime, endTime;
 
-    // Create reforging matrix and result array.
-    _reforgeMatrix = new int[options.size()][maxOptions][3];
-    _globalOptions = new int[options.size()];
-    for (int i = 0; i < options.size(); ++i) {
-      ArrayList<Candidate> itemOptions = options.get(i);
-
-      for (int j = 0; j < maxOptions; ++j) {
-        if (j < itemOptions.size()) {
-          Candidate o = itemOptions.get(j);
-
-          _reforgeMatrix[i][j][INDEX_DEC] = o.indexDecreased();
-          _reforgeMatrix[i][j][INDEX_INC] = o.indexIncreased();
-          _reforgeMatrix[i][j][INDEX_VAL] = o.deltaValue();
-        } else {
-          _reforgeMatrix[i][j][INDEX_DEC] = -1;
-          _reforgeMatrix[i][j][INDEX_INC] = -1;
-          _reforgeMatrix[i][j][INDEX_VAL] =  0;
-        }
-      }
-    }
+    startTime = System.currentTimeMillis();
 
-    long startTime, endTime;
+    // Branch and bound reports each better plan it finds, on its own line.
+    final long START_TIME = startTime;
 
-    System.out.print("Calculating . . . ");
+    _solver.setListener(new SolutionListener() {
+      @Override public void improved(Solution solution, float gap) {
+        System.out.println(String.format("  %.1f EP, at most %.1f below optimal, after %d ms.",
+                solution.ep(), gap, System.currentTimeMillis() - START_TIME));
+      }
+    });
+    System.out.println("Calculating . . . ");
 
-    startTime = System.currentTimeMillis();
-    computeOptimalCandidate(cumulative.data(), 0);
+    Solution solution = presolve.expand(_solver.solve(presolve.reduced()));
     endTime = System.currentTimeMillis();
 
     long time = endTime - startTime;
@@ -187,124 +136,118 @@ public final class Reforger implements Runnable {
     System.out.println("done.");
 
     System.out.println("Calculation time: " + time + " ms.");
+    System.out.println("Solver: " + _solver + ".");
 
-    // Decode result array.
-    ArrayList<Candidate> resultCandidates = new ArrayList<Candidate>(_globalOptions.length);
-    for (int i = 0; i < _globalOptions.length; ++i) {
-      if (_globalOptions[i] != -1) {
-        resultCandidates.add(options.get(i).get(_globalOptions[i]));
-      }
-    }
+    print(_models[0], space, solution, character, cumulative);
 
-    ArrayList<Item> unusedItems = new ArrayList<Item>(character.items());
-
-    System.out.println();
-    System.out.println("Optimal reforging:");
-
-    for (Candidate o : resultCandidates) {
-      System.out.println(o);
-      unusedItems.remove(o.item());
+    if (!_sensitivity) {
+      return;
     }
 
-    if (!unusedItems.isEmpty()) {
-      System.out.println("Not reforged:");
-
-      for (Item item : unusedItems) {
-        System.out.println("  " + item);
-      }
-    }
+    // The full space, as the options presolve drops depend on the coefficients.
+    SensitivityAnalysis analysis = new SensitivityAnalysis();
+    analysis.setTimeLimit(SENSITIVITY_TIME_LIMIT);
 
-    // printStats("Stats with no reforgings (EP = %.1f):", noReforgingStats);
-    // printStats("Stats with current reforgings (EP = %.1f):", currentStats);
+    startTime = System.currentTimeMillis();
+    List<SensitivityAnalysis.Range> ranges = analysis.analyze(space, solution);
+    endTime = System.currentTimeMillis();
 
-    // Calculate stats after recommended reforgings.
-    StatKVMap resultStats = cumulative;
-    for (Candidate o : resultCandidates) {
-      resultStats = resultStats.add(o.delta());
+    System.out.println();
+    System.out.println("Coefficient ranges keeping this reforging optimal, each moved alone ("
+            + (endTime - startTime) + " ms):");
+    for (SensitivityAnalysis.Range range : ranges) {
+      System.out.println("  " + range);
     }
+    if (!analysis.complete()) {
+      System.out.println("Stopped at the time limit; ends shown as ? were not found.");
+    }
+  }
 
-    System.out.println();
-    System.out.println("Reforged Stats:");
-    System.out.println(resultStats);
-    System.out.println();
+  private void runModels(Character character, StatKVMap cumulative) {
+    SearchSpace space = SearchSpace.forItems(_models, cumulative.data(), character.items());
 
-//    double currentEP = _model.calculateEP(cumulative.data());
-//    double recommendedEp = _model.calculateEP(recommendStats.data());
-//    double improvement = Math.round((recommendedEp - currentEP) * 10) / 10.0;
-//    printStats("Stats with recommended reforgings (EP = %.1f):", recommendStats);
-//    System.out.println("Improvement over current reforgings: " + improvement);
-  }
+    System.out.println("Considering " + space.candidateCount() + " possible reforgings for "
+            + _models.length + " models.");
 
-  private boolean computeOptimalCandidate(int[] stats, int depth) {
-    int[][] currentOptions = _reforgeMatrix[depth];
-    boolean improved = false;
+    BranchAndBoundSolver solver = new BranchAndBoundSolver();
 
-    // Base case
-    if (depth + 1 == _epDeltaMax.length) {
-      for (int i = 0; i < currentOptions.length; ++i) {
-        int indexDec = currentOptions[i][INDEX_DEC];
+    long startTime, endTime;
 
-        if (indexDec == -1) {
-          break;
-        }
+    System.out.print("Calculating . . . ");
 
-        int indexInc   = currentOptions[i][INDEX_INC];
-        int deltaValue = currentOptions[i][INDEX_VAL];
+    startTime = System.currentTimeMillis();
+    Solution[] solutions = solver.solve(space, _models);
+    endTime = System.currentTimeMillis();
 
-        stats[indexDec] -= deltaValue;
-        stats[indexInc] += deltaValue;
+    long time = endTime - startTime;
 
-        float resultEP = _model.calculateEP(stats);
+    System.out.println("done.");
 
-        if (resultEP > _optimalEP) {
-          _optimalEP = resultEP;
-          _globalOptions[depth] = i;
-          improved = true;
-        }
+    System.out.println("Calculation time: " + time + " ms.");
+    System.out.println("Solver: " + solver + ".");
 
-        stats[indexDec] += deltaValue;
-        stats[indexInc] -= deltaValue;
-      }
+    for (int m = 0; m < _models.length; ++m) {
+      System.out.println();
+      System.out.println("Model: " + _models[m]);
+      print(_models[m], space, solutions[m], character, cumulative);
+    }
+  }
 
-      return improved;
+  private void print(AbstractModel model, SearchSpace space, Solution solution, Character character,
+                     StatKVMap cumulative) {
+    // Decode result array, marking reforged items by id.
+    int idLimit = 0;
+    for (Item item : character.items()) {
+      idLimit = Math.max(idLimit, item.id() + 1);
     }
 
-    double currentEPDeltaMax = _epDeltaMax[depth];
-    for (int i = 0; i < currentOptions.length; ++i) {
-      int indexDec = currentOptions[i][INDEX_DEC];
+    boolean[] reforged = new boolean[idLimit];
+    int       unused   = character.items().size();
 
-      if (indexDec == -1) {
-        break;
-      }
+    StatAccumulator resultStats = new StatAccumulator();
+    resultStats.add(cumulative);
 
-      int indexInc   = currentOptions[i][INDEX_INC];
-      int deltaValue = currentOptions[i][INDEX_VAL];
+    System.out.println();
+    System.out.println("Optimal reforging:");
 
-      stats[indexDec] -= deltaValue;
-      stats[indexInc] += deltaValue;
+    for (int i = 0; i < space.itemCount(); ++i) {
+      if (solution.option(i) != -1) {
+        Candidate o = space.candidate(i, solution.option(i));
 
-      float resultEP = _model.calculateEP(stats);
+        System.out.println(o);
+        resultStats.add(o.delta());
+        reforged[o.item().id()] = true;
+        --unused;
+      }
+    }
 
-      if (resultEP + currentEPDeltaMax > _optimalEP) {
-        if (computeOptimalCandidate(stats, depth + 1)) {
-          _globalOptions[depth] = i;
-          improved = true;
+    if (unused > 0) {
+      System.out.println("Not reforged:");
+
+      for (Item item : character.items()) {
+        if (!reforged[item.id()]) {
+          System.out.println("  " + item);
         }
       }
-
-      stats[indexDec] += deltaValue;
-      stats[indexInc] -= deltaValue;
     }
 
-    float currentEP = _model.calculateEP(stats);
+    System.out.println();
+    System.out.println("Reforged Stats:");
+    System.out.println(resultStats.snapshot());
+    System.out.println();
 
-    if (currentEP + currentEPDeltaMax > _optimalEP) {
-      if (computeOptimalCandidate(stats, depth + 1)) {
-        _globalOptions[depth] = -1;
-        improved = true;
-      }
+    // Compare with the character's current reforges.
+    StatAccumulator currentStats = new StatAccumulator();
+    currentStats.add(cumulative);
+    for (Item item : character.items()) {
+      currentStats.add(item.currentReforging());
     }
 
-    return improved;
+    float currentEP = model.calculateEP(currentStats.data());
+
+    System.out.println(String.format("EP with no reforging: %.1f", model.calculateEP(cumulative.data())));
+    System.out.println(String.format("EP with current reforging: %.1f", currentEP));
+    System.out.println(String.format("EP with recommended reforging: %.1f (%+.1f over current)",
+            solution.ep(), solution.ep() - currentEP));
   }
 }
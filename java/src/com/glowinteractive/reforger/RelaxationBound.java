@@ -0,0 +1,220 @@
+/**
+ * @author Luke Tyler Downey
+ * Copyright 2011 Glow Interactive
+ *
+ * This software contains original work and/or modifications to
+ * original work, which are redistributed under the following terms.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.glowinteractive.reforger;
+
+/**
+ * Lagrangian relaxation bound for branch and bound.
+ *
+ * For any slope vector beta, the EP gain g_s(x) of moving stat s from its current
+ * value c to x satisfies g_s(x) = [g_s(x) - beta_s (x - c)] + beta_s (x - c).  The
+ * first term is bounded by its maximum over the range the stat can still reach,
+ * which for a piecewise-linear model is attained at a range end or a breakpoint.
+ * The second term sums over items, so the one-option-per-item rule decouples and
+ * each item contributes its best option under beta.  Every beta yields a valid
+ * upper bound; the bound is the minimum over a grid of slopes for the stats with
+ * breakpoints (i.e. the caps are dualized), with the item sums precomputed per
+ * depth.  Linear stats keep their own coefficient as slope.
+ *
+ * All values are fixed-point EP (see FixedPointModel); the slopes on the grid are
+ * integers, so the bound is exact for the fixed-point model.
+ */
+public final class RelaxationBound {
+
+  // Slope samples per capped stat, spanning its smallest to largest marginal EP.
+  private static final int GRID = 9;
+
+  // Largest supported number of capped stats (GRID^3 sums per depth).
+  private static final int MAX_CAPPED = 3;
+
+  private final FixedPointModel _model;
+
+  private final int[]    _capped;
+  private final int[][]  _breakpoints;
+  private final long[][] _betas;
+  private final int      _cells;
+
+  // [first remaining item][grid cell]: sum over items of the best option under beta.
+  private final long[][] _suffix;
+
+  private final int[][] _remainingDec;
+  private final int[][] _remainingInc;
+
+  // Scratch: per capped stat and slope sample, the bounded non-linear remainder.
+  private final long[][] _slack;
+
+  private RelaxationBound(RelaxationBound shared) {
+    _model        = shared._model;
+    _capped       = shared._capped;
+    _breakpoints  = shared._breakpoints;
+    _betas        = shared._betas;
+    _cells        = shared._cells;
+    _suffix       = shared._suffix;
+    _remainingDec = shared._remainingDec;
+    _remainingInc = shared._remainingInc;
+    _slack        = new long[_capped.length][GRID];
+  }
+
+  private RelaxationBound(FixedPointModel model, int[] capped, int[] optionStart,
+                          int[] optionDec, int[] optionInc, int[] optionVal,
+                          int[][] remainingDec, int[][] remainingInc) {
+    _model        = model;
+    _capped       = capped;
+    _remainingDec = remainingDec;
+    _remainingInc = remainingInc;
+    _slack        = new long[capped.length][GRID];
+
+    _breakpoints = new int[capped.length][];
+    _betas       = new long[capped.length][GRID];
+
+    int cells = 1;
+    for (int c = 0; c < capped.length; ++c) {
+      int[] breakpoints = model.breakpoints(capped[c]);
+
+      int low  = Math.min(0, breakpoints[0] - 1),
+          high = breakpoints[breakpoints.length - 1] + 1;
+
+      long min = model.marginalEPMin(capped[c], low, high),
+           max = model.marginalEPMax(capped[c], low, high);
+
+      for (int q = 0; q < GRID; ++q) {
+        _betas[c][q] = min + (max - min) * q / (GRID - 1);
+      }
+
+      _breakpoints[c] = breakpoints;
+      cells *= GRID;
+    }
+    _cells = cells;
+
+    // Slopes of the linear stats.
+    long[] beta = new long[Stat.TYPE_COUNT];
+    for (int s = 0; s < Stat.TYPE_COUNT; ++s) {
+      beta[s] = model.marginalEPMax(s, 0, 1);
+    }
+
+    final int ITEM_COUNT = optionStart.length - 1;
+    _suffix = new long[ITEM_COUNT + 1][_cells];
+
+    for (int k = ITEM_COUNT - 1; k >= 0; --k) {
+      for (int cell = 0; cell < _cells; ++cell) {
+        for (int c = 0, rest = cell; c < capped.length; ++c, rest /= GRID) {
+          beta[capped[c]] = _betas[c][rest % GRID];
+        }
+
+        long itemBest = 0;
+        for (int j = optionStart[k]; j < optionStart[k + 1]; ++j) {
+          itemBest = Math.max(itemBest, optionVal[j] * (beta[optionInc[j]] - beta[optionDec[j]]));
+        }
+
+        _suffix[k][cell] = _suffix[k + 1][cell] + itemBest;
+      }
+    }
+  }
+
+  /**
+   * Creates the bound for flat option arrays in search order (the options of item k
+   * are [optionStart[k], optionStart[k + 1])), or returns null if too many stats
+   * have breakpoints.
+   */
+  public static RelaxationBound create(FixedPointModel model, int[] optionStart,
+                                       int[] optionDec, int[] optionInc, int[] optionVal,
+                                       int[][] remainingDec, int[][] remainingInc) {
+    int[] capped = new int[Stat.TYPE_COUNT];
+    int   count  = 0;
+
+    for (int s = 0; s < Stat.TYPE_COUNT; ++s) {
+      if (model.breakpoints(s).length == 0) {
+        continue;
+      }
+      if (count == MAX_CAPPED) {
+        return null;
+      }
+      capped[count++] = s;
+    }
+
+    int[] result = new int[count];
+    System.arraycopy(capped, 0, result, 0, count);
+
+    return new RelaxationBound(model, result, optionStart, optionDec, optionInc, optionVal,
+                               remainingDec, remainingInc);
+  }
+
+  /**
+   * Returns an instance sharing the precomputed sums, for use on another thread.
+   */
+  public RelaxationBound fork() {
+    return new RelaxationBound(this);
+  }
+
+  /**
+   * Returns an upper bound on the EP the items below depth can still add to the
+   * given stats.
+   */
+  public long bound(int depth, int[] stats) {
+    final int NEXT = depth + 1;
+
+    for (int c = 0; c < _capped.length; ++c) {
+      final int   S       = _capped[c];
+      final int   CURRENT = stats[S];
+      final int   LOW     = CURRENT - _remainingDec[NEXT][S];
+      final int   HIGH    = CURRENT + _remainingInc[NEXT][S];
+      final int[] POINTS  = _breakpoints[c];
+      final long  BASE    = _model.statEP(S, CURRENT);
+
+      long[] slack = _slack[c];
+      for (int q = 0; q < GRID; ++q) {
+        slack[q] = 0;
+      }
+
+      // g(x) - beta (x - c) is piecewise linear, so its maximum over [LOW, HIGH]
+      // lies on a range end or a breakpoint.
+      for (int p = -1; p <= POINTS.length; ++p) {
+        int x = (p == -1) ? LOW : (p == POINTS.length) ? HIGH : POINTS[p];
+
+        if (x < LOW || x > HIGH || x == CURRENT) {
+          continue;
+        }
+
+        long gain = _model.statEP(S, x) - BASE;
+
+        for (int q = 0; q < GRID; ++q) {
+          slack[q] = Math.max(slack[q], gain - _betas[c][q] * (x - CURRENT));
+        }
+      }
+    }
+
+    final long[] SUFFIX = _suffix[NEXT];
+
+    long result = Long.MAX_VALUE;
+    for (int cell = 0; cell < _cells; ++cell) {
+      long value = SUFFIX[cell];
+
+      for (int c = 0, rest = cell; c < _capped.length; ++c, rest /= GRID) {
+        value += _slack[c][rest % GRID];
+      }
+
+      result = Math.min(result, value);
+    }
+
+    return result;
+  }
+}
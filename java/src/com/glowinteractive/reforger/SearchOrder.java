@@ -0,0 +1,337 @@
+/**
+ * @author Luke Tyler Downey
+ * Copyright 2011 Glow Interactive
+ *
+ * This software contains original work and/or modifications to
+ * original work, which are redistributed under the following terms.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.glowinteractive.reforger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+/**
+ * Order in which the tree searches visit a SearchSpace, and its options
+ * flattened in that order.
+ *
+ * Informed, items come in order of how far they can move the EP over the range
+ * every stat can reach, and the options of each item best first at the base
+ * stats, both summed over the given models; ties keep SearchSpace order.
+ * Uninformed, items and options keep SearchSpace order.  Depth k of the search
+ * decides item itemOrder()[k]; its options are the flat indices
+ * [optionStart()[k], optionStart()[k + 1]), and a plan in search order holds, per
+ * depth, the position of its option in that range, or -1 for "no reforge".
+ *
+ * The slope bound is kept here as well, for the searches that take it unchanged.
+ * Not reentrant: it works in scratch arrays of the instance.
+ */
+public final class SearchOrder {
+
+  private final int     _itemCount;
+  private final int[]   _itemOrder;
+  private final int[][] _optionOrder;
+
+  private final int[] _optionStart;
+  private final int[] _optionDec;
+  private final int[] _optionInc;
+  private final int[] _optionVal;
+
+  // Largest amount each stat can still lose / gain from items at depth >= d.
+  private final int[][] _remainingDec;
+  private final int[][] _remainingInc;
+
+  // Scratch slopes of slopeBound().
+  private final long[] _max = new long[Stat.TYPE_COUNT];
+  private final long[] _min = new long[Stat.TYPE_COUNT];
+
+  public SearchOrder(SearchSpace space, FixedPointModel[] models, boolean informed) {
+    final int ITEM_COUNT = space.itemCount();
+
+    _itemCount = ITEM_COUNT;
+
+    // Reach of every stat over all items.
+    int[] stats = space.stats();
+    int[] dec   = new int[Stat.TYPE_COUNT];
+    int[] inc   = new int[Stat.TYPE_COUNT];
+    for (int i = 0; i < ITEM_COUNT; ++i) {
+      addReach(space, i, dec, inc);
+    }
+
+    long[][] slopeMax = new long[models.length][Stat.TYPE_COUNT];
+    long[][] slopeMin = new long[models.length][Stat.TYPE_COUNT];
+    for (int m = 0; m < models.length; ++m) {
+      for (int s = 0; s < Stat.TYPE_COUNT; ++s) {
+        slopeMax[m][s] = models[m].marginalEPMax(s, stats[s] - dec[s], stats[s] + inc[s]);
+        slopeMin[m][s] = models[m].marginalEPMin(s, stats[s] - dec[s], stats[s] + inc[s]);
+      }
+    }
+
+    // Items: largest possible EP change first.
+    final long[] impact = new long[ITEM_COUNT];
+    ArrayList<Integer> items = new ArrayList<Integer>(ITEM_COUNT);
+    for (int i = 0; i < ITEM_COUNT; ++i) {
+      for (int m = 0; m < models.length; ++m) {
+        long modelImpact = 0;
+        for (int j = 0; j < space.optionCount(i); ++j) {
+          modelImpact = Math.max(modelImpact, space.value(i, j)
+                  * (slopeMax[m][space.increased(i, j)] - slopeMin[m][space.decreased(i, j)]));
+        }
+        impact[i] += modelImpact;
+      }
+      items.add(i);
+    }
+
+    if (informed) {
+      Collections.sort(items, new Comparator<Integer>() {
+        @Override public int compare(Integer a, Integer b) {
+          return Long.compare(impact[b], impact[a]);
+        }
+      });
+    }
+
+    _itemOrder   = new int[ITEM_COUNT];
+    _optionOrder = new int[ITEM_COUNT][];
+    for (int k = 0; k < ITEM_COUNT; ++k) {
+      final int ITEM = items.get(k);
+      _itemOrder[k] = ITEM;
+
+      // Options: best EP when applied to the starting stats first.
+      final long[] ep = new long[space.optionCount(ITEM)];
+      ArrayList<Integer> options = new ArrayList<Integer>(ep.length);
+      for (int j = 0; j < ep.length; ++j) {
+        stats[space.decreased(ITEM, j)] -= space.value(ITEM, j);
+        stats[space.increased(ITEM, j)] += space.value(ITEM, j);
+        for (FixedPointModel model : models) {
+          ep[j] += model.calculateEP(stats);
+        }
+        stats[space.decreased(ITEM, j)] += space.value(ITEM, j);
+        stats[space.increased(ITEM, j)] -= space.value(ITEM, j);
+        options.add(j);
+      }
+
+      if (informed) {
+        Collections.sort(options, new Comparator<Integer>() {
+          @Override public int compare(Integer a, Integer b) {
+            return Long.compare(ep[b], ep[a]);
+          }
+        });
+      }
+
+      _optionOrder[k] = new int[ep.length];
+      for (int j = 0; j < ep.length; ++j) {
+        _optionOrder[k][j] = options.get(j);
+      }
+    }
+
+    // Flatten the options in search order.
+    final int OPTION_COUNT = space.candidateCount();
+
+    _optionStart = new int[ITEM_COUNT + 1];
+    _optionDec   = new int[OPTION_COUNT];
+    _optionInc   = new int[OPTION_COUNT];
+    _optionVal   = new int[OPTION_COUNT];
+
+    int index = 0;
+    for (int k = 0; k < ITEM_COUNT; ++k) {
+      final int ITEM = _itemOrder[k];
+      _optionStart[k] = index;
+
+      for (int j = 0; j < _optionOrder[k].length; ++j) {
+        final int OPTION = _optionOrder[k][j];
+
+        _optionDec[index] = space.decreased(ITEM, OPTION);
+        _optionInc[index] = space.increased(ITEM, OPTION);
+        _optionVal[index] = space.value(ITEM, OPTION);
+        ++index;
+      }
+    }
+    _optionStart[ITEM_COUNT] = index;
+
+    _remainingDec = remaining(_optionDec, _optionVal);
+    _remainingInc = remaining(_optionInc, _optionVal);
+  }
+
+  public int itemCount() {
+    return _itemCount;
+  }
+
+  /**
+   * Returns the SearchSpace item of every depth.
+   */
+  public int[] itemOrder() {
+    return _itemOrder;
+  }
+
+  public int[] optionStart() {
+    return _optionStart;
+  }
+
+  public int[] optionDec() {
+    return _optionDec;
+  }
+
+  public int[] optionInc() {
+    return _optionInc;
+  }
+
+  public int[] optionVal() {
+    return _optionVal;
+  }
+
+  /**
+   * Returns, per depth d, the largest amount each stat can lose from items at
+   * depth >= d.
+   */
+  public int[][] remainingDec() {
+    return _remainingDec;
+  }
+
+  /**
+   * Returns, per depth d, the largest amount each stat can gain from items at
+   * depth >= d.
+   */
+  public int[][] remainingInc() {
+    return _remainingInc;
+  }
+
+  /**
+   * As remainingDec(), with the options moving the given amounts (flat indices)
+   * rather than their own.
+   */
+  public int[][] remainingDec(int[] val) {
+    return remaining(_optionDec, val);
+  }
+
+  /**
+   * As remainingInc(), with the options moving the given amounts (flat indices)
+   * rather than their own.
+   */
+  public int[][] remainingInc(int[] val) {
+    return remaining(_optionInc, val);
+  }
+
+  /**
+   * Maps a plan from search order to SearchSpace order.
+   */
+  public int[] toSpaceOrder(int[] plan) {
+    int[] result = new int[_itemCount];
+    for (int k = 0; k < _itemCount; ++k) {
+      result[_itemOrder[k]] = (plan[k] == -1) ? -1 : _optionOrder[k][plan[k]];
+    }
+    return result;
+  }
+
+  /**
+   * Maps a plan from SearchSpace order to search order.
+   */
+  public int[] toSearchOrder(int[] plan) {
+    int[] result = new int[_itemCount];
+    for (int k = 0; k < _itemCount; ++k) {
+      result[k] = -1;
+      for (int j = 0; j < _optionOrder[k].length; ++j) {
+        if (_optionOrder[k][j] == plan[_itemOrder[k]]) {
+          result[k] = j;
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns an upper bound on the EP under model that the items below depth can
+   * still add to the given stats, from the range of slopes every stat can reach.
+   */
+  public long slopeBound(FixedPointModel model, int depth, int[] stats) {
+    final int NEXT = depth + 1;
+
+    final long[] MAX = _max;
+    final long[] MIN = _min;
+    for (int s = 0; s < Stat.TYPE_COUNT; ++s) {
+      int low  = stats[s] - _remainingDec[NEXT][s],
+          high = stats[s] + _remainingInc[NEXT][s];
+
+      MAX[s] = model.marginalEPMax(s, low, high);
+      MIN[s] = model.marginalEPMin(s, low, high);
+    }
+
+    return slopeBound(depth, _optionVal, MAX, MIN);
+  }
+
+  /**
+   * Returns the slope bound of the items below depth, with the options moving the
+   * given amounts (flat indices), for the given largest marginal EP of every stat
+   * gained and smallest of every stat lost.
+   */
+  public long slopeBound(int depth, int[] val, long[] max, long[] min) {
+    final int[] DEC = _optionDec;
+    final int[] INC = _optionInc;
+
+    long result = 0;
+    for (int k = depth + 1; k < _itemCount; ++k) {
+      long itemBound = 0;
+      for (int j = _optionStart[k]; j < _optionStart[k + 1]; ++j) {
+        itemBound = Math.max(itemBound, val[j] * (max[INC[j]] - min[DEC[j]]));
+      }
+      result += itemBound;
+    }
+    return result;
+  }
+
+  /**
+   * Adds to dec and inc the largest amount the item's options move every stat.
+   */
+  static void addReach(SearchSpace space, int item, int[] dec, int[] inc) {
+    int[] itemDec = new int[Stat.TYPE_COUNT];
+    int[] itemInc = new int[Stat.TYPE_COUNT];
+
+    for (int j = 0; j < space.optionCount(item); ++j) {
+      int d = space.decreased(item, j),
+          i = space.increased(item, j),
+          v = space.value(item, j);
+
+      itemDec[d] = Math.max(itemDec[d], v);
+      itemInc[i] = Math.max(itemInc[i], v);
+    }
+
+    for (int s = 0; s < Stat.TYPE_COUNT; ++s) {
+      dec[s] += itemDec[s];
+      inc[s] += itemInc[s];
+    }
+  }
+
+  /**
+   * Returns the suffix sums, in search order, of the largest amount every item's
+   * options move each stat, where option j moves stat[j] by val[j].
+   */
+  private int[][] remaining(int[] stat, int[] val) {
+    int[][] result = new int[_itemCount + 1][Stat.TYPE_COUNT];
+    for (int k = _itemCount - 1; k >= 0; --k) {
+      int[] item = new int[Stat.TYPE_COUNT];
+      for (int j = _optionStart[k]; j < _optionStart[k + 1]; ++j) {
+        item[stat[j]] = Math.max(item[stat[j]], val[j]);
+      }
+
+      for (int s = 0; s < Stat.TYPE_COUNT; ++s) {
+        result[k][s] = result[k + 1][s] + item[s];
+      }
+    }
+    return result;
+  }
+}
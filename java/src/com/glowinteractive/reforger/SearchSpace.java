@@ -0,0 +1,291 @@
+/**
+ * @author Luke Tyler Downey
+ * Copyright 2011 Glow Interactive
+ *
+ * This software contains original work and/or modifications to
+ * original work, which are redistributed under the following terms.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.glowinteractive.reforger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Immutable description of one reforging problem: the starting stats, the model
+ * to maximize and the reforge options of every reforgeable item.  Items without
+ * options are left out; option -1 always means "leave the item as it is".
+ * Options are numbered densely across items, in the order given, and each
+ * candidate's id must be its number.  An item whose options equal those of the
+ * item before it, in the same order, is marked symmetric (see Presolve).  The
+ * space also records which option, if any, is each item's current reforge.
+ */
+public final class SearchSpace {
+
+  private final AbstractModel _model;
+  private final int[]         _stats;
+  private final float         _baselineEP;
+
+  private final Item[]      _items;
+  private final Candidate[] _candidates;
+
+  // Options of item i are [_optionStart[i], _optionStart[i + 1]) in the flat arrays.
+  private final int[] _optionStart;
+  private final int[] _optionDec;
+  private final int[] _optionInc;
+  private final int[] _optionVal;
+
+  // Whether item i has the same options as item i - 1.
+  private final boolean[] _symmetric;
+
+  // Option of every item that its current reforge matches, or -1.
+  private final int[] _current;
+
+  public SearchSpace(AbstractModel model, int[] stats, List<? extends List<Candidate>> options) {
+    _model      = model;
+    _stats      = stats.clone();
+    _baselineEP = model.calculateEP(_stats);
+
+    int count = 0,
+        total = 0;
+    for (List<Candidate> itemOptions : options) {
+      if (!itemOptions.isEmpty()) {
+        ++count;
+        total += itemOptions.size();
+      }
+    }
+
+    _items       = new Item[count];
+    _candidates  = new Candidate[total];
+    _optionStart = new int[count + 1];
+    _optionDec   = new int[total];
+    _optionInc   = new int[total];
+    _optionVal   = new int[total];
+    _current     = new int[count];
+    Arrays.fill(_current, -1);
+
+    int item  = 0,
+        index = 0;
+    for (List<Candidate> itemOptions : options) {
+      if (itemOptions.isEmpty()) {
+        continue;
+      }
+
+      _items[item]       = itemOptions.get(0).item();
+      _optionStart[item] = index;
+
+      for (Candidate o : itemOptions) {
+        assert o.id() == index : "Error: candidate ids must number the options densely.";
+
+        _candidates[index] = o;
+        _optionDec[index]  = o.indexDecreased();
+        _optionInc[index]  = o.indexIncreased();
+        _optionVal[index]  = o.deltaValue();
+
+        if (o.delta().equals(o.item().currentReforging())) {
+          _current[item] = index - _optionStart[item];
+        }
+        ++index;
+      }
+
+      ++item;
+    }
+    _optionStart[count] = index;
+
+    _symmetric = new boolean[count];
+    for (int i = 1; i < count; ++i) {
+      _symmetric[i] = sameOptions(i - 1, i);
+    }
+  }
+
+  private SearchSpace(SearchSpace space, AbstractModel model) {
+    _model       = model;
+    _stats       = space._stats;
+    _baselineEP  = model.calculateEP(_stats);
+    _items       = space._items;
+    _candidates  = space._candidates;
+    _optionStart = space._optionStart;
+    _optionDec   = space._optionDec;
+    _optionInc   = space._optionInc;
+    _optionVal   = space._optionVal;
+    _symmetric   = space._symmetric;
+    _current     = space._current;
+  }
+
+  /**
+   * Builds the search space for a set of items from the model's candidate mappings.
+   */
+  public static SearchSpace forItems(AbstractModel model, int[] stats, List<Item> items) {
+    return forItems(model, model.candidateMappings(), stats, items);
+  }
+
+  /**
+   * Builds one search space for several models, from the union of their candidate
+   * mappings, so that their solves can share it.  An option is open to a model if
+   * its own mappings hold the option's pair of stats.  The space evaluates with the
+   * first model; see withModel.
+   */
+  public static SearchSpace forItems(AbstractModel[] models, int[] stats, List<Item> items) {
+    assert models.length > 0 : "Error: no models given.";
+
+    EnumMap<Stat, EnumSet<Stat>> mappings = new EnumMap<Stat, EnumSet<Stat>>(Stat.class);
+    for (AbstractModel model : models) {
+      EnumMap<Stat, EnumSet<Stat>> modelMappings = model.candidateMappings();
+
+      for (Stat s : modelMappings.keySet()) {
+        if (mappings.containsKey(s)) {
+          mappings.get(s).addAll(modelMappings.get(s));
+        } else {
+          mappings.put(s, EnumSet.copyOf(modelMappings.get(s)));
+        }
+      }
+    }
+
+    return forItems(models[0], mappings, stats, items);
+  }
+
+  private static SearchSpace forItems(AbstractModel model, EnumMap<Stat, EnumSet<Stat>> mappings,
+                                      int[] stats, List<Item> items) {
+    // Per item reforge candidate lists.
+    ArrayList<ArrayList<Candidate>> options = new ArrayList<ArrayList<Candidate>>(items.size());
+
+    int id = 0;
+    for (Item item : items) {
+      HashSet<StatKVMap>   itemCandidates = item.candidates(mappings);
+      ArrayList<Candidate> itemOptions    = new ArrayList<Candidate>(Stat.TYPE_COUNT);
+
+      for (StatKVMap delta : itemCandidates) {
+        itemOptions.add(new Candidate(item, delta, id++));
+      }
+
+      options.add(itemOptions);
+    }
+
+    return new SearchSpace(model, stats, options);
+  }
+
+  /**
+   * Returns the same items and options valued by another model.
+   */
+  public SearchSpace withModel(AbstractModel model) {
+    return new SearchSpace(this, model);
+  }
+
+  public AbstractModel model() {
+    return _model;
+  }
+
+  public int[] stats() {
+    return _stats.clone();
+  }
+
+  public float baselineEP() {
+    return _baselineEP;
+  }
+
+  public int itemCount() {
+    return _items.length;
+  }
+
+  public int optionCount(int item) {
+    return _optionStart[item + 1] - _optionStart[item];
+  }
+
+  public int candidateCount() {
+    return _optionDec.length;
+  }
+
+  public Item item(int item) {
+    return _items[item];
+  }
+
+  public Candidate candidate(int item, int option) {
+    return _candidates[_optionStart[item] + option];
+  }
+
+  /**
+   * Returns the candidate with the given id.
+   */
+  public Candidate candidate(int id) {
+    return _candidates[id];
+  }
+
+  public int decreased(int item, int option) {
+    return _optionDec[_optionStart[item] + option];
+  }
+
+  public int increased(int item, int option) {
+    return _optionInc[_optionStart[item] + option];
+  }
+
+  public int value(int item, int option) {
+    return _optionVal[_optionStart[item] + option];
+  }
+
+  /**
+   * Whether the item has the same options, in the same order, as the item before
+   * it.  Such items may trade options in any plan without changing its stats, so
+   * a solver need only consider plans in which their choices are ordered, under
+   * any one order of the options and "no reforge" that it applies to both alike.
+   */
+  public boolean symmetric(int item) {
+    return _symmetric[item];
+  }
+
+  /**
+   * Returns the plan of the character's current reforges: per item, the option
+   * its current reforge matches, or -1 if it has none or it is not an option.
+   */
+  public int[] current() {
+    return _current.clone();
+  }
+
+  /**
+   * Returns the stats reached by applying one option (or -1) per item.
+   */
+  public int[] apply(int[] options) {
+    assert options.length == itemCount() : "Error: option count does not match item count.";
+
+    int[] result = _stats.clone();
+    for (int i = 0; i < options.length; ++i) {
+      if (options[i] != -1) {
+        result[decreased(i, options[i])] -= value(i, options[i]);
+        result[increased(i, options[i])] += value(i, options[i]);
+      }
+    }
+    return result;
+  }
+
+  private boolean sameOptions(int a, int b) {
+    if (optionCount(a) != optionCount(b)) {
+      return false;
+    }
+
+    for (int j = 0; j < optionCount(a); ++j) {
+      if (decreased(a, j) != decreased(b, j) || increased(a, j) != increased(b, j)
+              || value(a, j) != value(b, j)) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+}
@@ -0,0 +1,481 @@
+/**
+ * @author Luke Tyler Downey
+ * Copyright 2011 Glow Interactive
+ *
+ * This software contains original work and/or modifications to
+ * original work, which are redistributed under the following terms.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.glowinteractive.reforger;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Ranges of the model's coefficients over which a solved plan stays optimal,
+ * e.g. how far the Mastery coefficient can move before another plan is better.
+ * Not reentrant.
+ *
+ * The coefficients are the slopes of the model's fixed-point segments: one per
+ * linear stat, one per segment of a capped stat.  Moving one slope by d changes
+ * the EP of every plan by d times the length of the segment its stat covers, so
+ * the EP of each plan is linear in d, and a plan overtakes the solved one where
+ * the two lines cross.  The end of the range in each direction is the nearest
+ * crossing of any plan, found by one search per coefficient and direction: the
+ * crossings of the plans one item away from the solved plan give a first end,
+ * and the search only looks for plans crossing before it, each one found moving
+ * the end nearer.  A node is bounded as in BranchAndBoundSolver, by the slope
+ * bound and, if there are few enough caps, the RelaxationBound, both under the
+ * model with the slope moved to the current end, and pruned when that bound
+ * does not exceed the solved plan's EP there.  As no plan beats the solved one
+ * at the model's own slope, a node is also pruned if its plans cannot cover
+ * more of the segment than the solved plan does (less, moving the slope
+ * down).  As the end only moves nearer, a node pruned for one end stays pruned
+ * for every later one, and a state (depth and stats) searched once need not be
+ * searched again: searched states are kept in a TranspositionTable, cleared for
+ * each search.
+ *
+ * No end is looked for beyond SPAN times the model's largest slope; such a range
+ * is reported as open there.  Segments whose length no plan can change are
+ * skipped before any search, as their coefficients move every plan alike: those
+ * of stats no option changes, and those the stat's reachable range, from its
+ * base value less everything the items can take to its base value plus
+ * everything they can add, lies wholly below or above.  The analysis may be
+ * given a wall-clock or node budget; the ends not yet found when it is spent are
+ * reported open, and complete() is false.  Items are searched in order of how
+ * far they can move the EP, options best first; work is in the model's fixed
+ * point.
+ */
+public final class SensitivityAnalysis {
+
+  // Largest distance looked at, in multiples of the model's largest slope.
+  public static final int SPAN = 2;
+
+  // As for BranchAndBoundSolver: the memory budget of the transposition table, in
+  // bytes, and the item levels a state must have beneath it to be memoized.
+  private static final long TRANSPOSITION_BUDGET  = 8L << 20;
+  private static final int  TRANSPOSITION_HORIZON = 5;
+
+  // The budgets are checked every this many nodes.
+  private static final int POLL_MASK = (1 << 10) - 1;
+
+  private FixedPointModel _model;
+  private int             _itemCount;
+
+  // Flat option arrays in search order: the options of item k are
+  // [_optionStart[k], _optionStart[k + 1]).
+  private int[] _optionStart;
+  private int[] _optionDec;
+  private int[] _optionInc;
+  private int[] _optionVal;
+
+  private SearchOrder _order;
+
+  // [first remaining item][stat]: how far the remaining items can move the stat.
+  private int[][] _remainingDec;
+  private int[][] _remainingInc;
+
+  private TranspositionTable _transpositions;
+  private long               _nodes;
+
+  // Budgets of each analysis (0 for none), its deadline, and whether it was
+  // stopped at one.
+  private long    _timeLimit;
+  private long    _nodeLimit;
+  private long    _deadline;
+  private boolean _stopped;
+
+  // Current search: the coefficient, the direction moved (1 or -1), and the
+  // solved plan's base EP and segment length.
+  private int  _stat;
+  private int  _segment;
+  private int  _sign;
+  private long _planEP;
+  private long _planLength;
+
+  // Nearest crossing found so far, as the fraction _endNum / _endDen (slope units);
+  // _delta is it rounded up, the slope change the bounds are taken at.
+  private long    _endNum;
+  private long    _endDen;
+  private boolean _crossed;
+  private long    _delta;
+
+  private FixedPointModel _perturbed;
+  private RelaxationBound _relaxation;
+  private long            _perturbedPlanEP;
+
+  /**
+   * Limits the wall-clock time of each analysis, in milliseconds; 0 for no limit.
+   */
+  public void setTimeLimit(long millis) {
+    _timeLimit = millis * 1000000L;
+  }
+
+  /**
+   * Limits the search nodes of each analysis; 0 for no limit.
+   */
+  public void setNodeLimit(long nodes) {
+    _nodeLimit = nodes;
+  }
+
+  /**
+   * Returns the range of every coefficient over which the plan, optimal for the
+   * space's model, stays optimal, by stat and then segment.
+   */
+  public List<Range> analyze(SearchSpace space, Solution solution) {
+    final int ITEM_COUNT = space.itemCount();
+
+    _model     = FixedPointModel.create(space.model());
+    _itemCount = ITEM_COUNT;
+    _nodes     = 0;
+    _deadline  = (_timeLimit > 0) ? System.nanoTime() + _timeLimit : 0;
+    _stopped   = false;
+
+    if (_transpositions == null) {
+      _transpositions = new TranspositionTable(TRANSPOSITION_BUDGET);
+    }
+
+    _order        = new SearchOrder(space, new FixedPointModel[] { _model }, true);
+    _optionStart  = _order.optionStart();
+    _optionDec    = _order.optionDec();
+    _optionInc    = _order.optionInc();
+    _optionVal    = _order.optionVal();
+    _remainingDec = _order.remainingDec();
+    _remainingInc = _order.remainingInc();
+
+    long largest = 0;
+    for (int s = 0; s < Stat.TYPE_COUNT; ++s) {
+      for (int k = 0; k <= _model.breakpoints(s).length; ++k) {
+        largest = Math.max(largest, Math.abs(_model.slope(s, k)));
+      }
+    }
+    final long LIMIT = Math.max(1, SPAN * largest);
+
+    final int[] PLAN       = _order.toSearchOrder(solution.options());
+    final int[] PLAN_STATS = space.apply(solution.options());
+    final int[] STATS      = space.stats();
+
+    List<Range> result = new ArrayList<Range>();
+    for (int s = 0; s < Stat.TYPE_COUNT; ++s) {
+      for (int k = 0; k <= _model.breakpoints(s).length; ++k) {
+        _stat    = s;
+        _segment = k;
+
+        // Every plan covers as much of the segment as any other.
+        if (length(STATS[s] - _remainingDec[0][s]) == length(STATS[s] + _remainingInc[0][s])) {
+          continue;
+        }
+
+        final long SLOPE = _model.slope(s, k);
+        float[]   end  = new float[2];
+        boolean[] open = new boolean[2];
+
+        for (int d = 0; d < 2; ++d) {
+          _sign       = (d == 0) ? -1 : 1;
+          _planEP     = _model.calculateEP(PLAN_STATS);
+          _planLength = length(PLAN_STATS[s]);
+          _crossed    = false;
+          _endNum     = LIMIT;
+          _endDen     = 1;
+          _delta      = LIMIT;
+
+          if (!_stopped) {
+            _transpositions.clear();
+            neighbours(space.stats(), PLAN);
+            rebound();
+            if (ITEM_COUNT > 0) {
+              search(0, space.stats());
+            }
+          }
+
+          if (_stopped) {
+            // The budget ran out before this end was found.
+            end[d]  = Float.NaN;
+            open[d] = true;
+          } else {
+            end[d]  = FixedPointModel.toEP(SLOPE)
+                      + _sign * (float) ((double) _endNum / _endDen / FixedPointModel.SCALE);
+            open[d] = !_crossed;
+          }
+        }
+        result.add(new Range(Stat.values()[s], k, _model.breakpoints(s), FixedPointModel.toEP(SLOPE),
+                             end[0], open[0], end[1], open[1]));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the number of search nodes of the last analysis.
+   */
+  public long nodes() {
+    return _nodes;
+  }
+
+  /**
+   * Returns whether the last analysis found every end, rather than stopping at a
+   * budget.
+   */
+  public boolean complete() {
+    return !_stopped;
+  }
+
+  @Override public String toString() {
+    return String.format("Sensitivity analysis (%d nodes)", _nodes);
+  }
+
+  /**
+   * Returns how much of the current segment a stat value covers: the factor of
+   * its slope in the stat's EP.
+   */
+  private long length(int value) {
+    final int[] POINTS = _model.breakpoints(_stat);
+
+    long high = (_segment < POINTS.length) ? Math.min(value, POINTS[_segment]) : value;
+    if (_segment == 0) {
+      return high;
+    }
+    return Math.max(0, high - POINTS[_segment - 1]);
+  }
+
+  /**
+   * Offers every plan differing from the solved one in one item.
+   */
+  private void neighbours(int[] base, int[] plan) {
+    int[] stats = base.clone();
+    for (int k = 0; k < _itemCount; ++k) {
+      if (plan[k] != -1) {
+        final int J = _optionStart[k] + plan[k];
+        stats[_optionDec[J]] -= _optionVal[J];
+        stats[_optionInc[J]] += _optionVal[J];
+      }
+    }
+
+    for (int k = 0; k < _itemCount; ++k) {
+      if (plan[k] != -1) {
+        final int J = _optionStart[k] + plan[k];
+        stats[_optionDec[J]] += _optionVal[J];
+        stats[_optionInc[J]] -= _optionVal[J];
+      }
+      offer(stats);
+
+      for (int j = _optionStart[k]; j < _optionStart[k + 1]; ++j) {
+        stats[_optionDec[j]] -= _optionVal[j];
+        stats[_optionInc[j]] += _optionVal[j];
+        offer(stats);
+        stats[_optionDec[j]] += _optionVal[j];
+        stats[_optionInc[j]] -= _optionVal[j];
+      }
+
+      if (plan[k] != -1) {
+        final int J = _optionStart[k] + plan[k];
+        stats[_optionDec[J]] -= _optionVal[J];
+        stats[_optionInc[J]] += _optionVal[J];
+      }
+    }
+  }
+
+  /**
+   * Moves the end nearer if a plan of the given final stats crosses the solved
+   * plan before it.
+   */
+  private void offer(int[] stats) {
+    final long RISE = _sign * (length(stats[_stat]) - _planLength);
+    if (RISE <= 0) {
+      return;
+    }
+
+    // The plan overtakes at (planEP - ep) / RISE; a plan already better (the
+    // solved plan is not optimal) overtakes at once.
+    final long GAP = Math.max(0, _planEP - _model.calculateEP(stats));
+    if (GAP * _endDen >= _endNum * RISE) {
+      return;
+    }
+
+    _endNum  = GAP;
+    _endDen  = RISE;
+    _crossed = true;
+
+    final long DELTA = (GAP + RISE - 1) / RISE;
+    if (DELTA != _delta) {
+      _delta = DELTA;
+      rebound();
+    }
+  }
+
+  /**
+   * Rebuilds the model with the current slope moved to the current end, and its
+   * bounds.
+   */
+  private void rebound() {
+    _perturbed = _model.withSlope(_stat, _segment, _model.slope(_stat, _segment) + _sign * _delta);
+    _relaxation = RelaxationBound.create(_perturbed, _optionStart, _optionDec, _optionInc, _optionVal,
+                                         _remainingDec, _remainingInc);
+    _perturbedPlanEP = _planEP + _sign * _delta * _planLength;
+  }
+
+  /**
+   * Tries every option of the item at depth, then "no reforge", on stats (updated
+   * in place and restored).
+   */
+  private void search(int depth, int[] stats) {
+    final int LAST = _itemCount - 1;
+    final int END  = _optionStart[depth + 1];
+
+    // A stopped search returns without trying further options.
+    for (int j = _optionStart[depth]; j <= END && !_stopped; ++j) {
+      if (j < END) {
+        stats[_optionDec[j]] -= _optionVal[j];
+        stats[_optionInc[j]] += _optionVal[j];
+      }
+      if ((++_nodes & POLL_MASK) == 0) {
+        poll();
+      }
+
+      if (depth == LAST) {
+        offer(stats);
+      } else if (!searched(depth, stats) && !pruned(depth, stats)) {
+        search(depth + 1, stats);
+
+        // A stopped search has not searched the state.
+        if (depth + TRANSPOSITION_HORIZON < _itemCount && !_stopped) {
+          _transpositions.store(depth, stats, 0);
+        }
+      }
+
+      if (j < END) {
+        stats[_optionDec[j]] += _optionVal[j];
+        stats[_optionInc[j]] -= _optionVal[j];
+      }
+    }
+  }
+
+  /**
+   * Stops the analysis if a budget is spent.
+   */
+  private void poll() {
+    if ((_nodeLimit > 0 && _nodes >= _nodeLimit) || (_deadline != 0 && System.nanoTime() - _deadline >= 0)) {
+      _stopped = true;
+    }
+  }
+
+  /**
+   * Returns whether a node's state was searched before in the current search.
+   * Every plan below it crossing before the current end would have been found
+   * then, as the end was no nearer.
+   */
+  private boolean searched(int depth, int[] stats) {
+    return depth + TRANSPOSITION_HORIZON < _itemCount
+            && _transpositions.bound(depth, stats) != Long.MAX_VALUE;
+  }
+
+  /**
+   * Returns whether no plan below a node, of the given stats after the item at
+   * depth, can beat the solved plan at the current end.
+   */
+  private boolean pruned(int depth, int[] stats) {
+    final int VALUE = (_sign > 0) ? stats[_stat] + _remainingInc[depth + 1][_stat]
+                                  : stats[_stat] - _remainingDec[depth + 1][_stat];
+    if (_sign * (length(VALUE) - _planLength) <= 0) {
+      return true;
+    }
+
+    final long NEED = _perturbedPlanEP - _perturbed.calculateEP(stats);
+
+    if (_order.slopeBound(_perturbed, depth, stats) <= NEED) {
+      return true;
+    }
+    return _relaxation != null && _relaxation.bound(depth, stats) <= NEED;
+  }
+
+  /**
+   * Range of one coefficient over which the plan stays optimal.  An open end is
+   * not a crossing: the limit looked at, or NaN if the analysis ran out of budget
+   * before finding the end.
+   */
+  public static final class Range {
+
+    private final Stat    _stat;
+    private final int     _segment;
+    private final int[]   _breakpoints;
+    private final float   _coefficient;
+    private final float   _low;
+    private final boolean _lowOpen;
+    private final float   _high;
+    private final boolean _highOpen;
+
+    public Range(Stat stat, int segment, int[] breakpoints, float coefficient,
+                 float low, boolean lowOpen, float high, boolean highOpen) {
+      _stat        = stat;
+      _segment     = segment;
+      _breakpoints = breakpoints.clone();
+      _coefficient = coefficient;
+      _low         = low;
+      _lowOpen     = lowOpen;
+      _high        = high;
+      _highOpen    = highOpen;
+    }
+
+    public Stat stat() {
+      return _stat;
+    }
+
+    /**
+     * Returns the segment of the stat's breakpoints the coefficient applies to.
+     */
+    public int segment() {
+      return _segment;
+    }
+
+    public float coefficient() {
+      return _coefficient;
+    }
+
+    public float low() {
+      return _low;
+    }
+
+    public boolean lowOpen() {
+      return _lowOpen;
+    }
+
+    public float high() {
+      return _high;
+    }
+
+    public boolean highOpen() {
+      return _highOpen;
+    }
+
+    @Override public String toString() {
+      String name = _stat.toString();
+      if (_breakpoints.length > 0) {
+        name += (_segment == 0) ? " to " + _breakpoints[0] : " above " + _breakpoints[_segment - 1];
+      }
+      return String.format("%s %.2f: %s to %s", name, _coefficient,
+              end(_low, _lowOpen, " or below"), end(_high, _highOpen, " or above"));
+    }
+
+    private static String end(float value, boolean open, String beyond) {
+      if (Float.isNaN(value)) {
+        return "?";
+      }
+      return String.format("%.2f", value) + (open ? beyond : "");
+    }
+  }
+}
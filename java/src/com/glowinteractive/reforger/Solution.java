@@ -0,0 +1,54 @@
+/**
+ * @author Luke Tyler Downey
+ * Copyright 2011 Glow Interactive
+ *
+ * This software contains original work and/or modifications to
+ * original work, which are redistributed under the following terms.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.glowinteractive.reforger;
+
+/**
+ * A reforge plan over a SearchSpace: one option index per item (-1 for none),
+ * together with the EP of the resulting stats.
+ */
+public final class Solution {
+
+  private final int[] _options;
+  private final float _ep;
+
+  public Solution(int[] options, float ep) {
+    _options = options.clone();
+    _ep      = ep;
+  }
+
+  public static Solution evaluate(SearchSpace space, int[] options) {
+    return new Solution(options, space.model().calculateEP(space.apply(options)));
+  }
+
+  public int[] options() {
+    return _options.clone();
+  }
+
+  public int option(int item) {
+    return _options[item];
+  }
+
+  public float ep() {
+    return _ep;
+  }
+}
@@ -40,16 +40,17 @@ package com.glowinteractive.reforger;
 
 public enum Stat {
 
-  // TODO: Additional ID's:
-  //     13 - Dodge
-  //     14 - Parry
+  // NOTE: Avoidance follows the offensive stats rather than ID order, so that the
+  //       offensive stats keep their ordinals.
 
                                 // Wowhead:       Blizzard:
   HIT(16, "Hit"             ),  // "hitrtng"      "hitRating"
   CRI(19, "Critical Strike" ),  // "critstrkrtng" "critRating"
   HST(28, "Haste"           ),  // "hastertng"    "hasteRating"
   EXP(37, "Expertise"       ),  // "exprtng"      "expertiseRating"
-  MST(49, "Mastery"         );  // "mastrtng"     "masteryRating"
+  MST(49, "Mastery"         ),  // "mastrtng"     "masteryRating"
+  DOD(13, "Dodge"           ),  // "dodgertng"    "dodgeRating"
+  PAR(14, "Parry"           );  // "parryrtng"    "parryRating"
 
   public static final int TYPE_COUNT = values().length;
 
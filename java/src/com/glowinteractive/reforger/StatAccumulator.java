@@ -0,0 +1,68 @@
+/**
+ * @author Luke Tyler Downey
+ * Copyright 2011 Glow Interactive
+ *
+ * This software contains original work and/or modifications to
+ * original work, which are redistributed under the following terms.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.glowinteractive.reforger;
+
+/**
+ * Mutable stat vector for building totals in place.
+ *
+ * StatKVMap is an immutable snapshot, so summing a set of them through add()
+ * allocates a map per term; an accumulator is allocated once, summed into, and
+ * snapshotted when the total is needed.  Not thread-safe.
+ */
+public final class StatAccumulator {
+
+  private final int[] _values;
+
+  public StatAccumulator() {
+    _values = new int[Stat.TYPE_COUNT];
+  }
+
+  public void add(Stat stat, int value) {
+    _values[stat.ordinal()] += value;
+  }
+
+  public void add(StatKVMap map) {
+    final PackedStats STATS = map.packed();
+    for (int s = 0; s < Stat.TYPE_COUNT; ++s) {
+      _values[s] += STATS.value(s);
+    }
+  }
+
+  /**
+   * Adds the mutable and immutable stats of every item.
+   */
+  public void addItems(Iterable<Item> items) {
+    for (Item i : items) {
+      add(i.mutableStats());
+      add(i.immutableStats());
+    }
+  }
+
+  public int[] data() {
+    return _values.clone();
+  }
+
+  public StatKVMap snapshot() {
+    return new StatKVMap(PackedStats.pack(_values));
+  }
+}
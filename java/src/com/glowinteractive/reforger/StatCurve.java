@@ -0,0 +1,135 @@
+/**
+ * @author Luke Tyler Downey
+ * Copyright 2011 Glow Interactive
+ *
+ * This software contains original work and/or modifications to
+ * original work, which are redistributed under the following terms.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.glowinteractive.reforger;
+
+/**
+ * Piecewise-linear EP of one stat as a function of its rating.
+ *
+ * The curve is given by ascending breakpoints p[0..n) and n + 1 slopes; segment k
+ * covers the values (p[k - 1], p[k]] and the first segment passes through zero.
+ * Every curve is compiled into a dense table of EP per rating over [0, TABLE_SIZE),
+ * which holds every value a character realistically has, so evaluating it costs
+ * one lookup whatever the number of breakpoints.  Values outside the table fall
+ * back to a scan of the segments.  Immutable.
+ */
+public final class StatCurve {
+
+  // NOTE: 16 KB per stat; well above any stat total of current gear.  Lookups near
+  //       a character's own stats touch only a few cache lines of it.
+  private static final int TABLE_SIZE = 1 << 12;
+
+  private final int[]   _points;
+  private final float[] _slopes;
+
+  // Per segment: first value (exclusive, 0 for the first) and the EP there.
+  private final int[]    _starts;
+  private final double[] _bases;
+
+  private final float[] _table;
+
+  public StatCurve(int[] points, float[] slopes) {
+    assert slopes.length == points.length + 1 : "Error: a curve needs one slope per segment.";
+
+    _points = points.clone();
+    _slopes = slopes.clone();
+    _starts = new int[slopes.length];
+    _bases  = new double[slopes.length];
+
+    for (int k = 1; k < slopes.length; ++k) {
+      assert k == 1 || points[k - 1] > points[k - 2] : "Error: breakpoints must ascend.";
+
+      _starts[k] = points[k - 1];
+      _bases[k]  = _bases[k - 1] + (double) (_starts[k] - _starts[k - 1]) * slopes[k - 1];
+    }
+
+    _table = new float[TABLE_SIZE];
+    for (int x = 0; x < _table.length; ++x) {
+      _table[x] = segmentValue(x);
+    }
+  }
+
+  public static StatCurve linear(float slope) {
+    return new StatCurve(new int[0], new float[] { slope });
+  }
+
+  /**
+   * A curve with one cap: slope below it up to and including the cap, capped
+   * slope above.
+   */
+  public static StatCurve capped(int cap, float slope, float cappedSlope) {
+    return new StatCurve(new int[] { cap }, new float[] { slope, cappedSlope });
+  }
+
+  public boolean isLinear() {
+    return _points.length == 0;
+  }
+
+  /**
+   * Returns the EP of the stat at the given rating.
+   */
+  public float value(int x) {
+    if (x >= 0 && x < TABLE_SIZE) {
+      return _table[x];
+    }
+    return segmentValue(x);
+  }
+
+  /**
+   * Largest and smallest slope of the segments that hold any value in [low, high].
+   */
+  public float marginalMax(int low, int high) {
+    float result = Float.NEGATIVE_INFINITY;
+    for (int k = 0; k < _slopes.length; ++k) {
+      if (holds(k, low, high)) {
+        result = Math.max(result, _slopes[k]);
+      }
+    }
+    return result;
+  }
+
+  public float marginalMin(int low, int high) {
+    float result = Float.POSITIVE_INFINITY;
+    for (int k = 0; k < _slopes.length; ++k) {
+      if (holds(k, low, high)) {
+        result = Math.min(result, _slopes[k]);
+      }
+    }
+    return result;
+  }
+
+  public int[] breakpoints() {
+    return _points.clone();
+  }
+
+  private float segmentValue(int x) {
+    int k = 0;
+    while (k < _points.length && x > _points[k]) {
+      ++k;
+    }
+    return (float) (_bases[k] + (double) (x - _starts[k]) * _slopes[k]);
+  }
+
+  private boolean holds(int k, int low, int high) {
+    return (k == _points.length || low <= _points[k]) && (k == 0 || high > _points[k - 1]);
+  }
+}
@@ -38,114 +38,113 @@
 
 package com.glowinteractive.reforger;
 
-import java.util.Arrays;
 import java.util.Map.Entry;
 
+/**
+ * Immutable stat vector, held packed; see PackedStats.
+ */
 public final class StatKVMap {
 
-  private final int[] _data;
+  private final PackedStats _stats;
 
   public StatKVMap() {
-    _data = new int[Stat.TYPE_COUNT];
+    _stats = PackedStats.ZERO;
   }
 
   public StatKVMap(StatKVPair... pairs) {
-    this();
-
     assert pairs.length - 1 < Stat.TYPE_COUNT :
             "Error: attempted to initialize a StatMap with invalid data size.";
 
+    int[] data = new int[Stat.TYPE_COUNT];
     for (StatKVPair s : pairs) {
-      _data[s.key().ordinal()] = s.value();
+      data[s.key().ordinal()] = s.value();
     }
+    _stats = PackedStats.pack(data);
   }
 
   public StatKVMap(Entry<Stat, Integer>... pairs) {
-    this();
-
     assert pairs.length - 1 < Stat.TYPE_COUNT :
             "Error: attempted to initialize a StatMap with invalid data size.";
 
+    int[] data = new int[Stat.TYPE_COUNT];
     for (Entry<Stat, Integer> s : pairs) {
-      _data[s.getKey().ordinal()] = s.getValue();
+      data[s.getKey().ordinal()] = s.getValue();
     }
+    _stats = PackedStats.pack(data);
   }
 
   public StatKVMap(Stat decrease, Stat increase, int delta) {
-    this();
-
-    _data[decrease.ordinal()] = -delta;
-    _data[increase.ordinal()] =  delta;
+    _stats = PackedStats.of(decrease.ordinal(), -delta).add(PackedStats.of(increase.ordinal(), delta));
   }
 
   public StatKVMap(int data[]) {
     assert data.length == Stat.TYPE_COUNT :
             "Error: attempted to initialize a StatMap with invalid data size.";
 
-    _data = data;
+    _stats = PackedStats.pack(data);
+  }
+
+  public StatKVMap(PackedStats stats) {
+    _stats = stats;
   }
 
   public StatKVMap add(StatKVMap other) {
-    int[] sum = new int[Stat.TYPE_COUNT];
-    for (int i = 0; i < Stat.TYPE_COUNT; ++i) {
-      sum[i] = _data[i] + other._data[i];
-    }
-    return new StatKVMap(sum);
+    return new StatKVMap(_stats.add(other._stats));
   }
 
   public StatKVMap add(StatKVPair... pairs) {
-    int[] sum = _data.clone();
+    PackedStats sum = _stats;
     for (StatKVPair s : pairs) {
-      sum[s.key().ordinal()] += s.value();
+      sum = sum.add(PackedStats.of(s.key().ordinal(), s.value()));
     }
     return new StatKVMap(sum);
   }
 
   public StatKVMap add(Entry<Stat, Integer>... pairs) {
-    int[] sum = _data.clone();
+    PackedStats sum = _stats;
     for (Entry<Stat, Integer> s : pairs) {
-      sum[s.getKey().ordinal()] += s.getValue();
+      sum = sum.add(PackedStats.of(s.getKey().ordinal(), s.getValue()));
     }
     return new StatKVMap(sum);
   }
 
   public StatKVMap subtract(StatKVMap other) {
-    int[] diff = new int[Stat.TYPE_COUNT];
-    for (int i = 0; i < Stat.TYPE_COUNT; ++i) {
-      diff[i] = _data[i] - other._data[i];
-    }
-    return new StatKVMap(diff);
+    return new StatKVMap(_stats.subtract(other._stats));
   }
 
   public StatKVMap subtract(StatKVPair... pairs) {
-    int[] diff = _data.clone();
+    PackedStats diff = _stats;
     for (StatKVPair s : pairs) {
-      diff[s.key().ordinal()] -= s.value();
+      diff = diff.subtract(PackedStats.of(s.key().ordinal(), s.value()));
     }
     return new StatKVMap(diff);
   }
 
   public StatKVMap subtract(Entry<Stat, Integer>... pairs) {
-    int diff[] = _data.clone();
+    PackedStats diff = _stats;
     for (Entry<Stat, Integer> s : pairs) {
-      diff[s.getKey().ordinal()] -= s.getValue();
+      diff = diff.subtract(PackedStats.of(s.getKey().ordinal(), s.getValue()));
     }
     return new StatKVMap(diff);
   }
 
   public int[] data() {
-    return _data.clone();
+    return _stats.unpack();
+  }
+
+  public PackedStats packed() {
+    return _stats;
   }
 
   public int value(Stat stat) {
-    return _data[stat.ordinal()];
+    return _stats.value(stat.ordinal());
   }
 
   @Override public String toString() {
     StringBuilder builder = new StringBuilder(60);
 
     for (Stat s : Stat.values()) {
-      builder.append(String.format("    %5d", _data[s.ordinal()]))
+      builder.append(String.format("    %5d", value(s)))
              .append(" ")
              .append(s.shortName());
 
@@ -161,7 +160,7 @@ public final class StatKVMap {
     StringBuilder builder = new StringBuilder(60);
 
     for (Stat s : Stat.values()) {
-      builder.append(String.format("    %+5d", _data[s.ordinal()]))
+      builder.append(String.format("    %+5d", value(s)))
              .append(" ")
              .append(s.shortName());
 
@@ -174,19 +173,10 @@ public final class StatKVMap {
   }
 
   @Override public boolean equals(Object other) {
-    if (other instanceof StatKVMap) {
-      StatKVMap o = (StatKVMap) other;
-      for (int i = 0; i < o._data.length; ++i) {
-        if (_data[i] != o._data[i]) {
-          return false;
-        }
-      }
-      return true;
-    }
-    return false;
+    return other instanceof StatKVMap && _stats.equals(((StatKVMap) other)._stats);
   }
 
   @Override public int hashCode() {
-    return Arrays.hashCode(_data);
+    return _stats.hashCode();
   }
 }
@@ -25,14 +25,14 @@ package com.glowinteractive.reforger;
 public final class StatKVPair implements Comparable<StatKVPair> {
 
   private final Stat    _key;
-  private final Integer _value;
+  private final int     _value;
 
   public StatKVPair(Stat key) {
     _key   = key;
     _value = 0;
   }
 
-  public StatKVPair(Stat key, Integer value) {
+  public StatKVPair(Stat key, int value) {
     _key   = key;
     _value = value;
   }
@@ -41,7 +41,7 @@ public final class StatKVPair implements Comparable<StatKVPair> {
     return _key;
   }
 
-  public Integer value() {
+  public int value() {
     return _value;
   }
 
@@ -56,7 +56,7 @@ public final class StatKVPair implements Comparable<StatKVPair> {
   @Override public int hashCode() {
     int hash = 7;
     hash += (  _key != null) ?   _key.hashCode() : 0;
-    hash += (_value != null) ? _value.hashCode() : 0;
+    hash += _value;
     return hash;
   }
 
@@ -66,7 +66,7 @@ public final class StatKVPair implements Comparable<StatKVPair> {
 
   @Override public int compareTo(StatKVPair other) {
     if (_key == other._key) {
-      return _value.compareTo(other._value);
+      return (_value < other._value) ? -1 : (_value == other._value) ? 0 : 1;
     }
     return _key.compareTo(other._key);
   }
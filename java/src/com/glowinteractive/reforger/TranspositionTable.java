@@ -0,0 +1,224 @@
+/**
+ * @author Luke Tyler Downey
+ * Copyright 2011 Glow Interactive
+ *
+ * This software contains original work and/or modifications to
+ * original work, which are redistributed under the following terms.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.glowinteractive.reforger;
+
+import java.util.Arrays;
+
+/**
+ * Bounded memo of search states keyed on (depth, stat vector); the vector is kept
+ * packed (see PackedStats), so a key compares as an int and two longs.
+ *
+ * Each entry holds an upper bound on the best fixed-point EP reachable from its
+ * state: the best suffix EP found when the state was last searched, or the
+ * incumbent it was searched against if part of the subtree was pruned.  Storage
+ * is a fixed set of primitive arrays sized from a byte budget; buckets are 4-way
+ * associative and evict with a clock sweep.  Buckets are guarded by striped locks
+ * so that all search tasks can share one table.
+ */
+public final class TranspositionTable {
+
+  private static final int WAYS  = 4;
+  private static final int LOCKS = 256;
+
+  private static final byte SLOT_EMPTY      = 0;
+  private static final byte SLOT_RESIDENT   = 1;
+  private static final byte SLOT_REFERENCED = 2;
+
+  private final int _bucketMask;
+
+  // Per slot: depth, and the state's stats as the two words of a PackedStats.
+  private final int[]  _depths;
+  private final long[] _lows;
+  private final long[] _highs;
+  private final long[] _bounds;
+  private final byte[] _slots;
+  private final byte[] _hands;
+
+  private final Object[] _locks;
+
+  // Counters are kept per lock stripe and only touched while the stripe is held.
+  private final long[] _probes;
+  private final long[] _hits;
+  private final long[] _evictions;
+
+  public TranspositionTable(long budget) {
+    long slotBytes = 4 + 8 + 8 + 8 + 1;
+    long buckets = Math.max(1L, budget / (slotBytes * WAYS));
+    int  count   = Integer.highestOneBit((int) Math.min(buckets, 1 << 24));
+
+    _bucketMask = count - 1;
+
+    _depths = new int[count * WAYS];
+    _lows   = new long[count * WAYS];
+    _highs  = new long[count * WAYS];
+    _bounds = new long[count * WAYS];
+    _slots  = new byte[count * WAYS];
+    _hands  = new byte[count];
+
+    _locks = new Object[LOCKS];
+    for (int i = 0; i < LOCKS; ++i) {
+      _locks[i] = new Object();
+    }
+
+    _probes    = new long[LOCKS];
+    _hits      = new long[LOCKS];
+    _evictions = new long[LOCKS];
+  }
+
+  /**
+   * Returns the stored upper bound for the state, or Long.MAX_VALUE if the state
+   * is not resident.
+   */
+  public long bound(int depth, int[] stats) {
+    final long LOW    = PackedStats.low(stats);
+    final long HIGH   = PackedStats.high(stats);
+    final int  bucket = bucket(depth, LOW, HIGH);
+    final int  stripe = bucket & (LOCKS - 1);
+
+    synchronized (_locks[stripe]) {
+      ++_probes[stripe];
+
+      int slot = find(bucket, depth, LOW, HIGH);
+      if (slot == -1) {
+        return Long.MAX_VALUE;
+      }
+
+      ++_hits[stripe];
+      _slots[slot] = SLOT_REFERENCED;
+      return _bounds[slot];
+    }
+  }
+
+  public void store(int depth, int[] stats, long bound) {
+    final long LOW    = PackedStats.low(stats);
+    final long HIGH   = PackedStats.high(stats);
+    final int  bucket = bucket(depth, LOW, HIGH);
+    final int  stripe = bucket & (LOCKS - 1);
+
+    synchronized (_locks[stripe]) {
+      int slot = find(bucket, depth, LOW, HIGH);
+
+      if (slot != -1) {
+        // Both bounds are valid; keep the tighter one.
+        if (bound < _bounds[slot]) {
+          _bounds[slot] = bound;
+        }
+        _slots[slot] = SLOT_REFERENCED;
+        return;
+      }
+
+      slot = victim(bucket, stripe);
+
+      _depths[slot] = depth;
+      _lows[slot]   = LOW;
+      _highs[slot]  = HIGH;
+      _bounds[slot] = bound;
+      _slots[slot]  = SLOT_RESIDENT;
+    }
+  }
+
+  public long probes() {
+    return sum(_probes);
+  }
+
+  public long hits() {
+    return sum(_hits);
+  }
+
+  public long evictions() {
+    return sum(_evictions);
+  }
+
+  public float hitRate() {
+    long probes = probes();
+    return (probes == 0) ? 0.0f : (float) hits() / probes;
+  }
+
+  public int capacity() {
+    return _slots.length;
+  }
+
+  public void clear() {
+    for (int i = 0; i < LOCKS; ++i) {
+      synchronized (_locks[i]) {
+        for (int bucket = i; bucket <= _bucketMask; bucket += LOCKS) {
+          Arrays.fill(_slots, bucket * WAYS, (bucket + 1) * WAYS, SLOT_EMPTY);
+        }
+        _probes[i]    = 0;
+        _hits[i]      = 0;
+        _evictions[i] = 0;
+      }
+    }
+  }
+
+  @Override public String toString() {
+    return String.format("%d probes, %.1f%% hits, %d evictions (%d slots)",
+            probes(), 100.0f * hitRate(), evictions(), capacity());
+  }
+
+  private int find(int bucket, int depth, long low, long high) {
+    final int first = bucket * WAYS;
+
+    for (int slot = first; slot < first + WAYS; ++slot) {
+      if (_slots[slot] != SLOT_EMPTY && _lows[slot] == low && _highs[slot] == high && _depths[slot] == depth) {
+        return slot;
+      }
+    }
+
+    return -1;
+  }
+
+  private int victim(int bucket, int stripe) {
+    final int first = bucket * WAYS;
+
+    for (int slot = first; slot < first + WAYS; ++slot) {
+      if (_slots[slot] == SLOT_EMPTY) {
+        return slot;
+      }
+    }
+
+    // Clock sweep: referenced slots get a second chance.
+    int hand = _hands[bucket];
+    while (_slots[first + hand] == SLOT_REFERENCED) {
+      _slots[first + hand] = SLOT_RESIDENT;
+      hand = (hand + 1) % WAYS;
+    }
+
+    _hands[bucket] = (byte) ((hand + 1) % WAYS);
+    ++_evictions[stripe];
+
+    return first + hand;
+  }
+
+  private int bucket(int depth, long low, long high) {
+    return PackedStats.hash(low, high ^ ((long) depth << 48)) & _bucketMask;
+  }
+
+  private static long sum(long[] values) {
+    long result = 0;
+    for (long v : values) {
+      result += v;
+    }
+    return result;
+  }
+}
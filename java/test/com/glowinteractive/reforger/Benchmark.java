@@ -0,0 +1,696 @@
+/**
+ * @author Luke Tyler Downey
+ * Copyright 2011 Glow Interactive
+ *
+ * This software contains original work and/or modifications to
+ * original work, which are redistributed under the following terms.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.glowinteractive.reforger;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Solver benchmark on the SyntheticSpaces characters, so that runs need no
+ * Armory access and are repeatable.  It is built with the tests and run from
+ * their classpath.  Usage: Benchmark [items] [characters] [profiles]
+ * where profiles are names or files as for ProfileModel.load, separated by
+ * commas; the solvers run on the first, and the default is Model.
+ *
+ * After the solvers, EP evaluation is timed in float, in fixed point, and in fixed
+ * point batched over all options of a character.  Given several profiles, one
+ * BranchAndBoundSolver pass over all of them is then timed against a solve per
+ * model, and a ParetoSolver pass over the first two against a solve under each.
+ * The five offensive stats of Model are then timed against the seven stats of
+ * AvoidanceModel.  Last, the MeetInTheMiddleSolver, the HeuristicSolver and the
+ * PortfolioSolver are compared with the relaxed solver, the heuristic also timed
+ * alone on characters with many times the items, the relaxed solver's search
+ * for the TOP_PLANS best plans is timed against its search for the best, and the
+ * SensitivityAnalysis of its plan against the solve.
+ */
+public final class Benchmark {
+
+  private static final int WARMUP_CHARACTERS = 3;
+
+  // Passes over every option of a character when timing EP evaluation.
+  private static final int EVALUATION_PASSES = 20000;
+
+  // Item counts of the heuristic's stress characters, as multiples of the items.
+  private static final int[] STRESS_FACTORS = { 4, 16, 64 };
+
+  // Plans asked of the K best search.
+  private static final int TOP_PLANS = 10;
+
+  public static void main(String[] args) {
+    final int ITEMS      = (args.length > 0) ? Integer.parseInt(args[0]) : 12;
+    final int CHARACTERS = (args.length > 1) ? Integer.parseInt(args[1]) : 10;
+
+    String[]        profiles = (args.length > 2) ? args[2].split(",") : new String[0];
+    AbstractModel[] models   = new AbstractModel[Math.max(profiles.length, 1)];
+
+    models[0] = new Model();
+    for (int i = 0; i < profiles.length; ++i) {
+      models[i] = ProfileModel.load(profiles[i].trim());
+    }
+
+    AbstractModel model = models[0];
+
+    String[] labels = { "uninformed", "informed", "relaxed" };
+    BranchAndBoundSolver[] solvers = {
+      new BranchAndBoundSolver(false),
+      new BranchAndBoundSolver(true),
+      new BranchAndBoundSolver(true, true)
+    };
+
+    for (int seed = 0; seed < WARMUP_CHARACTERS; ++seed) {
+      SearchSpace space = SyntheticSpaces.create(model, seed, ITEMS);
+      for (BranchAndBoundSolver solver : solvers) {
+        solver.solve(space);
+      }
+    }
+
+    System.out.println(String.format("%d characters, %d items each, %s.", CHARACTERS, ITEMS, model));
+
+    StringBuilder header = new StringBuilder(String.format("%4s", "#"));
+    for (String label : labels) {
+      header.append(String.format(" %14s %10s", label + " nodes", "ms"));
+    }
+    System.out.println(header);
+
+    long[] nodes = new long[solvers.length],
+           times = new long[solvers.length];
+
+    for (int seed = 0; seed < CHARACTERS; ++seed) {
+      SearchSpace space = SyntheticSpaces.create(model, seed, ITEMS);
+      StringBuilder row = new StringBuilder(String.format("%4d", seed));
+      float ep = Float.NaN;
+
+      for (int i = 0; i < solvers.length; ++i) {
+        long start = System.nanoTime();
+        Solution solution = solvers[i].solve(space);
+        long time = System.nanoTime() - start;
+
+        if (i != 0 && solution.ep() != ep) {
+          System.out.println(String.format("  Warning: EP mismatch (%.2f vs %.2f).", ep, solution.ep()));
+        }
+        ep = solution.ep();
+
+        nodes[i] += solvers[i].nodes();
+        times[i] += time;
+        row.append(String.format(" %14d %10.1f", solvers[i].nodes(), time / 1e6));
+      }
+
+      System.out.println(row);
+    }
+
+    StringBuilder total = new StringBuilder(String.format("%4s", "sum"));
+    for (int i = 0; i < solvers.length; ++i) {
+      total.append(String.format(" %14d %10.1f", nodes[i], times[i] / 1e6));
+    }
+    System.out.println(total);
+
+    compareEvaluation(model, ITEMS, CHARACTERS);
+    comparePresolve(model, ITEMS, CHARACTERS);
+
+    if (models.length > 1) {
+      compareModels(models, ITEMS, CHARACTERS);
+      comparePareto(models[0], models[1], ITEMS, CHARACTERS);
+    }
+
+    compareDimensions(ITEMS, CHARACTERS);
+    compareMeetInTheMiddle(model, ITEMS, CHARACTERS);
+    compareHeuristic(model, ITEMS, CHARACTERS);
+    comparePortfolio(model, ITEMS, CHARACTERS);
+    compareTopPlans(model, ITEMS, CHARACTERS);
+    compareSensitivity(model, ITEMS, CHARACTERS);
+  }
+
+  /**
+   * Times the MeetInTheMiddleSolver against the relaxed solver, if it accepts the
+   * characters.
+   */
+  private static void compareMeetInTheMiddle(AbstractModel model, int items, int characters) {
+    BranchAndBoundSolver  exact  = new BranchAndBoundSolver(true, true);
+    MeetInTheMiddleSolver middle = new MeetInTheMiddleSolver();
+
+    System.out.println();
+    if (!middle.accepts(SyntheticSpaces.create(model, 0, items))) {
+      System.out.println("Meet in the middle declines " + items + " items.");
+      return;
+    }
+
+    for (int seed = 0; seed < WARMUP_CHARACTERS; ++seed) {
+      SearchSpace space = SyntheticSpaces.create(model, seed, items);
+      exact.solve(space);
+      middle.solve(space);
+    }
+
+    System.out.println(String.format("%4s %10s %10s %12s %10s", "#", "exact ms", "ms", "half plans", "groups"));
+
+    long exactTime = 0, middleTime = 0;
+
+    for (int seed = 0; seed < characters; ++seed) {
+      SearchSpace space = SyntheticSpaces.create(model, seed, items);
+
+      long start = System.nanoTime();
+      float ep = exact.solve(space).ep();
+      long exactElapsed = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      Solution solution = middle.solve(space);
+      long middleElapsed = System.nanoTime() - start;
+
+      // NOTE: Equivalent plans may differ in the last bits of their float EP.
+      if (Math.abs(solution.ep() - ep) > 0.01f) {
+        System.out.println(String.format("  Warning: EP mismatch (%.2f vs %.2f).", ep, solution.ep()));
+      }
+
+      exactTime  += exactElapsed;
+      middleTime += middleElapsed;
+
+      System.out.println(String.format("%4d %10.1f %10.1f %12d %10d", seed, exactElapsed / 1e6,
+              middleElapsed / 1e6, middle.plans(), middle.groups()));
+    }
+
+    System.out.println(String.format("%4s %10.1f %10.1f", "sum", exactTime / 1e6, middleTime / 1e6));
+  }
+
+  /**
+   * Compares the HeuristicSolver's plans and time with the relaxed solver's, then
+   * times it on characters with STRESS_FACTORS times the items.
+   */
+  private static void compareHeuristic(AbstractModel model, int items, int characters) {
+    BranchAndBoundSolver exact     = new BranchAndBoundSolver(true, true);
+    HeuristicSolver      heuristic = new HeuristicSolver();
+
+    for (int seed = 0; seed < WARMUP_CHARACTERS; ++seed) {
+      SearchSpace space = SyntheticSpaces.create(model, seed, items);
+      exact.solve(space);
+      heuristic.solve(space);
+    }
+
+    System.out.println();
+    System.out.println(heuristic + ".");
+    System.out.println(String.format("%4s %10s %10s %10s %10s", "#", "exact ms", "ms", "EP lost", "gap"));
+
+    long  exactTime = 0, heuristicTime = 0;
+    float lost = 0.0f, gap = 0.0f;
+
+    for (int seed = 0; seed < characters; ++seed) {
+      SearchSpace space = SyntheticSpaces.create(model, seed, items);
+
+      long start = System.nanoTime();
+      float ep = exact.solve(space).ep();
+      long exactElapsed = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      Solution solution = heuristic.solve(space);
+      long heuristicElapsed = System.nanoTime() - start;
+
+      exactTime     += exactElapsed;
+      heuristicTime += heuristicElapsed;
+      lost          += ep - solution.ep();
+      gap           += heuristic.gap();
+
+      System.out.println(String.format("%4d %10.1f %10.1f %10.2f %10.2f", seed, exactElapsed / 1e6,
+              heuristicElapsed / 1e6, ep - solution.ep(), heuristic.gap()));
+    }
+
+    System.out.println(String.format("%4s %10.1f %10.1f %10.2f %10.2f",
+            "sum", exactTime / 1e6, heuristicTime / 1e6, lost, gap));
+
+    System.out.println();
+    System.out.println(String.format("%6s %10s %10s %10s", "items", "ms", "ms/item", "gap"));
+
+    for (int factor : STRESS_FACTORS) {
+      SearchSpace space = SyntheticSpaces.create(model, 0, items * factor);
+
+      long start = System.nanoTime();
+      heuristic.solve(space);
+      long elapsed = System.nanoTime() - start;
+
+      System.out.println(String.format("%6d %10.1f %10.3f %10.2f", items * factor, elapsed / 1e6,
+              elapsed / 1e6 / (items * factor), heuristic.gap()));
+    }
+  }
+
+  /**
+   * Times the PortfolioSolver against the relaxed solver, with its estimate and
+   * the engine whose result it returned.
+   */
+  private static void comparePortfolio(AbstractModel model, int items, int characters) {
+    BranchAndBoundSolver exact     = new BranchAndBoundSolver(true, true);
+    PortfolioSolver      portfolio = new PortfolioSolver();
+
+    for (int seed = 0; seed < WARMUP_CHARACTERS; ++seed) {
+      SearchSpace space = SyntheticSpaces.create(model, seed, items);
+      exact.solve(space);
+      portfolio.solve(space);
+    }
+
+    System.out.println();
+    System.out.println(String.format("%4s %10s %10s %8s  %s", "#", "exact ms", "ms", "bits", "engine"));
+
+    long exactTime = 0, portfolioTime = 0;
+
+    for (int seed = 0; seed < characters; ++seed) {
+      SearchSpace space = SyntheticSpaces.create(model, seed, items);
+
+      long start = System.nanoTime();
+      float ep = exact.solve(space).ep();
+      long exactElapsed = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      Solution solution = portfolio.solve(space);
+      long portfolioElapsed = System.nanoTime() - start;
+
+      // NOTE: Equivalent plans may differ in the last bits of their float EP.
+      if (Math.abs(solution.ep() - ep) > 0.01f) {
+        System.out.println(String.format("  Warning: EP mismatch (%.2f vs %.2f).", ep, solution.ep()));
+      }
+
+      exactTime     += exactElapsed;
+      portfolioTime += portfolioElapsed;
+
+      System.out.println(String.format("%4d %10.1f %10.1f %8.1f  %s", seed, exactElapsed / 1e6,
+              portfolioElapsed / 1e6, portfolio.lastEstimate(), portfolio.winner()));
+    }
+
+    System.out.println(String.format("%4s %10.1f %10.1f", "sum", exactTime / 1e6, portfolioTime / 1e6));
+  }
+
+  /**
+   * Times the relaxed solver's search for the TOP_PLANS best plans against its
+   * search for the best, with the EP of the last plan.
+   */
+  private static void compareTopPlans(AbstractModel model, int items, int characters) {
+    BranchAndBoundSolver solver = new BranchAndBoundSolver(true, true);
+
+    for (int seed = 0; seed < WARMUP_CHARACTERS; ++seed) {
+      SearchSpace space = SyntheticSpaces.create(model, seed, items);
+      solver.solve(space);
+      solver.solve(space, TOP_PLANS);
+    }
+
+    System.out.println();
+    System.out.println(String.format("%4s %10s %10s %12s %10s %10s", "#", "best ms", "top ms",
+            "top nodes", "best EP", "last EP"));
+
+    long bestTime = 0, topTime = 0;
+
+    for (int seed = 0; seed < characters; ++seed) {
+      SearchSpace space = SyntheticSpaces.create(model, seed, items);
+
+      long start = System.nanoTime();
+      float ep = solver.solve(space).ep();
+      long bestElapsed = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      List<Solution> plans = solver.solve(space, TOP_PLANS);
+      long topElapsed = System.nanoTime() - start;
+
+      // NOTE: Equivalent plans may differ in the last bits of their float EP.
+      if (Math.abs(plans.get(0).ep() - ep) > 0.01f) {
+        System.out.println(String.format("  Warning: EP mismatch (%.2f vs %.2f).", ep, plans.get(0).ep()));
+      }
+
+      bestTime += bestElapsed;
+      topTime  += topElapsed;
+
+      System.out.println(String.format("%4d %10.1f %10.1f %12d %10.1f %10.1f", seed, bestElapsed / 1e6,
+              topElapsed / 1e6, solver.nodes(), ep, plans.get(plans.size() - 1).ep()));
+    }
+
+    System.out.println(String.format("%4s %10.1f %10.1f", "sum", bestTime / 1e6, topTime / 1e6));
+  }
+
+  /**
+   * Times the SensitivityAnalysis of the relaxed solver's plan against the solve,
+   * with the narrowest range found.
+   */
+  private static void compareSensitivity(AbstractModel model, int items, int characters) {
+    BranchAndBoundSolver solver   = new BranchAndBoundSolver(true, true);
+    SensitivityAnalysis  analysis = new SensitivityAnalysis();
+
+    for (int seed = 0; seed < WARMUP_CHARACTERS; ++seed) {
+      SearchSpace space = SyntheticSpaces.create(model, seed, items);
+      analysis.analyze(space, solver.solve(space));
+    }
+
+    System.out.println();
+    System.out.println("Sensitivity of the optimal plan:");
+    System.out.println(String.format("%4s %10s %10s %12s %8s  %s", "#", "solve ms", "ms", "nodes", "ranges",
+            "narrowest"));
+
+    long solveTime = 0, analysisTime = 0;
+
+    for (int seed = 0; seed < characters; ++seed) {
+      SearchSpace space = SyntheticSpaces.create(model, seed, items);
+
+      long start = System.nanoTime();
+      Solution solution = solver.solve(space);
+      long solveElapsed = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      List<SensitivityAnalysis.Range> ranges = analysis.analyze(space, solution);
+      long analysisElapsed = System.nanoTime() - start;
+
+      SensitivityAnalysis.Range narrowest = null;
+      for (SensitivityAnalysis.Range range : ranges) {
+        if (narrowest == null || range.high() - range.low() < narrowest.high() - narrowest.low()) {
+          narrowest = range;
+        }
+      }
+
+      solveTime    += solveElapsed;
+      analysisTime += analysisElapsed;
+
+      System.out.println(String.format("%4d %10.1f %10.1f %12d %8d  %s", seed, solveElapsed / 1e6,
+              analysisElapsed / 1e6, analysis.nodes(), ranges.size(), narrowest));
+    }
+
+    System.out.println(String.format("%4s %10.1f %10.1f", "sum", solveTime / 1e6, analysisTime / 1e6));
+  }
+
+  /**
+   * Times the relaxed solver with and without a Presolve of each character, the
+   * presolve itself included.
+   */
+  private static void comparePresolve(AbstractModel model, int items, int characters) {
+    BranchAndBoundSolver solver = new BranchAndBoundSolver(true, true);
+
+    for (int seed = 0; seed < WARMUP_CHARACTERS; ++seed) {
+      SearchSpace space = SyntheticSpaces.create(model, seed, items);
+      solver.solve(space);
+      solver.solve(new Presolve(space).reduced());
+    }
+
+    System.out.println();
+    System.out.println(String.format("%4s %14s %10s %14s %10s %8s %8s", "#", "full nodes", "ms",
+            "presolved", "ms", "items", "options"));
+
+    long fullNodes = 0, fullTime = 0,
+         coreNodes = 0, coreTime = 0;
+    int  coreItems = 0, coreOptions = 0, allItems = 0, allOptions = 0;
+
+    for (int seed = 0; seed < characters; ++seed) {
+      SearchSpace space = SyntheticSpaces.create(model, seed, items);
+
+      long start = System.nanoTime();
+      float ep = solver.solve(space).ep();
+      long full = System.nanoTime() - start;
+      long nodes = solver.nodes();
+
+      start = System.nanoTime();
+      Presolve presolve = new Presolve(space);
+      Solution solution = presolve.expand(solver.solve(presolve.reduced()));
+      long core = System.nanoTime() - start;
+
+      // NOTE: Dominance admits ties, so the plans may differ in the last bits of EP.
+      if (Math.abs(solution.ep() - ep) > 0.01f) {
+        System.out.println(String.format("  Warning: EP mismatch (%.2f vs %.2f).", ep, solution.ep()));
+      }
+
+      fullNodes   += nodes;
+      fullTime    += full;
+      coreNodes   += solver.nodes();
+      coreTime    += core;
+      allItems    += space.itemCount();
+      allOptions  += space.candidateCount();
+      coreItems   += presolve.reduced().itemCount();
+      coreOptions += presolve.reduced().candidateCount();
+
+      System.out.println(String.format("%4d %14d %10.1f %14d %10.1f %8d %8d", seed, nodes, full / 1e6,
+              solver.nodes(), core / 1e6, presolve.reduced().itemCount(), presolve.reduced().candidateCount()));
+    }
+
+    System.out.println(String.format("%4s %14d %10.1f %14d %10.1f %8s %8s", "sum", fullNodes, fullTime / 1e6,
+            coreNodes, coreTime / 1e6, coreItems + "/" + allItems, coreOptions + "/" + allOptions));
+  }
+
+  /**
+   * Times the relaxed solver on characters with Model's five stats and with the
+   * seven stats, avoidance included, of AvoidanceModel.
+   */
+  private static void compareDimensions(int items, int characters) {
+    AbstractModel[] models = { new Model(), new AvoidanceModel() };
+    String[]        labels = { "5 stats", "7 stats" };
+
+    BranchAndBoundSolver solver = new BranchAndBoundSolver(true, true);
+
+    for (int seed = 0; seed < WARMUP_CHARACTERS; ++seed) {
+      for (AbstractModel m : models) {
+        solver.solve(SyntheticSpaces.create(m, seed, items));
+      }
+    }
+
+    System.out.println();
+
+    StringBuilder header = new StringBuilder(String.format("%4s", "#"));
+    for (String label : labels) {
+      header.append(String.format(" %14s %10s %10s", label + " nodes", "ms", "ns/node"));
+    }
+    System.out.println(header);
+
+    long[] nodes = new long[models.length],
+           times = new long[models.length];
+
+    for (int seed = 0; seed < characters; ++seed) {
+      StringBuilder row = new StringBuilder(String.format("%4d", seed));
+
+      for (int i = 0; i < models.length; ++i) {
+        SearchSpace space = SyntheticSpaces.create(models[i], seed, items);
+
+        long start = System.nanoTime();
+        solver.solve(space);
+        long time = System.nanoTime() - start;
+
+        nodes[i] += solver.nodes();
+        times[i] += time;
+        row.append(String.format(" %14d %10.1f %10.1f", solver.nodes(), time / 1e6,
+                (double) time / Math.max(solver.nodes(), 1)));
+      }
+
+      System.out.println(row);
+    }
+
+    StringBuilder total = new StringBuilder(String.format("%4s", "sum"));
+    for (int i = 0; i < models.length; ++i) {
+      total.append(String.format(" %14d %10.1f %10.1f", nodes[i], times[i] / 1e6,
+              (double) times[i] / Math.max(nodes[i], 1)));
+    }
+    System.out.println(total);
+  }
+
+  /**
+   * Times a ParetoSolver pass over two models against a relaxed solve under
+   * each, with the number of Pareto optimal plans.  The ends of the front must
+   * have the optimal EP under each model.
+   */
+  private static void comparePareto(AbstractModel first, AbstractModel second, int items, int characters) {
+    AbstractModel[]      models = { first, second };
+    BranchAndBoundSolver single = new BranchAndBoundSolver(true, true);
+    ParetoSolver         pareto = new ParetoSolver();
+
+    for (int seed = 0; seed < WARMUP_CHARACTERS; ++seed) {
+      SearchSpace space = SyntheticSpaces.create(models, seed, items);
+      pareto.solve(space, first, second);
+      single.solve(space.withModel(first));
+    }
+
+    System.out.println();
+    System.out.println(String.format("Pareto front of %s and %s:", first, second));
+    System.out.println(String.format("%4s %10s %10s %12s %8s", "#", "single ms", "ms", "nodes", "plans"));
+
+    long singleTime = 0, paretoTime = 0;
+
+    for (int seed = 0; seed < characters; ++seed) {
+      SearchSpace space = SyntheticSpaces.create(models, seed, items);
+
+      long start = System.nanoTime();
+      float firstEP  = single.solve(space.withModel(first)).ep();
+      float secondEP = single.solve(space.withModel(second)).ep();
+      long singleElapsed = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      List<Solution[]> front = pareto.solve(space, first, second);
+      long paretoElapsed = System.nanoTime() - start;
+
+      // NOTE: Equivalent plans may differ in the last bits of their float EP.
+      if (Math.abs(front.get(0)[0].ep() - firstEP) > 0.01f
+              || Math.abs(front.get(front.size() - 1)[1].ep() - secondEP) > 0.01f) {
+        System.out.println("  Warning: EP mismatch at the ends of the front.");
+      }
+
+      singleTime += singleElapsed;
+      paretoTime += paretoElapsed;
+
+      System.out.println(String.format("%4d %10.1f %10.1f %12d %8d", seed, singleElapsed / 1e6,
+              paretoElapsed / 1e6, pareto.nodes(), front.size()));
+    }
+
+    System.out.println(String.format("%4s %10.1f %10.1f", "sum", singleTime / 1e6, paretoTime / 1e6));
+  }
+
+  /**
+   * Times one relaxed BranchAndBoundSolver pass over all models against a solve
+   * per model, each on the model's own search space.
+   */
+  private static void compareModels(AbstractModel[] models, int items, int characters) {
+    BranchAndBoundSolver single = new BranchAndBoundSolver(true, true);
+    BranchAndBoundSolver multi  = new BranchAndBoundSolver(true, true);
+
+    for (int seed = 0; seed < WARMUP_CHARACTERS; ++seed) {
+      multi.solve(SyntheticSpaces.create(models, seed, items), models);
+      for (AbstractModel m : models) {
+        single.solve(SyntheticSpaces.create(m, seed, items));
+      }
+    }
+
+    System.out.println();
+    System.out.println(String.format("%d models: %s", models.length, Arrays.toString(models)));
+    System.out.println(String.format("%4s %14s %10s %14s %10s", "#", "separate nodes", "ms", "shared nodes", "ms"));
+
+    long separateNodes = 0, separateTime = 0,
+         sharedNodes   = 0, sharedTime   = 0;
+
+    for (int seed = 0; seed < characters; ++seed) {
+      long nodes = 0, time = 0;
+      float[] ep = new float[models.length];
+
+      for (int m = 0; m < models.length; ++m) {
+        SearchSpace space = SyntheticSpaces.create(models[m], seed, items);
+
+        long start = System.nanoTime();
+        ep[m] = single.solve(space).ep();
+        time += System.nanoTime() - start;
+        nodes += single.nodes();
+      }
+
+      SearchSpace space = SyntheticSpaces.create(models, seed, items);
+
+      long start = System.nanoTime();
+      Solution[] solutions = multi.solve(space, models);
+      long sharedElapsed = System.nanoTime() - start;
+
+      for (int m = 0; m < models.length; ++m) {
+        // NOTE: Equivalent plans may differ in the last bits of their float EP.
+        if (Math.abs(solutions[m].ep() - ep[m]) > 0.01f) {
+          System.out.println(String.format("  Warning: EP mismatch for %s (%.2f vs %.2f).",
+                  models[m], ep[m], solutions[m].ep()));
+        }
+      }
+
+      separateNodes += nodes;
+      separateTime  += time;
+      sharedNodes   += multi.nodes();
+      sharedTime    += sharedElapsed;
+
+      System.out.println(String.format("%4d %14d %10.1f %14d %10.1f",
+              seed, nodes, time / 1e6, multi.nodes(), sharedElapsed / 1e6));
+    }
+
+    System.out.println(String.format("%4s %14d %10.1f %14d %10.1f",
+            "sum", separateNodes, separateTime / 1e6, sharedNodes, sharedTime / 1e6));
+  }
+
+  /**
+   * Times the per-option EP delta, the search's innermost operation, in float on
+   * the model, in fixed point on its FixedPointModel, and through the batched
+   * FixedPointModel.calculateEPDeltas.
+   */
+  private static void compareEvaluation(AbstractModel model, int items, int characters) {
+    FixedPointModel fixed = FixedPointModel.create(model);
+
+    System.out.println();
+    System.out.println(String.format("%4s %14s %14s %14s", "#", "float ns/eval", "fixed ns/eval", "batch ns/eval"));
+
+    double floatSum = 0.0,
+           fixedSum = 0.0,
+           batchSum = 0.0;
+
+    for (int seed = -WARMUP_CHARACTERS; seed < characters; ++seed) {
+      SearchSpace space = SyntheticSpaces.create(model, Math.abs(seed), items);
+      int[] stats = space.stats();
+
+      final int OPTIONS = space.candidateCount();
+      int[] dec = new int[OPTIONS],
+            inc = new int[OPTIONS],
+            val = new int[OPTIONS];
+      for (int i = 0, index = 0; i < space.itemCount(); ++i) {
+        for (int j = 0; j < space.optionCount(i); ++j, ++index) {
+          dec[index] = space.decreased(i, j);
+          inc[index] = space.increased(i, j);
+          val[index] = space.value(i, j);
+        }
+      }
+
+      // Fixed point differs from float by rounding only.
+      for (int j = 0; j < OPTIONS; ++j) {
+        float floatDelta = model.calculateEPDelta(stats, dec[j], inc[j], val[j]),
+              fixedDelta = FixedPointModel.toEP(fixed.calculateEPDelta(stats, dec[j], inc[j], val[j]));
+        if (Math.abs(floatDelta - fixedDelta) > 0.01f) {
+          System.out.println(String.format("  Warning: EP mismatch (%.4f vs %.4f).", floatDelta, fixedDelta));
+        }
+      }
+
+      float floatSink = 0.0f;
+      long  start     = System.nanoTime();
+      for (int pass = 0; pass < EVALUATION_PASSES; ++pass) {
+        for (int j = 0; j < OPTIONS; ++j) {
+          floatSink += model.calculateEPDelta(stats, dec[j], inc[j], val[j]);
+        }
+      }
+      double floatTime = (double) (System.nanoTime() - start) / EVALUATION_PASSES / OPTIONS;
+
+      long fixedSink = 0;
+      start = System.nanoTime();
+      for (int pass = 0; pass < EVALUATION_PASSES; ++pass) {
+        for (int j = 0; j < OPTIONS; ++j) {
+          fixedSink += fixed.calculateEPDelta(stats, dec[j], inc[j], val[j]);
+        }
+      }
+      double fixedTime = (double) (System.nanoTime() - start) / EVALUATION_PASSES / OPTIONS;
+
+      long[] current = new long[Stat.TYPE_COUNT],
+             deltas  = new long[OPTIONS];
+      start = System.nanoTime();
+      for (int pass = 0; pass < EVALUATION_PASSES; ++pass) {
+        fixed.statEPs(stats, current);
+        fixed.calculateEPDeltas(stats, current, dec, inc, val, 0, OPTIONS, deltas);
+        fixedSink += deltas[pass % OPTIONS];
+      }
+      double batchTime = (double) (System.nanoTime() - start) / EVALUATION_PASSES / OPTIONS;
+
+      // Use the sums, so that neither loop can be dropped.
+      if (seed < 0 || Float.isNaN(floatSink + fixedSink)) {
+        continue;
+      }
+
+      floatSum += floatTime;
+      fixedSum += fixedTime;
+      batchSum += batchTime;
+      System.out.println(String.format("%4d %14.2f %14.2f %14.2f", seed, floatTime, fixedTime, batchTime));
+    }
+
+    System.out.println(String.format("%4s %14.2f %14.2f %14.2f", "mean",
+            floatSum / characters, fixedSum / characters, batchSum / characters));
+  }
+
+  private Benchmark() { }
+}
@@ -0,0 +1,242 @@
+/**
+ * @author Luke Tyler Downey
+ * Copyright 2011 Glow Interactive
+ *
+ * This software contains original work and/or modifications to
+ * original work, which are redistributed under the following terms.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.glowinteractive.reforger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks BranchAndBoundSolver against every plan of small synthetic spaces.
+ */
+public class BranchAndBoundSolverTest {
+
+  // The transposition table memoizes nodes more than five items above the
+  // leaves, so spaces need more than six items to reach it.  Tank items have up
+  // to ten options, so eight of them already make tens of millions of plans.
+  static final int MAX_ITEMS = 8;
+  static final int SEEDS     = 4;
+
+  @Test public void optimal() {
+    long probes = 0;
+
+    for (AbstractModel model : models()) {
+      for (int n = 1; n <= MAX_ITEMS; ++n) {
+        for (long seed = 0; seed < SEEDS; ++seed) {
+          SearchSpace space = SyntheticSpaces.create(model, seed, n);
+          String      where = model + ", " + n + " items, seed " + seed;
+          long        best  = BruteForce.best(space);
+
+          BranchAndBoundSolver serial = new BranchAndBoundSolver();
+          serial.setThreads(1);
+
+          Solution parallel = new BranchAndBoundSolver().solve(space);
+          Solution solution = serial.solve(space);
+          probes += serial.transpositions().probes();
+
+          assertOptimal(where, space, best, solution);
+          assertOptimal(where, space, best, parallel);
+          assertOptimal(where, space, best, new BranchAndBoundSolver(false).solve(space));
+
+          // Ties resolve to the first plan in serial search order, on any number of threads.
+          assertArrayEquals(where, solution.options(), parallel.options());
+        }
+      }
+    }
+
+    assertTrue("no search reached the transposition table", probes > 0);
+  }
+
+  @Test public void severalModels() {
+    final AbstractModel[] MODELS = { new Model(), ProfileModel.load("RG-Combat") };
+
+    for (int n = 1; n <= MAX_ITEMS; ++n) {
+      for (long seed = 0; seed < SEEDS; ++seed) {
+        SearchSpace space     = SyntheticSpaces.create(MODELS, seed, n);
+        Solution[]  solutions = new BranchAndBoundSolver().solve(space, MODELS);
+
+        for (int m = 0; m < MODELS.length; ++m) {
+          final SearchSpace                  MODEL_SPACE = space.withModel(MODELS[m]);
+          final FixedPointModel              MODEL       = FixedPointModel.create(MODELS[m]);
+          final EnumMap<Stat, EnumSet<Stat>> MAPPINGS    = MODELS[m].candidateMappings();
+
+          // The best plan of the options open to the model.
+          final long[] BEST = { Long.MIN_VALUE };
+          BruteForce.forEach(space, new BruteForce.Visitor() {
+            @Override public void visit(int[] plan, int[] stats) {
+              for (int i = 0; i < plan.length; ++i) {
+                if (plan[i] != -1 && !open(MAPPINGS, MODEL_SPACE, i, plan[i])) {
+                  return;
+                }
+              }
+              BEST[0] = Math.max(BEST[0], MODEL.calculateEP(stats));
+            }
+          });
+
+          String where = MODELS[m] + ", " + n + " items, seed " + seed;
+          for (int i = 0; i < space.itemCount(); ++i) {
+            if (solutions[m].option(i) != -1) {
+              assertTrue(where, open(MAPPINGS, space, i, solutions[m].option(i)));
+            }
+          }
+          assertOptimal(where, MODEL_SPACE, BEST[0], solutions[m]);
+        }
+      }
+    }
+  }
+
+  @Test public void nodeLimit() {
+    int stopped = 0;
+
+    for (AbstractModel model : models()) {
+      for (long seed = 0; seed < SEEDS; ++seed) {
+        SearchSpace space = SyntheticSpaces.create(model, seed, MAX_ITEMS);
+        String      where = model + ", seed " + seed;
+        long        best  = BruteForce.best(space);
+
+        BranchAndBoundSolver solver = new BranchAndBoundSolver();
+        solver.setThreads(1);
+        solver.setNodeLimit(1);
+
+        Solution solution = solver.solve(space);
+        long     ep       = BruteForce.ep(space, solution);
+        if (!solver.complete()) {
+          ++stopped;
+        }
+
+        // The optimum is at most the gap above the plan, and a complete solve is exact.
+        assertTrue(where, FixedPointModel.toEP(best - ep) <= solver.gap());
+        assertTrue(where, solver.complete() ? solver.gap() == 0.0f : solver.gap() >= 0.0f);
+      }
+    }
+
+    assertTrue("no solve stopped at the node limit", stopped > 0);
+  }
+
+  @Test public void epsilon() {
+    for (AbstractModel model : models()) {
+      for (long seed = 0; seed < SEEDS; ++seed) {
+        SearchSpace space = SyntheticSpaces.create(model, seed, MAX_ITEMS);
+        long        best  = BruteForce.best(space);
+
+        for (float epsilon : new float[] { 0.5f, 5.0f, 50.0f }) {
+          BranchAndBoundSolver solver = new BranchAndBoundSolver();
+          solver.setEpsilon(epsilon);
+
+          long ep = BruteForce.ep(space, solver.solve(space));
+          assertTrue(model + ", seed " + seed + ", epsilon " + epsilon,
+                     best - ep <= (long) Math.floor((double) epsilon * FixedPointModel.SCALE));
+        }
+      }
+    }
+  }
+
+  @Test public void listener() {
+    for (AbstractModel model : models()) {
+      for (long seed = 0; seed < SEEDS; ++seed) {
+        final SearchSpace     SPACE = SyntheticSpaces.create(model, seed, MAX_ITEMS);
+        final FixedPointModel MODEL = FixedPointModel.create(model);
+        final List<Long>      EPS   = new ArrayList<Long>();
+
+        BranchAndBoundSolver solver = new BranchAndBoundSolver();
+        solver.setListener(new SolutionListener() {
+          @Override public void improved(Solution solution, float gap) {
+            EPS.add(MODEL.calculateEP(SPACE.apply(solution.options())));
+          }
+        });
+
+        long   ep    = BruteForce.ep(SPACE, solver.solve(SPACE));
+        String where = model + ", seed " + seed + ": " + EPS;
+
+        assertTrue(where, !EPS.isEmpty());
+        for (int k = 1; k < EPS.size(); ++k) {
+          assertTrue(where, EPS.get(k) > EPS.get(k - 1));
+        }
+        assertTrue(where, EPS.get(EPS.size() - 1) <= ep);
+      }
+    }
+  }
+
+  @Test public void topPlans() {
+    final int[] COUNTS = { 1, 2, 5, 20 };
+
+    int ties = 0;
+
+    for (AbstractModel model : models()) {
+      for (int n = 1; n <= MAX_ITEMS; ++n) {
+        for (long seed = 0; seed < SEEDS; ++seed) {
+          SearchSpace space = SyntheticSpaces.create(model, seed, n);
+          String      where = model + ", " + n + " items, seed " + seed;
+
+          // One more than asked for, to see ties at the last plan returned.
+          long[] best = BruteForce.best(space, COUNTS[COUNTS.length - 1] + 1);
+
+          for (int count : COUNTS) {
+            List<Solution> plans = new BranchAndBoundSolver().solve(space, count);
+
+            assertEquals(where, Math.min(count, best.length), plans.size());
+
+            HashSet<String> distinct = new HashSet<String>();
+            for (int k = 0; k < plans.size(); ++k) {
+              assertEquals(where + ", plan " + k + " of " + count, best[k], BruteForce.ep(space, plans.get(k)));
+              distinct.add(Arrays.toString(plans.get(k).options()));
+            }
+            assertEquals(where + ": repeated plans", plans.size(), distinct.size());
+
+            if (count < best.length && best[count] == best[count - 1]) {
+              ++ties;
+            }
+          }
+        }
+      }
+    }
+
+    assertTrue("no space tied at the last plan asked for", ties > 0);
+  }
+
+  static AbstractModel[] models() {
+    return new AbstractModel[] { new Model(), new AvoidanceModel() };
+  }
+
+  /**
+   * Asserts that the solution's plan reaches the best fixed-point EP, and that it
+   * reports the EP of that plan.
+   */
+  static void assertOptimal(String where, SearchSpace space, long best, Solution solution) {
+    assertEquals(where, best, BruteForce.ep(space, solution));
+    assertEquals(where, Solution.evaluate(space, solution.options()).ep(), solution.ep(), 0);
+  }
+
+  // Whether the option is among the mappings of a model.
+  private static boolean open(EnumMap<Stat, EnumSet<Stat>> mappings, SearchSpace space, int item, int option) {
+    EnumSet<Stat> targets = mappings.get(Stat.values()[space.decreased(item, option)]);
+    return targets != null && targets.contains(Stat.values()[space.increased(item, option)]);
+  }
+}
@@ -0,0 +1,145 @@
+/**
+ * @author Luke Tyler Downey
+ * Copyright 2011 Glow Interactive
+ *
+ * This software contains original work and/or modifications to
+ * original work, which are redistributed under the following terms.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.glowinteractive.reforger;
+
+import java.util.Arrays;
+
+/**
+ * Exhaustive search over the plans of small search spaces, as the reference the
+ * solvers are tested against.  Plans are visited depth first, every item's
+ * options in SearchSpace order and then "no reforge", with the stats after each
+ * plan kept incrementally.  EP is compared in fixed point, in which the exact
+ * solvers are exact.
+ */
+final class BruteForce {
+
+  /**
+   * Receives every plan of a space.  The arrays are reused: copy what is kept.
+   */
+  interface Visitor {
+
+    void visit(int[] plan, int[] stats);
+  }
+
+  /**
+   * Visits every plan of the space.
+   */
+  public static void forEach(SearchSpace space, Visitor visitor) {
+    forEach(space, false, visitor);
+  }
+
+  /**
+   * Returns the best fixed-point EP of any plan of the space.
+   */
+  public static long best(SearchSpace space) {
+    return best(space, 1)[0];
+  }
+
+  /**
+   * Returns the fixed-point EPs of the count best plans of the space, best first;
+   * fewer if the space has fewer plans.  As in BranchAndBoundSolver's K best
+   * search, plans that differ only by swapping the choices of symmetric items
+   * count once.
+   */
+  public static long[] best(SearchSpace space, final int count) {
+    final FixedPointModel MODEL = FixedPointModel.create(space.model());
+
+    // The best EPs so far, ascending; empty slots hold Long.MIN_VALUE.
+    final long[] BEST  = new long[count];
+    final int[]  PLANS = new int[1];
+    Arrays.fill(BEST, Long.MIN_VALUE);
+
+    forEach(space, true, new Visitor() {
+      @Override public void visit(int[] plan, int[] stats) {
+        final long EP = MODEL.calculateEP(stats);
+
+        ++PLANS[0];
+        if (EP > BEST[0]) {
+          int k = 0;
+          while (k + 1 < count && BEST[k + 1] < EP) {
+            BEST[k] = BEST[k + 1];
+            ++k;
+          }
+          BEST[k] = EP;
+        }
+      }
+    });
+
+    long[] result = new long[Math.min(count, PLANS[0])];
+    for (int k = 0; k < result.length; ++k) {
+      result[k] = BEST[count - 1 - k];
+    }
+    return result;
+  }
+
+  /**
+   * Returns the fixed-point EP of the solution's plan, under the space's model.
+   */
+  public static long ep(SearchSpace space, Solution solution) {
+    return FixedPointModel.create(space.model()).calculateEP(space.apply(solution.options()));
+  }
+
+  /**
+   * Visits every plan of the space; if distinct, only those in which every
+   * symmetric item takes no option before the item above it, "no reforge" last.
+   */
+  private static void forEach(SearchSpace space, boolean distinct, Visitor visitor) {
+    int[] plan = new int[space.itemCount()];
+    Arrays.fill(plan, -1);
+
+    visit(space, distinct, 0, plan, space.stats(), visitor);
+  }
+
+  private static void visit(SearchSpace space, boolean distinct, int item, int[] plan, int[] stats,
+                            Visitor visitor) {
+    if (item == space.itemCount()) {
+      visitor.visit(plan, stats);
+      return;
+    }
+
+    int first = 0;
+    if (distinct && space.symmetric(item)) {
+      first = (plan[item - 1] == -1) ? space.optionCount(item) : plan[item - 1];
+    }
+
+    for (int j = first; j < space.optionCount(item); ++j) {
+      final int DEC = space.decreased(item, j);
+      final int INC = space.increased(item, j);
+      final int VAL = space.value(item, j);
+
+      stats[DEC] -= VAL;
+      stats[INC] += VAL;
+      plan[item]  = j;
+
+      visit(space, distinct, item + 1, plan, stats, visitor);
+
+      stats[DEC] += VAL;
+      stats[INC] -= VAL;
+    }
+
+    plan[item] = -1;
+    visit(space, distinct, item + 1, plan, stats, visitor);
+  }
+
+  private BruteForce() { }
+}
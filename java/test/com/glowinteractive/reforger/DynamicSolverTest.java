@@ -0,0 +1,61 @@
+/**
+ * @author Luke Tyler Downey
+ * Copyright 2011 Glow Interactive
+ *
+ * This software contains original work and/or modifications to
+ * original work, which are redistributed under the following terms.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.glowinteractive.reforger;
+
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks DynamicSolver against every plan of small synthetic spaces, and against
+ * the plan branch and bound returns.
+ */
+public class DynamicSolverTest {
+
+  @Test public void optimal() {
+    DynamicSolver solver = new DynamicSolver();
+    int solved = 0;
+
+    for (AbstractModel model : models()) {
+      for (int n = 1; n <= BranchAndBoundSolverTest.MAX_ITEMS; ++n) {
+        for (long seed = 0; seed < BranchAndBoundSolverTest.SEEDS; ++seed) {
+          SearchSpace space = SyntheticSpaces.create(model, seed, n);
+          if (solver.accepts(space)) {
+            String   where    = model + ", " + n + " items, seed " + seed;
+            Solution solution = solver.solve(space);
+
+            BranchAndBoundSolverTest.assertOptimal(where, space, BruteForce.best(space), solution);
+            assertArrayEquals(where, new BranchAndBoundSolver().solve(space).options(), solution.options());
+            ++solved;
+          }
+        }
+      }
+    }
+
+    assertTrue("no space was small enough for the dynamic solver", solved > 0);
+  }
+
+  private static AbstractModel[] models() {
+    return new AbstractModel[] { new Model(), ProfileModel.load("RG-Combat") };
+  }
+}
@@ -0,0 +1,58 @@
+/**
+ * @author Luke Tyler Downey
+ * Copyright 2011 Glow Interactive
+ *
+ * This software contains original work and/or modifications to
+ * original work, which are redistributed under the following terms.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.glowinteractive.reforger;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the gap HeuristicSolver reports against every plan of small synthetic
+ * spaces: it must bound how far the optimum lies above the plan, and be zero
+ * only when the plan is optimal.
+ */
+public class HeuristicSolverTest {
+
+  @Test public void gap() {
+    for (AbstractModel model : BranchAndBoundSolverTest.models()) {
+      for (int n = 1; n <= BranchAndBoundSolverTest.MAX_ITEMS; ++n) {
+        for (long seed = 0; seed < BranchAndBoundSolverTest.SEEDS; ++seed) {
+          SearchSpace space = SyntheticSpaces.create(model, seed, n);
+          String      where = model + ", " + n + " items, seed " + seed;
+          long        best  = BruteForce.best(space);
+
+          HeuristicSolver solver   = new HeuristicSolver();
+          Solution        solution = solver.solve(space);
+          long            ep       = BruteForce.ep(space, solution);
+
+          assertTrue(where, ep <= best);
+          assertTrue(where + ": gap " + solver.gap(), FixedPointModel.toEP(best - ep) <= solver.gap());
+          if (solver.gap() == 0.0f) {
+            assertEquals(where, best, ep);
+          }
+          assertEquals(where, Solution.evaluate(space, solution.options()).ep(), solution.ep(), 0);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,68 @@
+/**
+ * @author Luke Tyler Downey
+ * Copyright 2011 Glow Interactive
+ *
+ * This software contains original work and/or modifications to
+ * original work, which are redistributed under the following terms.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.glowinteractive.reforger;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the decoding of Armory reforge IDs.  IDs run from 113 in blocks of seven
+ * per source stat, in the order spirit, dodge, parry, hit, crit, haste, expertise,
+ * mastery, each block listing the other seven as targets in the same order.
+ */
+public class ItemTest {
+
+  private static final StatKVMap STATS = new StatKVMap(new StatKVPair(Stat.DOD, 300),
+                                                       new StatKVPair(Stat.HIT, 400),
+                                                       new StatKVPair(Stat.CRI, 250),
+                                                       new StatKVPair(Stat.MST, 171));
+
+  @Test public void reforges() {
+    // 40% of the source stat, rounded down.
+    assertEquals(new StatKVMap(Stat.DOD, Stat.PAR, 120), Item.reforging(121, STATS));
+    assertEquals(new StatKVMap(Stat.HIT, Stat.CRI, 160), Item.reforging(137, STATS));
+    assertEquals(new StatKVMap(Stat.HIT, Stat.MST, 160), Item.reforging(140, STATS));
+    assertEquals(new StatKVMap(Stat.CRI, Stat.HIT, 100), Item.reforging(144, STATS));
+    assertEquals(new StatKVMap(Stat.CRI, Stat.HST, 100), Item.reforging(145, STATS));
+    assertEquals(new StatKVMap(Stat.MST, Stat.HIT, 68), Item.reforging(165, STATS));
+    assertEquals(new StatKVMap(Stat.MST, Stat.EXP, 68), Item.reforging(168, STATS));
+  }
+
+  @Test public void spirit() {
+    // Spirit is not a Stat, so reforges from or to it change nothing modelled.
+    for (int id = 113; id <= 119; ++id) {
+      assertEquals("id " + id, new StatKVMap(), Item.reforging(id, STATS));
+    }
+    assertEquals(new StatKVMap(), Item.reforging(120, STATS));
+    assertEquals(new StatKVMap(), Item.reforging(134, STATS));
+    assertEquals(new StatKVMap(), Item.reforging(162, STATS));
+  }
+
+  @Test public void notReforges() {
+    // Outside the range of reforge IDs, or from a stat the item does not have.
+    assertEquals(new StatKVMap(), Item.reforging(0, STATS));
+    assertEquals(new StatKVMap(), Item.reforging(112, STATS));
+    assertEquals(new StatKVMap(), Item.reforging(169, STATS));
+    assertEquals(new StatKVMap(), Item.reforging(151, STATS));
+  }
+}
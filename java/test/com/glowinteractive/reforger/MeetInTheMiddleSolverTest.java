@@ -0,0 +1,60 @@
+/**
+ * @author Luke Tyler Downey
+ * Copyright 2011 Glow Interactive
+ *
+ * This software contains original work and/or modifications to
+ * original work, which are redistributed under the following terms.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.glowinteractive.reforger;
+
+import org.junit.Test;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks MeetInTheMiddleSolver against every plan of small synthetic spaces.
+ * Both models cap two stats, so the halves are bucketed by the first and paired
+ * by range maximum queries over the second.
+ */
+public class MeetInTheMiddleSolverTest {
+
+  @Test public void optimal() {
+    MeetInTheMiddleSolver solver = new MeetInTheMiddleSolver();
+    int solved = 0;
+
+    for (AbstractModel model : new AbstractModel[] { new Model(), ProfileModel.load("RG-Combat") }) {
+      for (int n = 1; n <= BranchAndBoundSolverTest.MAX_ITEMS; ++n) {
+        for (long seed = 0; seed < BranchAndBoundSolverTest.SEEDS; ++seed) {
+          SearchSpace space = SyntheticSpaces.create(model, seed, n);
+          if (solver.accepts(space)) {
+            String where = model + ", " + n + " items, seed " + seed;
+            BranchAndBoundSolverTest.assertOptimal(where, space, BruteForce.best(space), solver.solve(space));
+            ++solved;
+          }
+        }
+      }
+    }
+
+    assertTrue("no space was accepted by the meet-in-the-middle solver", solved > 0);
+  }
+
+  @Test public void declinesManyCaps() {
+    // Avoidance curves dodge, parry, hit and expertise: more than MAX_CAPPED stats.
+    assertFalse(new MeetInTheMiddleSolver().accepts(SyntheticSpaces.create(new AvoidanceModel(), 0, 4)));
+  }
+}
@@ -0,0 +1,148 @@
+/**
+ * @author Luke Tyler Downey
+ * Copyright 2011 Glow Interactive
+ *
+ * This software contains original work and/or modifications to
+ * original work, which are redistributed under the following terms.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.glowinteractive.reforger;
+
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the lane arithmetic of PackedStats at the edges of the 16-bit lanes.
+ */
+public class PackedStatsTest {
+
+  private static final int[] EDGES = { 0, 1, -1, 0xFF, 0x100, Short.MAX_VALUE, Short.MIN_VALUE };
+
+  @Test public void packAndUnpack() {
+    for (int shift = 0; shift < Stat.TYPE_COUNT; ++shift) {
+      int[] stats = new int[Stat.TYPE_COUNT];
+      for (int s = 0; s < Stat.TYPE_COUNT; ++s) {
+        stats[s] = EDGES[(s + shift) % EDGES.length];
+      }
+
+      PackedStats packed = PackedStats.pack(stats);
+      assertArrayEquals(stats, packed.unpack());
+      assertEquals(PackedStats.low(stats), packed.low());
+      assertEquals(PackedStats.high(stats), packed.high());
+      for (int s = 0; s < Stat.TYPE_COUNT; ++s) {
+        assertEquals(stats[s], packed.value(s));
+        assertEquals(packed, packed.add(PackedStats.of(s, 0)));
+      }
+    }
+  }
+
+  @Test public void lanes() {
+    for (int s = 0; s < Stat.TYPE_COUNT; ++s) {
+      // -1 is all sixteen bits of its own lane, and nothing outside it.
+      PackedStats minusOne = PackedStats.of(s, -1);
+      long        lane     = 0xFFFFL << (PackedStats.LANE_BITS * (s % (PackedStats.LANES / 2)));
+
+      assertEquals((s < PackedStats.LANES / 2) ? lane : 0L, minusOne.low());
+      assertEquals((s < PackedStats.LANES / 2) ? 0L : lane, minusOne.high());
+    }
+  }
+
+  @Test public void noCarries() {
+    for (int s = 0; s < Stat.TYPE_COUNT; ++s) {
+      // 0xFFFF + 1 carries out of the lane in plain addition, and 0 - 1 borrows.
+      assertEquals(PackedStats.ZERO, PackedStats.of(s, -1).add(PackedStats.of(s, 1)));
+      assertEquals(PackedStats.of(s, -1), PackedStats.ZERO.subtract(PackedStats.of(s, 1)));
+      assertEquals(PackedStats.of(s, Short.MIN_VALUE), PackedStats.of(s, Short.MIN_VALUE + 1).add(PackedStats.of(s, -1)));
+      assertEquals(PackedStats.of(s, -1), PackedStats.of(s, Short.MAX_VALUE).add(PackedStats.of(s, Short.MIN_VALUE)));
+      assertEquals(PackedStats.of(s, Short.MAX_VALUE), PackedStats.of(s, -1).subtract(PackedStats.of(s, Short.MIN_VALUE)));
+    }
+  }
+
+  @Test public void arithmetic() {
+    Random random = new Random(0);
+
+    for (int n = 0; n < 10000; ++n) {
+      // Every other pair of vectors spans half a lane, so that all its sums fit.
+      final int BITS = PackedStats.LANE_BITS - (n & 1);
+
+      int[] a = new int[Stat.TYPE_COUNT],
+            b = new int[Stat.TYPE_COUNT];
+      for (int s = 0; s < Stat.TYPE_COUNT; ++s) {
+        a[s] = random.nextInt(1 << BITS) - (1 << (BITS - 1));
+        b[s] = random.nextInt(1 << BITS) - (1 << (BITS - 1));
+      }
+
+      int[] sum        = new int[Stat.TYPE_COUNT],
+            difference = new int[Stat.TYPE_COUNT];
+      boolean sumFits = true, differenceFits = true;
+      for (int s = 0; s < Stat.TYPE_COUNT; ++s) {
+        sum[s]        = a[s] + b[s];
+        difference[s] = a[s] - b[s];
+        sumFits        &= sum[s] == (short) sum[s];
+        differenceFits &= difference[s] == (short) difference[s];
+      }
+
+      PackedStats x = PackedStats.pack(a),
+                  y = PackedStats.pack(b);
+      if (sumFits) {
+        assertArrayEquals(sum, x.add(y).unpack());
+      } else {
+        assertOverflows(x, y, true);
+      }
+      if (differenceFits) {
+        assertArrayEquals(difference, x.subtract(y).unpack());
+      } else {
+        assertOverflows(x, y, false);
+      }
+    }
+  }
+
+  @Test public void overflow() {
+    for (int s = 0; s < Stat.TYPE_COUNT; ++s) {
+      assertOverflows(PackedStats.of(s, Short.MAX_VALUE), PackedStats.of(s, 1), true);
+      assertOverflows(PackedStats.of(s, Short.MIN_VALUE), PackedStats.of(s, -1), true);
+      assertOverflows(PackedStats.of(s, Short.MIN_VALUE), PackedStats.of(s, 1), false);
+      assertOverflows(PackedStats.of(s, Short.MAX_VALUE), PackedStats.of(s, -1), false);
+      assertOverflows(PackedStats.ZERO, PackedStats.of(s, Short.MIN_VALUE), false);
+
+      try {
+        PackedStats.of(s, 0xFFFF);
+        fail("0xFFFF packed into lane " + s);
+      } catch (ArithmeticException e) {
+        // Expected: above Short.MAX_VALUE.
+      }
+      try {
+        PackedStats.of(s, Short.MIN_VALUE - 1);
+        fail((Short.MIN_VALUE - 1) + " packed into lane " + s);
+      } catch (ArithmeticException e) {
+        // Expected: below Short.MIN_VALUE.
+      }
+    }
+  }
+
+  private static void assertOverflows(PackedStats a, PackedStats b, boolean add) {
+    try {
+      PackedStats result = add ? a.add(b) : a.subtract(b);
+      fail((add ? "sum" : "difference") + " did not overflow: " + result.low() + ", " + result.high());
+    } catch (ArithmeticException e) {
+      // Expected.
+    }
+  }
+}
@@ -0,0 +1,120 @@
+/**
+ * @author Luke Tyler Downey
+ * Copyright 2011 Glow Interactive
+ *
+ * This software contains original work and/or modifications to
+ * original work, which are redistributed under the following terms.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.glowinteractive.reforger;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the front ParetoSolver returns against the Pareto front of every plan
+ * of small synthetic spaces.
+ */
+public class ParetoSolverTest {
+
+  // Items of both models' stats have more options; eight make millions of plans.
+  private static final int MAX_ITEMS = 7;
+
+  @Test public void front() {
+    final AbstractModel   FIRST  = new Model();
+    final AbstractModel   SECOND = ProfileModel.load("RG-Combat");
+    final FixedPointModel A      = FixedPointModel.create(FIRST);
+    final FixedPointModel B      = FixedPointModel.create(SECOND);
+
+    ParetoSolver solver = new ParetoSolver();
+
+    for (int n = 1; n <= MAX_ITEMS; ++n) {
+      for (long seed = 0; seed < BranchAndBoundSolverTest.SEEDS; ++seed) {
+        SearchSpace space = SyntheticSpaces.create(new AbstractModel[] { FIRST, SECOND }, seed, n);
+        String      where = n + " items, seed " + seed;
+
+        long count = 1;
+        for (int i = 0; i < space.itemCount(); ++i) {
+          count *= space.optionCount(i) + 1;
+        }
+
+        // The EPs of every plan under both models.
+        final long[]  FIRST_EP  = new long[(int) count];
+        final long[]  SECOND_EP = new long[(int) count];
+        final int[]   PLANS     = new int[1];
+        BruteForce.forEach(space, new BruteForce.Visitor() {
+          @Override public void visit(int[] plan, int[] stats) {
+            FIRST_EP[PLANS[0]]  = A.calculateEP(stats);
+            SECOND_EP[PLANS[0]] = B.calculateEP(stats);
+            ++PLANS[0];
+          }
+        });
+
+        // Each plan as the ranks of its EPs among the distinct EPs of each model,
+        // packed into one key; sorted, the keys run by EP under the first model,
+        // then the second.
+        long[] firstEPs  = distinct(FIRST_EP, PLANS[0]);
+        long[] secondEPs = distinct(SECOND_EP, PLANS[0]);
+        long[] keys      = new long[PLANS[0]];
+        for (int p = 0; p < keys.length; ++p) {
+          keys[p] = (long) Arrays.binarySearch(firstEPs, FIRST_EP[p]) << Integer.SIZE
+                  | Arrays.binarySearch(secondEPs, SECOND_EP[p]);
+        }
+        Arrays.sort(keys);
+
+        // Swept by falling EP under the first model, then the second, a plan is on
+        // the front if it beats every plan before it under the second.
+        TreeSet<String> expected = new TreeSet<String>();
+        long            highest  = -1;
+        for (int p = keys.length - 1; p >= 0; --p) {
+          final long SECOND_RANK = keys[p] & 0xFFFFFFFFL;
+          if (SECOND_RANK > highest) {
+            expected.add(firstEPs[(int) (keys[p] >>> Integer.SIZE)] + "," + secondEPs[(int) SECOND_RANK]);
+            highest = SECOND_RANK;
+          }
+        }
+
+        List<Solution[]> front  = solver.solve(space, FIRST, SECOND);
+        TreeSet<String>  actual = new TreeSet<String>();
+        for (Solution[] plan : front) {
+          int[] stats = space.apply(plan[0].options());
+          actual.add(A.calculateEP(stats) + "," + B.calculateEP(stats));
+        }
+
+        assertEquals(where, expected, actual);
+        assertEquals(where + ": points repeated on the front", actual.size(), front.size());
+      }
+    }
+  }
+
+  // The distinct values among the first count, ascending.
+  private static long[] distinct(long[] values, int count) {
+    long[] sorted = Arrays.copyOf(values, count);
+    Arrays.sort(sorted);
+
+    int size = 0;
+    for (int k = 0; k < count; ++k) {
+      if (size == 0 || sorted[k] != sorted[size - 1]) {
+        sorted[size++] = sorted[k];
+      }
+    }
+    return Arrays.copyOf(sorted, size);
+  }
+}
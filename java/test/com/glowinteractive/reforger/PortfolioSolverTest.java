@@ -0,0 +1,71 @@
+/**
+ * @author Luke Tyler Downey
+ * Copyright 2011 Glow Interactive
+ *
+ * This software contains original work and/or modifications to
+ * original work, which are redistributed under the following terms.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.glowinteractive.reforger;
+
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks PortfolioSolver races against branch and bound alone.
+ */
+public class PortfolioSolverTest {
+
+  @Test public void race() {
+    final AbstractModel[] MODELS = { new Model(), ProfileModel.load("RG-Combat"), new AvoidanceModel() };
+
+    int raced = 0;
+
+    // Two threads race branch and bound against one other engine, four against all.
+    for (int threads = 2; threads <= 4; ++threads) {
+      // Raced whatever its estimate; one portfolio solves every space in turn.
+      PortfolioSolver solver = new PortfolioSolver(threads, 0.0);
+
+      for (AbstractModel model : MODELS) {
+        for (int n = 4; n <= 16; n += 4) {
+          for (long seed = 0; seed < BranchAndBoundSolverTest.SEEDS; ++seed) {
+            SearchSpace space    = SyntheticSpaces.create(model, seed, n);
+            Solution    expected = new BranchAndBoundSolver().solve(space);
+            Solution    solution = solver.solve(space);
+            String      where    = model + ", " + n + " items, seed " + seed + ", " + solver;
+
+            // Every engine has stopped by the time the solve returns, so the next
+            // solve starts none that is still running.
+            assertEquals(where, 0, solver.running());
+
+            assertEquals(where, BruteForce.ep(space, expected), BruteForce.ep(space, solution));
+            if (solver.winner() instanceof BranchAndBoundSolver || solver.winner() instanceof DynamicSolver) {
+              assertArrayEquals(where, expected.options(), solution.options());
+            }
+            if (solver.toString().contains("raced")) {
+              ++raced;
+            }
+          }
+        }
+      }
+    }
+
+    assertTrue("no space was raced", raced > 0);
+  }
+}
@@ -0,0 +1,53 @@
+/**
+ * @author Luke Tyler Downey
+ * Copyright 2011 Glow Interactive
+ *
+ * This software contains original work and/or modifications to
+ * original work, which are redistributed under the following terms.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.glowinteractive.reforger;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the best plan of a presolved space, expanded, is a best plan of
+ * the full space, against every plan of small synthetic spaces.
+ */
+public class PresolveTest {
+
+  @Test public void expand() {
+    for (AbstractModel model : BranchAndBoundSolverTest.models()) {
+      for (int n = 1; n <= BranchAndBoundSolverTest.MAX_ITEMS; ++n) {
+        for (long seed = 0; seed < BranchAndBoundSolverTest.SEEDS; ++seed) {
+          SearchSpace space    = SyntheticSpaces.create(model, seed, n);
+          String      where    = model + ", " + n + " items, seed " + seed;
+          Presolve    presolve = new Presolve(space);
+          Solution    expanded = presolve.expand(new BranchAndBoundSolver().solve(presolve.reduced()));
+
+          assertEquals(where, space.itemCount(), expanded.options().length);
+          for (int i = 0; i < space.itemCount(); ++i) {
+            assertTrue(where, expanded.option(i) >= -1 && expanded.option(i) < space.optionCount(i));
+          }
+          BranchAndBoundSolverTest.assertOptimal(where, space, BruteForce.best(space), expanded);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,135 @@
+/**
+ * @author Luke Tyler Downey
+ * Copyright 2011 Glow Interactive
+ *
+ * This software contains original work and/or modifications to
+ * original work, which are redistributed under the following terms.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.glowinteractive.reforger;
+
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the ranges SensitivityAnalysis finds against every plan of small
+ * synthetic spaces: each end must be where the first plan catches up with the
+ * optimum as the coefficient moves, or open if none does within the span.
+ */
+public class SensitivityAnalysisTest {
+
+  // Every range and direction scans all plans, so spaces stay smaller than for
+  // the solvers.
+  private static final int MAX_ITEMS = 5;
+
+  @Test public void ranges() {
+    SensitivityAnalysis analysis = new SensitivityAnalysis();
+
+    for (AbstractModel model : BranchAndBoundSolverTest.models()) {
+      final FixedPointModel FIXED = FixedPointModel.create(model);
+
+      long largest = 0;
+      for (int s = 0; s < Stat.TYPE_COUNT; ++s) {
+        for (int k = 0; k <= FIXED.breakpoints(s).length; ++k) {
+          largest = Math.max(largest, Math.abs(FIXED.slope(s, k)));
+        }
+      }
+      final long LIMIT = Math.max(1, SensitivityAnalysis.SPAN * largest);
+
+      for (int n = 1; n <= MAX_ITEMS; ++n) {
+        for (long seed = 0; seed < BranchAndBoundSolverTest.SEEDS; ++seed) {
+          SearchSpace space = SyntheticSpaces.create(model, seed, n);
+          String      where = model + ", " + n + " items, seed " + seed;
+
+          long count = 1;
+          for (int i = 0; i < space.itemCount(); ++i) {
+            count *= space.optionCount(i) + 1;
+          }
+
+          // The stats and EP after every plan, and the first best plan.
+          final int[]  STATS = new int[(int) count * Stat.TYPE_COUNT];
+          final long[] EP    = new long[(int) count];
+          final int[]  BEST  = new int[space.itemCount()];
+          final int[]  INDEX = { 0, 0 };
+          BruteForce.forEach(space, new BruteForce.Visitor() {
+            @Override public void visit(int[] plan, int[] stats) {
+              final int P = INDEX[0]++;
+
+              System.arraycopy(stats, 0, STATS, P * Stat.TYPE_COUNT, Stat.TYPE_COUNT);
+              EP[P] = FIXED.calculateEP(stats);
+              if (EP[P] > EP[INDEX[1]] || P == 0) {
+                INDEX[1] = P;
+                System.arraycopy(plan, 0, BEST, 0, plan.length);
+              }
+            }
+          });
+
+          final int  BEST_INDEX = INDEX[1];
+          final long BEST_EP    = EP[BEST_INDEX];
+
+          List<SensitivityAnalysis.Range> ranges = analysis.analyze(space, Solution.evaluate(space, BEST));
+          assertTrue(where, analysis.complete());
+
+          for (SensitivityAnalysis.Range range : ranges) {
+            final int S    = range.stat().ordinal();
+            final int K    = range.segment();
+            final int BASE = STATS[BEST_INDEX * Stat.TYPE_COUNT + S];
+
+            for (int sign = -1; sign <= 1; sign += 2) {
+              // The smallest move at which some plan catches up with the optimum.
+              long    num     = LIMIT;
+              long    den     = 1;
+              boolean crossed = false;
+              for (int p = 0; p < EP.length; ++p) {
+                long rise = sign * (length(FIXED, S, K, STATS[p * Stat.TYPE_COUNT + S])
+                                    - length(FIXED, S, K, BASE));
+                if (rise <= 0) {
+                  continue;
+                }
+
+                long gap = BEST_EP - EP[p];
+                if (gap * den < num * rise) {
+                  num     = gap;
+                  den     = rise;
+                  crossed = true;
+                }
+              }
+
+              float   expected = FixedPointModel.toEP(FIXED.slope(S, K))
+                      + sign * (float) ((double) num / den / FixedPointModel.SCALE);
+              float   end      = (sign < 0) ? range.low() : range.high();
+              boolean open     = (sign < 0) ? range.lowOpen() : range.highOpen();
+
+              assertEquals(where + ": " + range, expected, end, 0);
+              assertEquals(where + ": " + range, !crossed, open);
+            }
+          }
+        }
+      }
+    }
+  }
+
+  // The part of stat value v inside segment k of the stat's curve.
+  private static long length(FixedPointModel model, int stat, int k, int v) {
+    final int[] BREAKPOINTS = model.breakpoints(stat);
+
+    long high = (k < BREAKPOINTS.length) ? Math.min(v, BREAKPOINTS[k]) : v;
+    return (k == 0) ? high : Math.max(0, high - BREAKPOINTS[k - 1]);
+  }
+}
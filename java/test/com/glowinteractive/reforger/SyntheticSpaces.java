@@ -0,0 +1,91 @@
+/**
+ * @author Luke Tyler Downey
+ * Copyright 2011 Glow Interactive
+ *
+ * This software contains original work and/or modifications to
+ * original work, which are redistributed under the following terms.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.glowinteractive.reforger;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Repeatable synthetic characters, so that tests and benchmarks need no Armory
+ * access.
+ */
+final class SyntheticSpaces {
+
+  // Secondary stat budgets of typical item levels; items share these amounts.
+  private static final int[] STAT_BUDGETS = { 97, 114, 129, 143, 161, 172, 191, 215, 229, 254 };
+
+  /**
+   * Builds a repeatable character: every item carries two secondary stats drawn
+   * from common stat budgets, plus gem and enchant bonuses.
+   */
+  public static SearchSpace create(AbstractModel model, long seed, int itemCount) {
+    return create(new AbstractModel[] { model }, seed, itemCount);
+  }
+
+  /**
+   * Returns a random character whose items carry only the stats that the models
+   * reforge from or to.
+   */
+  public static SearchSpace create(AbstractModel[] models, long seed, int itemCount) {
+    Random random = new Random(seed);
+
+    EnumSet<Stat> used = EnumSet.noneOf(Stat.class);
+    for (AbstractModel model : models) {
+      EnumMap<Stat, EnumSet<Stat>> mappings = model.candidateMappings();
+      for (Stat s : mappings.keySet()) {
+        used.add(s);
+        used.addAll(mappings.get(s));
+      }
+    }
+    final Stat[] STATS = used.toArray(new Stat[used.size()]);
+
+    List<Item> items = new ArrayList<Item>(itemCount);
+
+    for (int i = 0; i < itemCount; ++i) {
+      Stat first  = STATS[random.nextInt(STATS.length)];
+      Stat second = first;
+      while (second == first) {
+        second = STATS[random.nextInt(STATS.length)];
+      }
+
+      int budget = STAT_BUDGETS[random.nextInt(STAT_BUDGETS.length)];
+
+      StatKVMap mutable   = new StatKVMap(new StatKVPair(first, budget),
+                                          new StatKVPair(second, budget * 2 / 3));
+      StatKVMap immutable = new StatKVMap(new StatKVPair(STATS[random.nextInt(STATS.length)],
+                                                         20 * random.nextInt(4)));
+
+      items.add(new Item(i + 1, "Synthetic Item " + (i + 1), mutable, immutable));
+    }
+
+    StatAccumulator stats = new StatAccumulator();
+    stats.addItems(items);
+
+    return SearchSpace.forItems(models, stats.data(), items);
+  }
+
+  private SyntheticSpaces() { }
+}